@@ -0,0 +1,234 @@
+package com.github.davidcarboni.restolino.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a Gson {@link com.google.gson.TypeAdapter TypeAdapter} for each
+ * request and response message type of the handler methods in
+ * <code>@Api</code> classes (and for the types of their fields, where those
+ * are also your classes), plus a factory for them that Restolino finds as a
+ * service.
+ * <p>
+ * A type gets an adapter if it's a concrete, non-generic class in the
+ * sources being compiled with a non-private no-argument constructor and
+ * only non-private, non-final fields (so that the generated adapter, in the
+ * same package, can read and write them directly). Anything else is left to
+ * Gson, which is what happens today.
+ */
+@SupportedAnnotationTypes(JsonAdapterProcessor.API)
+public class JsonAdapterProcessor extends AbstractProcessor {
+
+    static final String API = "com.github.davidcarboni.restolino.framework.Api";
+    static final String SERVICE = "com.github.davidcarboni.restolino.json.GeneratedTypeAdapterFactory";
+    static final String FACTORY_NAME = "RestolinoJsonAdapters";
+
+    static final Set<String> HTTP_METHODS = new HashSet<>(Arrays.asList(
+            "javax.ws.rs.GET", "javax.ws.rs.PUT", "javax.ws.rs.POST", "javax.ws.rs.DELETE"));
+    static final Set<String> PARAMETER_ANNOTATIONS = new HashSet<>(Arrays.asList(
+            "javax.ws.rs.PathParam", "javax.ws.rs.QueryParam", "javax.ws.rs.HeaderParam"));
+    static final Set<String> SERVLET_TYPES = new HashSet<>(Arrays.asList(
+            "javax.servlet.http.HttpServletRequest", "javax.servlet.http.HttpServletResponse"));
+
+    private final Set<String> generated = new HashSet<>();
+    private final List<String> factories = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+
+        // The classes we can generate adapters for are the ones being compiled:
+        Set<TypeElement> sources = new HashSet<>();
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            addWithNested(type, sources);
+        }
+
+        // Collect message types from handler methods:
+        Map<String, MessageType> messageTypes = new TreeMap<>();
+        for (TypeElement annotation : annotations) {
+            for (TypeElement api : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation))) {
+                for (ExecutableElement method : ElementFilter.methodsIn(api.getEnclosedElements())) {
+                    if (isHandler(method)) {
+                        for (VariableElement parameter : method.getParameters()) {
+                            if (!hasAnnotation(parameter, PARAMETER_ANNOTATIONS)
+                                    && !SERVLET_TYPES.contains(erasure(parameter.asType()))) {
+                                collect(parameter.asType(), sources, messageTypes);
+                            }
+                        }
+                        collect(method.getReturnType(), sources, messageTypes);
+                    }
+                }
+            }
+        }
+
+        // Generate:
+        List<MessageType> written = new ArrayList<>();
+        for (MessageType messageType : messageTypes.values()) {
+            if (generated.add(messageType.qualifiedName) && write(messageType)) {
+                written.add(messageType);
+            }
+        }
+        if (!written.isEmpty()) {
+            writeFactory(written);
+        }
+        return false;
+    }
+
+    private static void addWithNested(TypeElement type, Set<TypeElement> result) {
+        result.add(type);
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            addWithNested(nested, result);
+        }
+    }
+
+    private static boolean isHandler(ExecutableElement method) {
+        return !method.getModifiers().contains(Modifier.PRIVATE) && hasAnnotation(method, HTTP_METHODS);
+    }
+
+    static boolean hasAnnotation(Element element, Set<String> names) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (names.contains(((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the classes that make up a type (e.g. both <code>List</code> and
+     * <code>Item</code> for <code>List&lt;Item&gt;</code>) and, for each one
+     * that can have an adapter, the types of its fields.
+     */
+    private void collect(TypeMirror type, Set<TypeElement> sources, Map<String, MessageType> result) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            collect(((ArrayType) type).getComponentType(), sources, result);
+        } else if (type.getKind() == TypeKind.WILDCARD) {
+            WildcardType wildcard = (WildcardType) type;
+            if (wildcard.getExtendsBound() != null) {
+                collect(wildcard.getExtendsBound(), sources, result);
+            }
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) type;
+            for (TypeMirror argument : declared.getTypeArguments()) {
+                collect(argument, sources, result);
+            }
+            TypeElement element = (TypeElement) declared.asElement();
+            String name = element.getQualifiedName().toString();
+            if (sources.contains(element) && !result.containsKey(name) && !generated.contains(name)) {
+                MessageType messageType = MessageType.of(element, processingEnv);
+                if (messageType != null) {
+                    result.put(name, messageType);
+                    for (MessageType.Field field : messageType.fields) {
+                        collect(field.type, sources, result);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean write(MessageType messageType) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    messageType.adapterQualifiedName(), messageType.element);
+            try (Writer writer = file.openWriter()) {
+                writer.write(messageType.adapterSource());
+            }
+            return true;
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to generate a Json adapter: " + e.getMessage(), messageType.element);
+            return false;
+        }
+    }
+
+    private void writeFactory(List<MessageType> messageTypes) {
+
+        String packageName = messageTypes.get(0).packageName;
+        String simpleName = FACTORY_NAME + (factories.isEmpty() ? "" : String.valueOf(factories.size() + 1));
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Generated by restolino-codegen.\n */\n");
+        source.append("public final class ").append(simpleName)
+                .append(" implements ").append(SERVICE).append(" {\n\n");
+        source.append("    @Override\n    @SuppressWarnings(\"unchecked\")\n");
+        source.append("    public <T> com.google.gson.TypeAdapter<T> create(com.google.gson.Gson gson, com.google.gson.reflect.TypeToken<T> type) {\n");
+        source.append("        Class<? super T> raw = type.getRawType();\n");
+        source.append("        if (raw.getClassLoader() != ").append(simpleName).append(".class.getClassLoader()) {\n");
+        source.append("            return null;\n        }\n");
+        source.append("        switch (raw.getName()) {\n");
+        for (MessageType messageType : messageTypes) {
+            source.append("            case \"").append(messageType.binaryName).append("\":\n");
+            source.append("                return (com.google.gson.TypeAdapter<T>) new ")
+                    .append(messageType.adapterQualifiedName()).append("(gson);\n");
+        }
+        source.append("            default:\n                return null;\n        }\n    }\n}\n");
+
+        try {
+            Element[] originating = new Element[messageTypes.size()];
+            for (int i = 0; i < originating.length; i++) {
+                originating[i] = messageTypes.get(i).element;
+            }
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, originating);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+            factories.add(qualifiedName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to generate " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void writeServiceFile() {
+        if (factories.isEmpty()) {
+            return;
+        }
+        Filer filer = processingEnv.getFiler();
+        try {
+            FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + SERVICE);
+            try (Writer writer = file.openWriter()) {
+                for (String factory : factories) {
+                    writer.write(factory);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to register generated Json adapters: " + e.getMessage());
+        }
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+}
@@ -0,0 +1,431 @@
+package com.github.davidcarboni.restolino.codegen;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import java.util.*;
+
+/**
+ * A message class that an adapter can be generated for, and the source of
+ * that adapter.
+ */
+class MessageType {
+
+    static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    static final String JSON_ADAPTER = "com.google.gson.annotations.JsonAdapter";
+    static final String GENERATED = "com.github.davidcarboni.restolino.json.Generated";
+
+    /**
+     * How a field is read and written.
+     */
+    enum Kind {
+        STRING, INT, LONG, BOOLEAN, PRIMITIVE, OBJECT
+    }
+
+    static class Field {
+        String name;
+        TypeMirror type;
+        Kind kind;
+        String serializedName;
+        List<String> alternateNames = new ArrayList<>();
+    }
+
+    TypeElement element;
+    String qualifiedName;
+    String binaryName;
+    String packageName;
+    List<Field> fields = new ArrayList<>();
+
+    /**
+     * @param element A class.
+     * @param env     The processing environment.
+     * @return A message type, or null if an adapter can't be generated for the class.
+     */
+    static MessageType of(TypeElement element, ProcessingEnvironment env) {
+
+        Elements elements = env.getElementUtils();
+        String packageName = elements.getPackageOf(element).getQualifiedName().toString();
+        if (!isConcreteClass(element) || !hasConstructor(element) || hasAnnotation(element, JSON_ADAPTER)) {
+            return null;
+        }
+
+        // Fields of the class, then of its superclasses, as Gson orders them:
+        List<Field> fields = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        TypeElement type = element;
+        while (type != null && !type.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement variable : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                Set<Modifier> modifiers = variable.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (modifiers.contains(Modifier.FINAL) || !isAccessible(variable, packageName, elements)
+                        || !isAccessible(variable.asType(), packageName, elements)
+                        || hasAnnotation(variable, JSON_ADAPTER)) {
+                    return null;
+                }
+                Field field = field(variable);
+                List<String> fieldNames = new ArrayList<>(field.alternateNames);
+                fieldNames.add(field.serializedName);
+                for (String name : fieldNames) {
+                    if (!names.add(name)) {
+                        // Gson reports this as an error, so leave it to Gson:
+                        return null;
+                    }
+                }
+                fields.add(field);
+            }
+            TypeMirror superclass = type.getSuperclass();
+            if (superclass.getKind() != TypeKind.DECLARED || !((DeclaredType) superclass).getTypeArguments().isEmpty()) {
+                return superclass.getKind() == TypeKind.NONE ? result(element, packageName, fields, elements) : null;
+            }
+            type = (TypeElement) ((DeclaredType) superclass).asElement();
+        }
+        return result(element, packageName, fields, elements);
+    }
+
+    private static MessageType result(TypeElement element, String packageName, List<Field> fields, Elements elements) {
+        MessageType result = new MessageType();
+        result.element = element;
+        result.qualifiedName = element.getQualifiedName().toString();
+        result.binaryName = elements.getBinaryName(element).toString();
+        result.packageName = packageName;
+        result.fields = fields;
+        return result;
+    }
+
+    private static boolean isConcreteClass(TypeElement element) {
+        if (element.getKind() != ElementKind.CLASS
+                || element.getModifiers().contains(Modifier.ABSTRACT)
+                || !element.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        // Nested classes need to be static and visible in the package:
+        Element current = element;
+        while (current.getKind().isClass() || current.getKind().isInterface()) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            Element enclosing = current.getEnclosingElement();
+            if (enclosing.getKind() != ElementKind.PACKAGE && !current.getModifiers().contains(Modifier.STATIC)
+                    && current.getKind() == ElementKind.CLASS) {
+                return false;
+            }
+            current = enclosing;
+        }
+        return true;
+    }
+
+    private static boolean hasConstructor(TypeElement element) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasAnnotation(Element element, String name) {
+        return annotation(element, name) != null;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return If an element (a field or a type) can be used from another class in the package.
+     */
+    private static boolean isAccessible(Element element, String packageName, Elements elements) {
+        Element current = element;
+        while (current.getKind() != ElementKind.PACKAGE) {
+            Set<Modifier> modifiers = current.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC)
+                    && !elements.getPackageOf(current).getQualifiedName().contentEquals(packageName)) {
+                return false;
+            }
+            current = current.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private static boolean isAccessible(TypeMirror type, String packageName, Elements elements) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return isAccessible(((ArrayType) type).getComponentType(), packageName, elements);
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                TypeMirror bound = wildcard.getExtendsBound() != null ? wildcard.getExtendsBound() : wildcard.getSuperBound();
+                return bound == null || isAccessible(bound, packageName, elements);
+            case DECLARED:
+                DeclaredType declared = (DeclaredType) type;
+                for (TypeMirror argument : declared.getTypeArguments()) {
+                    if (!isAccessible(argument, packageName, elements)) {
+                        return false;
+                    }
+                }
+                return isAccessible(declared.asElement(), packageName, elements);
+            default:
+                return type.getKind().isPrimitive();
+        }
+    }
+
+    private static Field field(VariableElement variable) {
+        Field field = new Field();
+        field.name = variable.getSimpleName().toString();
+        field.type = variable.asType();
+        field.kind = kind(field.type);
+        field.serializedName = field.name;
+
+        AnnotationMirror serializedName = annotation(variable, SERIALIZED_NAME);
+        if (serializedName != null) {
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : serializedName.getElementValues().entrySet()) {
+                String key = entry.getKey().getSimpleName().toString();
+                if ("value".equals(key)) {
+                    field.serializedName = (String) entry.getValue().getValue();
+                } else if ("alternate".equals(key)) {
+                    for (Object alternate : (List<?>) entry.getValue().getValue()) {
+                        field.alternateNames.add((String) ((AnnotationValue) alternate).getValue());
+                    }
+                }
+            }
+        }
+        return field;
+    }
+
+    private static Kind kind(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case DECLARED:
+                TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+                return element.getQualifiedName().contentEquals("java.lang.String") ? Kind.STRING : Kind.OBJECT;
+            default:
+                return type.getKind().isPrimitive() ? Kind.PRIMITIVE : Kind.OBJECT;
+        }
+    }
+
+    String adapterSimpleName() {
+        StringBuilder name = new StringBuilder(element.getSimpleName());
+        for (Element enclosing = element.getEnclosingElement();
+             enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+        }
+        return name.append("JsonAdapter").toString();
+    }
+
+    String adapterQualifiedName() {
+        return packageName.isEmpty() ? adapterSimpleName() : packageName + "." + adapterSimpleName();
+    }
+
+    /**
+     * @return The source of a {@link com.google.gson.TypeAdapter TypeAdapter} that reads and writes fields directly.
+     */
+    String adapterSource() {
+
+        String adapter = adapterSimpleName();
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Generated by restolino-codegen.\n */\n");
+        source.append("public final class ").append(adapter)
+                .append(" extends com.google.gson.TypeAdapter<").append(qualifiedName).append("> {\n\n");
+
+        // Fields:
+        source.append("    private final com.google.gson.Gson gson;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            if (delegated(fields.get(i))) {
+                source.append("    private final java.lang.reflect.Type type").append(i).append(";\n");
+                source.append("    private final com.google.gson.TypeAdapter<Object> adapter").append(i).append(";\n");
+            }
+        }
+
+        // Constructor:
+        source.append("\n    public ").append(adapter).append("(com.google.gson.Gson gson) {\n");
+        source.append("        this.gson = gson;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            if (delegated(field)) {
+                source.append("        type").append(i).append(" = ").append(typeExpression(field.type)).append(";\n");
+                source.append("        adapter").append(i).append(" = ").append(GENERATED)
+                        .append(".adapter(gson, type").append(i).append(");\n");
+            }
+        }
+        source.append("    }\n");
+
+        // Write:
+        source.append("\n    @Override\n");
+        source.append("    public void write(com.google.gson.stream.JsonWriter out, ").append(qualifiedName)
+                .append(" value) throws java.io.IOException {\n");
+        source.append("        if (value == null) {\n            out.nullValue();\n            return;\n        }\n");
+        // A subclass (e.g. in a field declared as this type) is written as Gson would write it:
+        source.append("        if (value.getClass() != ").append(qualifiedName).append(".class) {\n");
+        source.append("            ").append(GENERATED).append(".adapter(gson, value.getClass()).write(out, value);\n");
+        source.append("            return;\n        }\n");
+        source.append("        out.beginObject();\n");
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            source.append("        out.name(").append(literal(field.serializedName)).append(")");
+            if (delegated(field)) {
+                source.append(";\n        ").append(GENERATED).append(".write(gson, adapter").append(i)
+                        .append(", type").append(i).append(", out, value.").append(field.name).append(");\n");
+            } else {
+                source.append(".value(value.").append(field.name).append(");\n");
+            }
+        }
+        source.append("        out.endObject();\n    }\n");
+
+        // Read:
+        source.append("\n    @Override\n    @SuppressWarnings(\"unchecked\")\n");
+        source.append("    public ").append(qualifiedName)
+                .append(" read(com.google.gson.stream.JsonReader in) throws java.io.IOException {\n");
+        source.append("        if (in.peek() == com.google.gson.stream.JsonToken.NULL) {\n");
+        source.append("            in.nextNull();\n            return null;\n        }\n");
+        source.append("        ").append(qualifiedName).append(" value = new ").append(qualifiedName).append("();\n");
+        source.append("        try {\n");
+        source.append("            in.beginObject();\n");
+        source.append("            while (in.hasNext()) {\n");
+        source.append("                switch (in.nextName()) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            source.append("                    case ").append(literal(field.serializedName)).append(":\n");
+            for (String alternate : field.alternateNames) {
+                source.append("                    case ").append(literal(alternate)).append(":\n");
+            }
+            source.append("                        ").append(readStatement(field, i)).append("\n");
+            source.append("                        break;\n");
+        }
+        source.append("                    default:\n                        in.skipValue();\n");
+        source.append("                }\n            }\n");
+        source.append("            in.endObject();\n");
+        source.append("        } catch (IllegalStateException e) {\n");
+        source.append("            throw new com.google.gson.JsonSyntaxException(e);\n        }\n");
+        source.append("        return value;\n    }\n}\n");
+
+        return source.toString();
+    }
+
+    private static boolean delegated(Field field) {
+        return field.kind == Kind.OBJECT || field.kind == Kind.PRIMITIVE;
+    }
+
+    private static String readStatement(Field field, int index) {
+        String target = "value." + field.name;
+        switch (field.kind) {
+            case STRING:
+                return target + " = " + GENERATED + ".readString(in);";
+            case INT:
+                return target + " = " + GENERATED + ".readInt(in, " + target + ");";
+            case LONG:
+                return target + " = " + GENERATED + ".readLong(in, " + target + ");";
+            case BOOLEAN:
+                return target + " = " + GENERATED + ".readBoolean(in, " + target + ");";
+            case PRIMITIVE:
+                // As with Gson, a null leaves a primitive field as it is:
+                return "Object read" + index + " = adapter" + index + ".read(in);\n"
+                        + "                        if (read" + index + " != null) {\n"
+                        + "                            " + target + " = (" + boxed(field.type) + ") read" + index + ";\n"
+                        + "                        }";
+            default:
+                return target + " = (" + typeName(field.type) + ") adapter" + index + ".read(in);";
+        }
+    }
+
+    /**
+     * @return A <code>java.lang.reflect.Type</code> expression for the type.
+     */
+    static String typeExpression(TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+            return "new com.google.gson.reflect.TypeToken<" + typeName(type) + ">() {\n        }.getType()";
+        }
+        if (type.getKind() == TypeKind.ARRAY && typeName(type).contains("<")) {
+            return "new com.google.gson.reflect.TypeToken<" + typeName(type) + ">() {\n        }.getType()";
+        }
+        return typeName(type) + ".class";
+    }
+
+    /**
+     * @return The type as it would be written in source, without any type annotations.
+     */
+    static String typeName(TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return typeName(((ArrayType) type).getComponentType()) + "[]";
+            case WILDCARD:
+                WildcardType wildcard = (WildcardType) type;
+                if (wildcard.getExtendsBound() != null) {
+                    return "? extends " + typeName(wildcard.getExtendsBound());
+                } else if (wildcard.getSuperBound() != null) {
+                    return "? super " + typeName(wildcard.getSuperBound());
+                }
+                return "?";
+            case DECLARED:
+                DeclaredType declared = (DeclaredType) type;
+                StringBuilder name = new StringBuilder(((TypeElement) declared.asElement()).getQualifiedName());
+                if (!declared.getTypeArguments().isEmpty()) {
+                    name.append('<');
+                    for (int i = 0; i < declared.getTypeArguments().size(); i++) {
+                        if (i > 0) {
+                            name.append(", ");
+                        }
+                        name.append(typeName(declared.getTypeArguments().get(i)));
+                    }
+                    name.append('>');
+                }
+                return name.toString();
+            default:
+                return type.getKind().name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static String boxed(TypeMirror type) {
+        switch (type.getKind()) {
+            case CHAR:
+                return "java.lang.Character";
+            case BYTE:
+                return "java.lang.Byte";
+            case SHORT:
+                return "java.lang.Short";
+            case FLOAT:
+                return "java.lang.Float";
+            case DOUBLE:
+                return "java.lang.Double";
+            default:
+                throw new IllegalArgumentException("Not a primitive handled by a delegate: " + type);
+        }
+    }
+
+    static String literal(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7E) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.davidcarboni.restolino.codegen;
+
+import com.github.davidcarboni.restolino.json.Serialiser;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiles some example API classes with {@link JsonAdapterProcessor} and
+ * checks that the generated adapters give the same results as Gson.
+ */
+public class JsonAdapterProcessorTest {
+
+    static Path output;
+    static ClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws IOException {
+
+        List<JavaFileObject> sources = new ArrayList<>();
+        sources.add(source("shop.Orders", "package shop;\n" +
+                "import com.github.davidcarboni.restolino.framework.Api;\n" +
+                "import javax.servlet.http.*;\n" +
+                "import javax.ws.rs.*;\n" +
+                "import java.util.List;\n" +
+                "@Api\n" +
+                "public class Orders {\n" +
+                "    @POST public Order create(HttpServletRequest request, HttpServletResponse response, Order order) { return order; }\n" +
+                "    @GET public List<Summary> list(@QueryParam(\"q\") String q) { return null; }\n" +
+                "    @PUT public Secret secret(Secret secret) { return secret; }\n" +
+                "}\n"));
+        sources.add(source("shop.Base", "package shop;\n" +
+                "class Base {\n" +
+                "    String etag;\n" +
+                "}\n"));
+        sources.add(source("shop.Order", "package shop;\n" +
+                "import com.google.gson.annotations.SerializedName;\n" +
+                "import java.util.*;\n" +
+                "public class Order extends Base {\n" +
+                "    static int ignored;\n" +
+                "    transient String cached;\n" +
+                "    long id;\n" +
+                "    String customer;\n" +
+                "    boolean paid;\n" +
+                "    double total;\n" +
+                "    Integer count;\n" +
+                "    List<Item> items;\n" +
+                "    Item featured;\n" +
+                "    Map<String, List<Integer>> tags;\n" +
+                "    Date created;\n" +
+                "    Status status;\n" +
+                "    Object extra;\n" +
+                "    @SerializedName(value = \"note_text\", alternate = {\"note\"}) String note;\n" +
+                "    public enum Status { OPEN, CLOSED }\n" +
+                "}\n"));
+        sources.add(source("shop.Item", "package shop;\n" +
+                "public class Item {\n" +
+                "    String name;\n" +
+                "    int quantity;\n" +
+                "    Item child;\n" +
+                "}\n"));
+        sources.add(source("shop.SpecialItem", "package shop;\n" +
+                "public class SpecialItem extends Item {\n" +
+                "    String offer = \"2 for 1\";\n" +
+                "}\n"));
+        sources.add(source("shop.Summary", "package shop;\n" +
+                "public class Summary {\n" +
+                "    public String title;\n" +
+                "}\n"));
+        sources.add(source("shop.Secret", "package shop;\n" +
+                "public class Secret {\n" +
+                "    private String key;\n" +
+                "}\n"));
+
+        output = Files.createTempDirectory("codegen");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(output.toFile()));
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(output.toFile()));
+        List<File> classpath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.add(new File(entry));
+        }
+        fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                Arrays.asList("-source", "8", "-target", "8", "-Xlint:-options"), null, sources);
+        task.setProcessors(Collections.singletonList(new JsonAdapterProcessor()));
+        boolean success = task.call();
+        assertTrue(diagnostics.getDiagnostics().toString(), success);
+
+        classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, JsonAdapterProcessorTest.class.getClassLoader());
+        Serialiser.loadGeneratedAdapters(Collections.singleton(classLoader));
+    }
+
+    @Test
+    public void shouldGenerateAdaptersForMessageTypes() {
+        assertTrue(Files.exists(output.resolve("shop/OrderJsonAdapter.java")));
+        assertTrue(Files.exists(output.resolve("shop/ItemJsonAdapter.java")));
+        assertTrue(Files.exists(output.resolve("shop/SummaryJsonAdapter.java")));
+    }
+
+    @Test
+    public void shouldNotGenerateAdaptersForPrivateFieldsOrNonMessageTypes() {
+        assertFalse(Files.exists(output.resolve("shop/SecretJsonAdapter.java")));
+        assertFalse(Files.exists(output.resolve("shop/OrdersJsonAdapter.java")));
+        assertFalse(Files.exists(output.resolve("shop/BaseJsonAdapter.java")));
+    }
+
+    @Test
+    public void shouldRegisterFactory() throws IOException {
+
+        // When
+        Path service = output.resolve("META-INF/services/com.github.davidcarboni.restolino.json.GeneratedTypeAdapterFactory");
+
+        // Then
+        assertEquals(Collections.singletonList("shop.RestolinoJsonAdapters"), Files.readAllLines(service, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldUseGeneratedAdapter() throws ClassNotFoundException {
+
+        // When
+        TypeAdapter<?> adapter = Serialiser.getGson().getAdapter(classLoader.loadClass("shop.Order"));
+
+        // Then
+        assertEquals("shop.OrderJsonAdapter", adapter.getClass().getName());
+    }
+
+    @Test
+    public void shouldMatchGson() throws ReflectiveOperationException {
+
+        // Given
+        Gson reflective = new GsonBuilder().setDateFormat(Serialiser.toUTCStringDateFormat).create();
+        Class<?> orderClass = classLoader.loadClass("shop.Order");
+        String json = "{\"etag\":\"e1\",\"id\":42,\"customer\":\"Sam\",\"paid\":\"true\",\"total\":9.5,\"count\":null," +
+                "\"items\":[{\"name\":\"eggs\",\"quantity\":2,\"child\":{\"name\":\"ham\",\"quantity\":1}}]," +
+                "\"tags\":{\"a\":[1,2]},\"status\":\"CLOSED\",\"extra\":{\"x\":[true]},\"note\":\"green\",\"unknown\":[1,{}]}";
+
+        // When
+        Object generated = addSpecialItem(Serialiser.deserialise(json, orderClass));
+        Object expected = addSpecialItem(reflective.fromJson(json, orderClass));
+
+        // Then
+        assertEquals(reflective.toJson(expected), Serialiser.serialise(generated));
+        assertTrue(Serialiser.serialise(generated).contains("\"offer\":\"2 for 1\""));
+        assertTrue(Serialiser.serialise(generated).contains("\"note_text\":\"green\""));
+        assertEquals("null", Serialiser.serialise(null));
+    }
+
+    /**
+     * Adds a subclass of Item, which has no generated adapter, to the list
+     * of items and as the featured item.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object addSpecialItem(Object order) throws ReflectiveOperationException {
+        Object special = classLoader.loadClass("shop.SpecialItem").getConstructor().newInstance();
+        Field itemsField = order.getClass().getDeclaredField("items");
+        itemsField.setAccessible(true);
+        List<Object> items = (List<Object>) itemsField.get(order);
+        items.add(special);
+        Field featured = order.getClass().getDeclaredField("featured");
+        featured.setAccessible(true);
+        featured.set(order, special);
+        return order;
+    }
+
+    private static JavaFileObject source(String name, final String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
@@ -1,5 +1,11 @@
 package com.github.davidcarboni.restolino;
 
+import com.github.davidcarboni.restolino.api.ResponseCache;
+import com.github.davidcarboni.restolino.helpers.Events;
+import com.github.davidcarboni.restolino.helpers.Multipart;
+import com.github.davidcarboni.restolino.jetty.BatchHandler;
+import com.github.davidcarboni.restolino.jetty.FilesCache;
+import com.github.davidcarboni.restolino.json.Serialiser;
 import org.apache.commons.lang3.StringUtils;
 import org.reflections.Reflections;
 import org.slf4j.Logger;
@@ -29,6 +35,17 @@ public class Configuration {
     public static final String AUTH_USERNAME = "restolino.username";
     public static final String AUTH_PASSWORD = "restolino.password";
     public static final String AUTH_REALM = "restolino.realm";
+    public static final String CONTENT_LENGTH_LIMIT = "restolino.contentlengthlimit";
+    public static final String FLUSH_INTERVAL = "restolino.flushinterval";
+    public static final String MAX_UPLOAD_SIZE = "restolino.maxuploadsize";
+    public static final String MAX_PART_SIZE = "restolino.maxpartsize";
+    public static final String CACHE_SIZE = "restolino.cachesize";
+    public static final String BATCH_THREADS = "restolino.batchthreads";
+    public static final String BATCH_SIZE = "restolino.batchsize";
+    public static final String BATCH_TIMEOUT = "restolino.batchtimeout";
+    public static final String EVENT_HEARTBEAT = "restolino.eventheartbeat";
+    public static final String FILES_CACHE_SIZE = "restolino.filescachesize";
+    public static final String FILES_CACHE_FILE_SIZE = "restolino.filescachefilesize";
 
     /**
      * The Jetty server port.
@@ -106,6 +123,64 @@ public class Configuration {
      */
     public String realm;
 
+    /**
+     * Json responses up to this size, in bytes, are buffered and sent with a
+     * <code>Content-Length</code>. Larger ones are streamed.
+     * ({@value #CONTENT_LENGTH_LIMIT})
+     */
+    public int contentLengthLimit = Serialiser.DEFAULT_CONTENT_LENGTH_LIMIT;
+
+    /**
+     * Streamed Json responses are flushed to the client after this many
+     * messages. ({@value #FLUSH_INTERVAL})
+     */
+    public int flushInterval = Serialiser.DEFAULT_FLUSH_INTERVAL;
+
+    /**
+     * The largest multipart upload, in bytes. ({@value #MAX_UPLOAD_SIZE})
+     */
+    public long maxUploadSize = Multipart.DEFAULT_MAX_UPLOAD_SIZE;
+
+    /**
+     * The largest part of a multipart upload, in bytes. ({@value #MAX_PART_SIZE})
+     */
+    public long maxPartSize = Multipart.DEFAULT_MAX_PART_SIZE;
+
+    /**
+     * The size of the cache for <code>@Cached</code> responses, in bytes. ({@value #CACHE_SIZE})
+     */
+    public long cacheSize = ResponseCache.DEFAULT_MAX_BYTES;
+
+    /**
+     * The number of batched calls that can run at once. ({@value #BATCH_THREADS})
+     */
+    public int batchThreads = BatchHandler.DEFAULT_THREADS;
+
+    /**
+     * The maximum number of calls in a batch. ({@value #BATCH_SIZE})
+     */
+    public int batchSize = BatchHandler.DEFAULT_MAX_CALLS;
+
+    /**
+     * The time a batch has to finish, in milliseconds. ({@value #BATCH_TIMEOUT})
+     */
+    public long batchTimeout = BatchHandler.DEFAULT_TIMEOUT;
+
+    /**
+     * How often event streams are sent a heartbeat, in milliseconds. ({@value #EVENT_HEARTBEAT})
+     */
+    public long eventHeartbeat = Events.DEFAULT_HEARTBEAT;
+
+    /**
+     * The total size of the static files held in memory, in bytes. ({@value #FILES_CACHE_SIZE})
+     */
+    public long filesCacheSize = FilesCache.DEFAULT_MAX_SIZE;
+
+    /**
+     * The largest static file held in memory, in bytes. Zero turns the cache off. ({@value #FILES_CACHE_FILE_SIZE})
+     */
+    public long filesCacheFileSize = FilesCache.DEFAULT_MAX_FILE_SIZE;
+
     @Override
     public String toString() {
 
@@ -126,6 +201,17 @@ public class Configuration {
         result.append("\n - classesInClasspath:\t" + classesInClasspath);
         result.append("\n - classesUrl:\t" + classesUrl);
         result.append("\n - packagePrefix:\t" + packagePrefix);
+        result.append("\n - contentLengthLimit:\t" + contentLengthLimit);
+        result.append("\n - flushInterval:\t" + flushInterval);
+        result.append("\n - maxUploadSize:\t" + maxUploadSize);
+        result.append("\n - maxPartSize:\t" + maxPartSize);
+        result.append("\n - cacheSize:\t" + cacheSize);
+        result.append("\n - batchThreads:\t" + batchThreads);
+        result.append("\n - batchSize:\t" + batchSize);
+        result.append("\n - batchTimeout:\t" + batchTimeout);
+        result.append("\n - eventHeartbeat:\t" + eventHeartbeat);
+        result.append("\n - filesCacheSize:\t" + filesCacheSize);
+        result.append("\n - filesCacheFileSize:\t" + filesCacheFileSize);
 
         // Basic authentication
         result.append("\nBasic Auth:");
@@ -154,8 +240,38 @@ public class Configuration {
         String password = getValue(AUTH_PASSWORD);
         String realm = getValue(AUTH_REALM);
 
+        // Response buffering:
+        String contentLengthLimit = getValue(CONTENT_LENGTH_LIMIT);
+        String flushInterval = getValue(FLUSH_INTERVAL);
+
+        // Upload limits:
+        String maxUploadSize = getValue(MAX_UPLOAD_SIZE);
+        String maxPartSize = getValue(MAX_PART_SIZE);
+
+        // Response cache:
+        String cacheSize = getValue(CACHE_SIZE);
+
+        // Batches:
+        String batchThreads = getValue(BATCH_THREADS);
+        String batchSize = getValue(BATCH_SIZE);
+        String batchTimeout = getValue(BATCH_TIMEOUT);
+
+        // Event streams:
+        String eventHeartbeat = getValue(EVENT_HEARTBEAT);
+
+        // Static files:
+        String filesCacheSize = getValue(FILES_CACHE_SIZE);
+        String filesCacheFileSize = getValue(FILES_CACHE_FILE_SIZE);
+
         // Set up the configuration:
         configurePort(port);
+        configureContentLengthLimit(contentLengthLimit);
+        configureFlushInterval(flushInterval);
+        configureUploadLimits(maxUploadSize, maxPartSize);
+        configureCacheSize(cacheSize);
+        configureBatches(batchThreads, batchSize, batchTimeout);
+        configureEventHeartbeat(eventHeartbeat);
+        configureFilesCache(filesCacheSize, filesCacheFileSize);
         configureFiles(files);
         configureClasses(classes);
         configureAuthentication(username, password, realm);
@@ -179,6 +295,176 @@ public class Configuration {
         }
     }
 
+    /**
+     * Configures the size limit for buffering Json responses, failing
+     * gracefully if the value can't be parsed.
+     *
+     * @param contentLengthLimit The value of the {@value #CONTENT_LENGTH_LIMIT} parameter.
+     */
+    void configureContentLengthLimit(String contentLengthLimit) {
+
+        if (StringUtils.isNotBlank(contentLengthLimit)) {
+            try {
+                this.contentLengthLimit = Integer.parseInt(contentLengthLimit);
+                log.info("Using content length limit {}", this.contentLengthLimit);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", CONTENT_LENGTH_LIMIT, contentLengthLimit, this.contentLengthLimit);
+            }
+        }
+        Serialiser.setContentLengthLimit(this.contentLengthLimit);
+    }
+
+    /**
+     * Configures how often streamed Json responses are flushed, failing
+     * gracefully if the value can't be parsed.
+     *
+     * @param flushInterval The value of the {@value #FLUSH_INTERVAL} parameter.
+     */
+    void configureFlushInterval(String flushInterval) {
+
+        if (StringUtils.isNotBlank(flushInterval)) {
+            try {
+                this.flushInterval = Integer.parseInt(flushInterval);
+                log.info("Using flush interval {}", this.flushInterval);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", FLUSH_INTERVAL, flushInterval, this.flushInterval);
+            }
+        }
+        Serialiser.setFlushInterval(this.flushInterval);
+    }
+
+    /**
+     * Configures the size limits for multipart uploads, failing gracefully
+     * if the values can't be parsed.
+     *
+     * @param maxUploadSize The value of the {@value #MAX_UPLOAD_SIZE} parameter.
+     * @param maxPartSize   The value of the {@value #MAX_PART_SIZE} parameter.
+     */
+    void configureUploadLimits(String maxUploadSize, String maxPartSize) {
+
+        if (StringUtils.isNotBlank(maxUploadSize)) {
+            try {
+                this.maxUploadSize = Long.parseLong(maxUploadSize);
+                log.info("Using max upload size {}", this.maxUploadSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", MAX_UPLOAD_SIZE, maxUploadSize, this.maxUploadSize);
+            }
+        }
+        if (StringUtils.isNotBlank(maxPartSize)) {
+            try {
+                this.maxPartSize = Long.parseLong(maxPartSize);
+                log.info("Using max part size {}", this.maxPartSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", MAX_PART_SIZE, maxPartSize, this.maxPartSize);
+            }
+        }
+        Multipart.setLimits(this.maxPartSize, this.maxUploadSize);
+    }
+
+    /**
+     * Configures the size of the response cache, failing gracefully if the
+     * value can't be parsed.
+     *
+     * @param cacheSize The value of the {@value #CACHE_SIZE} parameter.
+     */
+    void configureCacheSize(String cacheSize) {
+
+        if (StringUtils.isNotBlank(cacheSize)) {
+            try {
+                this.cacheSize = Long.parseLong(cacheSize);
+                log.info("Using cache size {}", this.cacheSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", CACHE_SIZE, cacheSize, this.cacheSize);
+            }
+        }
+        ResponseCache.setMaxBytes(this.cacheSize);
+    }
+
+    /**
+     * Configures the limits for <code>/_batch</code> requests, failing
+     * gracefully if the values can't be parsed.
+     *
+     * @param batchThreads The value of the {@value #BATCH_THREADS} parameter.
+     * @param batchSize    The value of the {@value #BATCH_SIZE} parameter.
+     * @param batchTimeout The value of the {@value #BATCH_TIMEOUT} parameter.
+     */
+    void configureBatches(String batchThreads, String batchSize, String batchTimeout) {
+
+        if (StringUtils.isNotBlank(batchThreads)) {
+            try {
+                this.batchThreads = Integer.parseInt(batchThreads);
+                log.info("Using batch threads {}", this.batchThreads);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", BATCH_THREADS, batchThreads, this.batchThreads);
+            }
+        }
+        if (StringUtils.isNotBlank(batchSize)) {
+            try {
+                this.batchSize = Integer.parseInt(batchSize);
+                log.info("Using batch size {}", this.batchSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", BATCH_SIZE, batchSize, this.batchSize);
+            }
+        }
+        if (StringUtils.isNotBlank(batchTimeout)) {
+            try {
+                this.batchTimeout = Long.parseLong(batchTimeout);
+                log.info("Using batch timeout {}ms", this.batchTimeout);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", BATCH_TIMEOUT, batchTimeout, this.batchTimeout);
+            }
+        }
+        BatchHandler.setLimits(this.batchThreads, this.batchSize);
+        BatchHandler.setTimeout(this.batchTimeout);
+    }
+
+    /**
+     * Configures how often event streams are sent a heartbeat, failing
+     * gracefully if the value can't be parsed.
+     *
+     * @param eventHeartbeat The value of the {@value #EVENT_HEARTBEAT} parameter.
+     */
+    void configureEventHeartbeat(String eventHeartbeat) {
+
+        if (StringUtils.isNotBlank(eventHeartbeat)) {
+            try {
+                this.eventHeartbeat = Long.parseLong(eventHeartbeat);
+                log.info("Using event heartbeat {}", this.eventHeartbeat);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", EVENT_HEARTBEAT, eventHeartbeat, this.eventHeartbeat);
+            }
+        }
+        Events.setHeartbeat(this.eventHeartbeat);
+    }
+
+    /**
+     * Configures how much of the static files is held in memory, failing
+     * gracefully if the values can't be parsed.
+     *
+     * @param filesCacheSize     The value of the {@value #FILES_CACHE_SIZE} parameter.
+     * @param filesCacheFileSize The value of the {@value #FILES_CACHE_FILE_SIZE} parameter.
+     */
+    void configureFilesCache(String filesCacheSize, String filesCacheFileSize) {
+
+        if (StringUtils.isNotBlank(filesCacheSize)) {
+            try {
+                this.filesCacheSize = Long.parseLong(filesCacheSize);
+                log.info("Using files cache size {}", this.filesCacheSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", FILES_CACHE_SIZE, filesCacheSize, this.filesCacheSize);
+            }
+        }
+        if (StringUtils.isNotBlank(filesCacheFileSize)) {
+            try {
+                this.filesCacheFileSize = Long.parseLong(filesCacheFileSize);
+                log.info("Using files cache file size {}", this.filesCacheFileSize);
+            } catch (NumberFormatException e) {
+                log.info("Unable to parse {} ({}). Defaulting to {}", FILES_CACHE_FILE_SIZE, filesCacheFileSize, this.filesCacheFileSize);
+            }
+        }
+        FilesCache.setLimits(this.filesCacheFileSize, this.filesCacheSize);
+    }
+
     /**
      * Sets up configuration for serving static files (if any).
      *
@@ -1,5 +1,6 @@
 package com.github.davidcarboni.restolino;
 
+import com.github.davidcarboni.restolino.helpers.EventStream;
 import com.github.davidcarboni.restolino.jetty.BasicAuth;
 import com.github.davidcarboni.restolino.jetty.MainHandler;
 import com.github.davidcarboni.restolino.reload.ClassReloader;
@@ -49,6 +50,8 @@ public class Main {
             mainHandler = new MainHandler();
             gzipHandler = new GzipHandler();
             gzipHandler.setHandler(mainHandler);
+            // Compressing would hold events back until the buffer fills:
+            gzipHandler.addExcludedMimeTypes(EventStream.MIME_TYPE);
 
             // Select the handler to be used
             Handler handler;
@@ -0,0 +1,194 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.helpers.Multipart;
+import com.github.davidcarboni.restolino.helpers.Query;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Supplies the value of one handler method parameter. Binders are worked out
+ * once, when the {@link Router} is configured, so that a request only has to
+ * run through a fixed array of them to build the arguments for the call.
+ */
+abstract class ArgumentBinder {
+
+    /**
+     * Binds the {@link HttpServletRequest}.
+     */
+    static final ArgumentBinder REQUEST = new ArgumentBinder() {
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            return request;
+        }
+    };
+
+    /**
+     * Binds the {@link HttpServletResponse}.
+     */
+    static final ArgumentBinder RESPONSE = new ArgumentBinder() {
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            return response;
+        }
+    };
+
+    /**
+     * Binds the {@link RequestContext}, which the router has already
+     * created to look up the route.
+     */
+    static final ArgumentBinder CONTEXT = new ArgumentBinder() {
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            return RequestContext.of(request);
+        }
+    };
+
+    /**
+     * Binds a {@link Multipart} upload. Parts are read from the request body
+     * as the handler asks for them.
+     */
+    static final ArgumentBinder MULTIPART = new ArgumentBinder() {
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) throws IOException {
+            Multipart multipart = Multipart.of(request);
+            if (multipart == null) {
+                throw new BindingException(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Expected a multipart request");
+            }
+            return multipart;
+        }
+    };
+
+    /**
+     * Binds null, for parameters we don't know how to supply.
+     */
+    static final ArgumentBinder NULL = new ArgumentBinder() {
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            return null;
+        }
+    };
+
+    /**
+     * @param request  The request.
+     * @param response The response.
+     * @param match    The route match, giving access to path variables.
+     * @return The value to pass for the parameter.
+     * @throws IOException If an error occurs in reading the request.
+     */
+    abstract Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) throws IOException;
+
+    /**
+     * Binds a Json request message by deserialising the request body with
+     * the handler's pre-resolved adapter.
+     */
+    static class Message extends ArgumentBinder {
+
+        final RequestHandler handler;
+
+        Message(RequestHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) throws IOException {
+            return handler.readRequest(request);
+        }
+    }
+
+    /**
+     * Binds a {@link javax.ws.rs.PathParam @PathParam} variable. Variables
+     * constrained to digits in the template have already been parsed during
+     * matching, so these are used as they are if the parameter is a number.
+     */
+    static class PathVariable extends ArgumentBinder {
+
+        final int index;
+        final Converter converter;
+        final boolean parsed;
+
+        PathVariable(int index, Converter converter, boolean parsed) {
+            this.index = index;
+            this.converter = converter;
+            this.parsed = parsed;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            if (parsed && (converter == Converter.LONG || converter == Converter.INT)) {
+                long value = match.number(index);
+                if (converter == Converter.LONG) {
+                    return value;
+                } else if (value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                throw new BindingException("Out of range: " + value);
+            }
+            try {
+                return converter.convert(match.path, match.start(index), match.end(index));
+            } catch (IllegalArgumentException e) {
+                throw new BindingException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Binds a {@link javax.ws.rs.QueryParam @QueryParam} from the request's
+     * shared {@link Query} view, so the query string is only scanned once,
+     * however many parameters a handler takes. As in JAX-RS, if a parameter
+     * is repeated, the first value is bound.
+     */
+    static class QueryParameter extends ArgumentBinder {
+
+        final String name;
+        final Converter converter;
+        final Object defaultValue;
+
+        QueryParameter(String name, Converter converter, Object defaultValue) {
+            this.name = name;
+            this.converter = converter;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            try {
+                String value = RequestContext.of(request).query().get(name);
+                return value == null ? defaultValue : converter.convert(value);
+            } catch (IllegalArgumentException e) {
+                throw new BindingException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Binds a {@link javax.ws.rs.HeaderParam @HeaderParam}.
+     */
+    static class Header extends ArgumentBinder {
+
+        final String name;
+        final Converter converter;
+        final Object defaultValue;
+
+        Header(String name, Converter converter, Object defaultValue) {
+            this.name = name;
+            this.converter = converter;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, HttpServletResponse response, RouteMatch match) {
+            String value = request.getHeader(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return converter.convert(value);
+            } catch (IllegalArgumentException e) {
+                throw new BindingException(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.helpers.Multipart;
+import com.github.davidcarboni.restolino.helpers.MultipartException;
+import com.github.davidcarboni.restolino.json.Serialiser;
+import org.slf4j.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Sends the response for a handler method that returns a
+ * {@link CompletionStage}. The request is put into asynchronous mode so the
+ * container thread can go back to the pool, and the response message is
+ * serialised on whichever thread completes the stage.
+ * <p>
+ * Whichever happens first - completion, timeout or a container error - gets
+ * to respond. Anything that happens afterwards is ignored. The stage isn't
+ * cancelled on timeout because it may be shared (e.g. cached) between
+ * requests.
+ */
+final class AsyncResponse implements BiConsumer<Object, Throwable>, AsyncListener {
+
+    private static final Logger log = getLogger(AsyncResponse.class);
+
+    /**
+     * How long to wait for a method without a
+     * {@link com.github.davidcarboni.restolino.framework.Timeout @Timeout} when the request can't go async (e.g. part of a batch), in
+     * milliseconds. This is the container's default timeout for an
+     * asynchronous request.
+     */
+    static final long DEFAULT_TIMEOUT = 30_000;
+
+    private final Router router;
+    private final RequestHandler requestHandler;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final AsyncContext asyncContext;
+    private final AtomicBoolean responded = new AtomicBoolean();
+
+    private AsyncResponse(Router router, RequestHandler requestHandler, HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext) {
+        this.router = router;
+        this.requestHandler = requestHandler;
+        this.request = request;
+        this.response = response;
+        this.asyncContext = asyncContext;
+    }
+
+    /**
+     * Sends the result of the given stage as the response, once it's ready.
+     *
+     * @param router         For handling errors.
+     * @param requestHandler The handler that returned the stage.
+     * @param request        The request.
+     * @param response       The response.
+     * @param stage          The value returned by the handler method.
+     * @throws Throwable If the stage has already failed, its error. Otherwise
+     *                   any error is passed to the {@link Router} when it occurs.
+     */
+    static void send(Router router, RequestHandler requestHandler, HttpServletRequest request, HttpServletResponse response, CompletionStage<?> stage) throws Throwable {
+
+        // Already done (e.g. a cached result)? No need to go async:
+        if (stage instanceof CompletableFuture && ((CompletableFuture<?>) stage).isDone()) {
+            Object result;
+            try {
+                result = ((CompletableFuture<?>) stage).join();
+            } catch (CompletionException e) {
+                throw cause(e);
+            }
+            write(requestHandler, request, response, result);
+            return;
+        }
+
+        // Not on a container thread (e.g. part of a batch)? Wait here:
+        if (!request.isAsyncSupported()) {
+            await(router, requestHandler, request, response, stage.toCompletableFuture());
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        if (requestHandler.timeout > 0) {
+            asyncContext.setTimeout(requestHandler.timeout);
+        }
+        AsyncResponse asyncResponse = new AsyncResponse(router, requestHandler, request, response, asyncContext);
+        asyncContext.addListener(asyncResponse);
+        stage.whenComplete(asyncResponse);
+    }
+
+    private static void await(Router router, RequestHandler requestHandler, HttpServletRequest request, HttpServletResponse response, CompletableFuture<?> future) throws Throwable {
+        long timeout = requestHandler.timeout > 0 ? requestHandler.timeout : DEFAULT_TIMEOUT;
+        Object result;
+        try {
+            result = future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw cause(e);
+        } catch (TimeoutException e) {
+            router.handleError(request, response, requestHandler,
+                    new TimeoutException("No response from method " + requestHandler.handlerMethod.getName()
+                            + " within " + timeout + "ms"),
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        write(requestHandler, request, response, result);
+    }
+
+    /**
+     * Called when the stage completes.
+     */
+    @Override
+    public void accept(Object result, Throwable error) {
+        if (!responded.compareAndSet(false, true)) {
+            log.debug("Ignoring late result for method {}", requestHandler.handlerMethod.getName());
+            return;
+        }
+        try {
+            Throwable cause = error == null ? null : cause(error);
+            if (cause instanceof MultipartException) {
+                response.setStatus(((MultipartException) cause).status);
+                Serialiser.serialise(response, cause.getMessage());
+            } else if (cause != null) {
+                router.handleError(request, response, requestHandler, cause);
+            } else {
+                write(requestHandler, request, response, result);
+            }
+        } catch (Throwable t) {
+            router.handleError(request, response, requestHandler, t);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        if (responded.compareAndSet(false, true)) {
+            try {
+                router.handleError(request, response, requestHandler,
+                        new TimeoutException("No response from method " + requestHandler.handlerMethod.getName()
+                                + " within " + asyncContext.getTimeout() + "ms"),
+                        HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        if (responded.compareAndSet(false, true)) {
+            log.debug("Error waiting for method {}: {}", requestHandler.handlerMethod.getName(), event.getThrowable());
+            asyncContext.complete();
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        Multipart.release(request);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Nothing to do
+    }
+
+    private static void write(RequestHandler requestHandler, HttpServletRequest request, HttpServletResponse response, Object result) throws IOException {
+        if (requestHandler.responseMessageType != null && result != null) {
+            requestHandler.writeResponse(request, response, result);
+        }
+    }
+
+    /**
+     * @param error An error from a stage.
+     * @return The underlying error, rather than the wrapper added by {@link CompletableFuture}.
+     */
+    static Throwable cause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
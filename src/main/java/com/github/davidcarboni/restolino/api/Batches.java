@@ -0,0 +1,40 @@
+package com.github.davidcarboni.restolino.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Groups the messages from an iterator into lists of a given size, for
+ * {@link com.github.davidcarboni.restolino.framework.Batch @Batch}
+ * parameters. Each batch is only read when it's asked for.
+ */
+final class Batches<T> implements Iterator<List<T>> {
+
+    private final Iterator<T> messages;
+    private final int size;
+
+    Batches(Iterator<T> messages, int size) {
+        this.messages = messages;
+        this.size = size;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return messages.hasNext();
+    }
+
+    @Override
+    public List<T> next() {
+        if (!messages.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        // A new list each time, so that the handler can hand it off:
+        List<T> batch = new ArrayList<>(Math.min(size, 1024));
+        while (batch.size() < size && messages.hasNext()) {
+            batch.add(messages.next());
+        }
+        return batch;
+    }
+}
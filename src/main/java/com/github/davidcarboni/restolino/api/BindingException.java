@@ -0,0 +1,26 @@
+package com.github.davidcarboni.restolino.api;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Thrown when a request value can't be converted to the type of the handler
+ * parameter it is bound to. As in JAX-RS, a path or query parameter that
+ * doesn't convert means the request is treated as not found, whereas a header
+ * that doesn't convert is a bad request.
+ */
+class BindingException extends RuntimeException {
+
+    private static final long serialVersionUID = 972873099431470395L;
+
+    final int status;
+
+    BindingException(String message) {
+        this(HttpServletResponse.SC_NOT_FOUND, message);
+    }
+
+    BindingException(int status, String message) {
+        // No stack trace needed - this is handled as a 4xx response:
+        super(message, null, false, false);
+        this.status = status;
+    }
+}
@@ -0,0 +1,297 @@
+package com.github.davidcarboni.restolino.api;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts a string value from a request (a path variable, a query parameter
+ * or a header) to the type of the handler parameter it is bound to. As with
+ * {@link ArgumentBinder}, converters are worked out once, when the
+ * {@link Router} is configured.
+ * <p>
+ * Supported types are, as in JAX-RS: <code>String</code>, primitives and
+ * their boxed types, enums and any type with a public static
+ * <code>valueOf(String)</code> or <code>fromString(String)</code> method, or a
+ * public constructor that takes a single <code>String</code>.
+ * <p>
+ * Converters throw {@link IllegalArgumentException} if a value can't be
+ * converted.
+ */
+abstract class Converter {
+
+    static final Converter STRING = new Converter() {
+        @Override
+        Object convert(String value) {
+            return value;
+        }
+    };
+
+    static final Converter INT = new Converter() {
+        @Override
+        Object convert(String value) {
+            return convert(value, 0, value.length());
+        }
+
+        @Override
+        Object convert(String value, int start, int end) {
+            long number = parseLong(value, start, end);
+            if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Out of range: " + value.substring(start, end));
+            }
+            return (int) number;
+        }
+    };
+
+    static final Converter LONG = new Converter() {
+        @Override
+        Object convert(String value) {
+            return parseLong(value, 0, value.length());
+        }
+
+        @Override
+        Object convert(String value, int start, int end) {
+            return parseLong(value, start, end);
+        }
+    };
+
+    /**
+     * As with {@link Boolean#valueOf(String)}, anything other than "true"
+     * (ignoring case) is false.
+     */
+    static final Converter BOOLEAN = new Converter() {
+        @Override
+        Object convert(String value) {
+            return convert(value, 0, value.length());
+        }
+
+        @Override
+        Object convert(String value, int start, int end) {
+            return end - start == 4 && value.regionMatches(true, start, "true", 0, 4);
+        }
+    };
+
+    static final Converter SHORT = new Converter() {
+        @Override
+        Object convert(String value) {
+            return Short.valueOf(value);
+        }
+    };
+
+    static final Converter BYTE = new Converter() {
+        @Override
+        Object convert(String value) {
+            return Byte.valueOf(value);
+        }
+    };
+
+    static final Converter DOUBLE = new Converter() {
+        @Override
+        Object convert(String value) {
+            return Double.valueOf(value);
+        }
+    };
+
+    static final Converter FLOAT = new Converter() {
+        @Override
+        Object convert(String value) {
+            return Float.valueOf(value);
+        }
+    };
+
+    static final Converter CHAR = new Converter() {
+        @Override
+        Object convert(String value) {
+            if (value.length() != 1) {
+                throw new IllegalArgumentException("Not a single character: " + value);
+            }
+            return value.charAt(0);
+        }
+    };
+
+    /**
+     * @param value The value to convert.
+     * @return The converted value.
+     * @throws IllegalArgumentException If the value can't be converted.
+     */
+    abstract Object convert(String value);
+
+    /**
+     * Converts a region of a string. Converters for numbers and booleans
+     * override this to work without taking a substring.
+     *
+     * @param value The string containing the value.
+     * @param start The start of the value.
+     * @param end   The end (exclusive) of the value.
+     * @return The converted value.
+     * @throws IllegalArgumentException If the value can't be converted.
+     */
+    Object convert(String value, int start, int end) {
+        return convert(value.substring(start, end));
+    }
+
+    /**
+     * @param type The parameter type.
+     * @return A converter for the type, or null if the type isn't supported.
+     */
+    static Converter forType(Class<?> type) {
+        if (type == String.class || type == Object.class || type == CharSequence.class) {
+            return STRING;
+        } else if (type == int.class || type == Integer.class) {
+            return INT;
+        } else if (type == long.class || type == Long.class) {
+            return LONG;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == short.class || type == Short.class) {
+            return SHORT;
+        } else if (type == byte.class || type == Byte.class) {
+            return BYTE;
+        } else if (type == double.class || type == Double.class) {
+            return DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return FLOAT;
+        } else if (type == char.class || type == Character.class) {
+            return CHAR;
+        } else if (type.isEnum()) {
+            return new EnumConverter(type);
+        }
+        return FactoryConverter.forType(type);
+    }
+
+    /**
+     * @param type The parameter type.
+     * @return The value to use for the type when there's nothing to convert:
+     * zero (or false) for primitives, otherwise null.
+     */
+    static Object absent(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == double.class) {
+            return 0d;
+        }
+        return 0f;
+    }
+
+    /**
+     * Parses a (possibly negative) whole number without taking a substring.
+     *
+     * @param value The string to parse.
+     * @param start The start of the number.
+     * @param end   The end (exclusive) of the number.
+     * @return The parsed value.
+     * @throws NumberFormatException If the region isn't a whole number that fits in a long.
+     */
+    static long parseLong(String value, int start, int end) {
+        boolean negative = start < end && value.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            throw new NumberFormatException("Not a number: " + value.substring(start, end));
+        }
+
+        // Accumulate negatively so that Long.MIN_VALUE can be represented:
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long number = 0;
+        for (; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || number < (limit + digit) / 10) {
+                throw new NumberFormatException("Not a number: " + value.substring(start, end));
+            }
+            number = number * 10 - digit;
+        }
+        return negative ? number : -number;
+    }
+
+    /**
+     * Looks up enum constants by name, falling back to ignoring case.
+     */
+    static class EnumConverter extends Converter {
+
+        final Map<String, Object> constants = new HashMap<>();
+        final Map<String, Object> upperCase = new HashMap<>();
+
+        EnumConverter(Class<?> type) {
+            for (Object constant : type.getEnumConstants()) {
+                String name = ((Enum<?>) constant).name();
+                constants.put(name, constant);
+                upperCase.put(name.toUpperCase(), constant);
+            }
+        }
+
+        @Override
+        Object convert(String value) {
+            Object result = constants.get(value);
+            if (result == null) {
+                result = upperCase.get(value.toUpperCase());
+            }
+            if (result == null) {
+                throw new IllegalArgumentException("No such value: " + value);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Converts using a <code>valueOf(String)</code> or <code>fromString(String)</code>
+     * method, or a <code>String</code> constructor.
+     */
+    static class FactoryConverter extends Converter {
+
+        static final MethodType CONVERTER_TYPE = MethodType.methodType(Object.class, String.class);
+
+        final MethodHandle factory;
+
+        FactoryConverter(MethodHandle factory) {
+            this.factory = factory.asType(CONVERTER_TYPE);
+        }
+
+        static Converter forType(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (String name : new String[]{"valueOf", "fromString"}) {
+                try {
+                    Method method = type.getMethod(name, String.class);
+                    if (Modifier.isStatic(method.getModifiers()) && type.isAssignableFrom(method.getReturnType())) {
+                        return new FactoryConverter(lookup.unreflect(method));
+                    }
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    // Try the next option
+                }
+            }
+            if (Modifier.isAbstract(type.getModifiers())) {
+                return null;
+            }
+            try {
+                return new FactoryConverter(lookup.unreflectConstructor(type.getConstructor(String.class)));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        @Override
+        Object convert(String value) {
+            try {
+                return (Object) factory.invokeExact(value);
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException("Unable to convert " + value + ": " + t.getMessage(), t);
+            }
+        }
+    }
+}
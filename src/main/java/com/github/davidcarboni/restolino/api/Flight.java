@@ -0,0 +1,44 @@
+package com.github.davidcarboni.restolino.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A call to a {@link com.github.davidcarboni.restolino.framework.Coalesce @Coalesce}
+ * method that identical requests can wait on, rather than calling the
+ * method themselves.
+ */
+final class Flight {
+
+    private final CompletableFuture<ResponseCache.Entry> result = new CompletableFuture<>();
+
+    /**
+     * Shares the response with the waiting requests.
+     *
+     * @param entry The serialised response, or null if it can't be shared
+     *              (e.g. the call failed), in which case the waiting requests
+     *              call the method themselves.
+     */
+    void complete(ResponseCache.Entry entry) {
+        result.complete(entry);
+    }
+
+    /**
+     * Waits for the response.
+     *
+     * @param timeout How long to wait, in nanoseconds.
+     * @return The response, or null if it can't be shared or didn't arrive in time.
+     */
+    ResponseCache.Entry await(long timeout) {
+        try {
+            return result.get(timeout, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.json.Serialiser;
+import com.google.gson.annotations.SerializedName;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Binds an <code>application/x-www-form-urlencoded</code> request body to
+ * the fields of a request message, so a handler can take an HTML form post
+ * in the same way as a Json message.
+ * <p>
+ * The fields are looked up once, when the {@link Router} is configured. A
+ * request is then decoded in a single pass over the bytes of the body:
+ * names are matched as bytes (percent-decoded in place if they need it),
+ * whole numbers and booleans are parsed straight from the bytes and the
+ * only Strings created are the values of String (and other non-numeric)
+ * fields. Parameters that don't match a field are skipped without being
+ * decoded.
+ * <p>
+ * Fields are named as they would be in Json, so {@link SerializedName} is
+ * honoured. Field types can be anything a {@link Converter} supports, or a
+ * <code>List</code> (or <code>Collection</code>) of one to collect repeated
+ * parameters, e.g. from checkboxes. Booleans are true for "true" or "on".
+ * An empty value leaves a field as it is, other than a String, which is set
+ * to "".
+ */
+final class FormReader {
+
+    private static final Logger log = getLogger(FormReader.class);
+
+    static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * The largest form body we'll read, in bytes. This is the same as Jetty's default.
+     */
+    static final int MAX_FORM_SIZE = 200000;
+
+    static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private enum Kind {STRING, INT, LONG, SHORT, BYTE, BOOLEAN, OTHER}
+
+    final Class<?> type;
+
+    /**
+     * The no-arg constructor of {@link #type}, adapted to {@link #CONSTRUCTOR_TYPE},
+     * or null if Gson will need to construct instances.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * Fields by name, in an open-addressed hash table.
+     */
+    private final FormField[] table;
+    private final int mask;
+
+    private FormReader(Class<?> type, MethodHandle constructor, List<FormField> fields) {
+        this.type = type;
+        this.constructor = constructor;
+        int size = Integer.highestOneBit(Math.max(fields.size(), 1) * 4);
+        table = new FormField[size];
+        mask = size - 1;
+        for (FormField field : fields) {
+            int i = hash(field.name, 0, field.name.length) & mask;
+            while (table[i] != null) {
+                if (Arrays.equals(table[i].name, field.name)) {
+                    log.warn("Duplicate form field name {} on {}", new String(field.name, StandardCharsets.UTF_8), type.getSimpleName());
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+            if (table[i] == null) {
+                table[i] = field;
+            }
+        }
+    }
+
+    /**
+     * @param type A request message type.
+     * @return A reader for the type, or null if it isn't a class whose fields can be bound from a form.
+     */
+    static FormReader forType(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()
+                || Modifier.isAbstract(type.getModifiers())
+                || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+                || type.getName().startsWith("java.")) {
+            return null;
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FormField> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                FormField formField = FormField.of(field, lookup);
+                if (formField != null) {
+                    fields.add(formField);
+                }
+            }
+        }
+        if (fields.isEmpty()) {
+            return null;
+        }
+
+        MethodHandle constructor = null;
+        try {
+            Constructor<?> noArgs = type.getDeclaredConstructor();
+            noArgs.setAccessible(true);
+            constructor = lookup.unreflectConstructor(noArgs).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            log.debug("No accessible no-arg constructor for {}. Gson will be used to construct it.", type.getSimpleName());
+        }
+        return new FormReader(type, constructor, fields);
+    }
+
+    /**
+     * @param request A request.
+     * @return If the request has a form body.
+     */
+    static boolean isForm(HttpServletRequest request) {
+        return StringUtils.startsWithIgnoreCase(request.getContentType(), CONTENT_TYPE);
+    }
+
+    /**
+     * Reads the request body into a new instance of {@link #type}.
+     *
+     * @param request The request.
+     * @return The message.
+     * @throws IOException If an error occurs in reading the request.
+     */
+    Object read(HttpServletRequest request) throws IOException {
+        Charset charset = charset(request.getCharacterEncoding());
+        byte[] body = body(request);
+        return read(body, body.length, charset);
+    }
+
+    /**
+     * @param encoding The character encoding of the request, if any.
+     * @return The charset, defaulting to UTF-8.
+     * @throws BindingException (415) If the charset isn't known.
+     */
+    static Charset charset(String encoding) {
+        if (encoding == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new BindingException(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported charset for form data: " + encoding);
+        }
+    }
+
+    /**
+     * Decodes a form body into a new instance of {@link #type}. Escaped
+     * names and values are decoded in place, so the body is modified.
+     *
+     * @param body    The form body.
+     * @param length  The number of bytes in the body.
+     * @param charset The character encoding of the body.
+     * @return The message.
+     */
+    Object read(byte[] body, int length, Charset charset) {
+        Object target = newInstance();
+        int i = 0;
+        while (i < length) {
+
+            // Name:
+            int nameStart = i;
+            boolean nameEscaped = false;
+            byte b;
+            while (i < length && (b = body[i]) != '&' && b != '=') {
+                nameEscaped |= b == '%' || b == '+';
+                i++;
+            }
+            int nameEnd = i;
+
+            // Value:
+            int valueStart = i;
+            boolean valueEscaped = false;
+            if (i < length && body[i] == '=') {
+                valueStart = ++i;
+                while (i < length && (b = body[i]) != '&') {
+                    valueEscaped |= b == '%' || b == '+';
+                    i++;
+                }
+            }
+            int valueEnd = i++;
+
+            if (nameEscaped) {
+                nameEnd = decode(body, nameStart, nameEnd);
+            }
+            FormField field = field(body, nameStart, nameEnd);
+            if (field != null) {
+                if (valueEscaped) {
+                    valueEnd = decode(body, valueStart, valueEnd);
+                }
+                field.set(target, body, valueStart, valueEnd, charset);
+            }
+        }
+        return target;
+    }
+
+    private Object newInstance() {
+        if (constructor == null) {
+            return Serialiser.getGson().fromJson("{}", type);
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to construct " + type.getName(), t);
+        }
+    }
+
+    private FormField field(byte[] bytes, int start, int end) {
+        int i = hash(bytes, start, end) & mask;
+        FormField field;
+        while ((field = table[i]) != null) {
+            if (field.matches(bytes, start, end)) {
+                return field;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            result = 31 * result + bytes[i];
+        }
+        return result ^ (result >>> 16);
+    }
+
+    /**
+     * Percent-decodes a region in place, turning '+' into a space.
+     *
+     * @return The new end of the region.
+     */
+    static int decode(byte[] bytes, int start, int end) {
+        int out = start;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%') {
+                int high = i + 2 < end ? Character.digit(bytes[i + 1], 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(bytes[i + 2], 16);
+                if (low < 0) {
+                    throw new BindingException(HttpServletResponse.SC_BAD_REQUEST, "Invalid escape in form data");
+                }
+                b = (byte) (high << 4 | low);
+                i += 2;
+            }
+            bytes[out++] = b;
+        }
+        return out;
+    }
+
+    private static byte[] body(HttpServletRequest request) throws IOException {
+        int contentLength = request.getContentLength();
+        if (contentLength > MAX_FORM_SIZE) {
+            throw new BindingException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Form is over the limit of " + MAX_FORM_SIZE + " bytes");
+        }
+        byte[] body = new byte[contentLength >= 0 ? contentLength : 1024];
+        int length = 0;
+        InputStream input = request.getInputStream();
+        while (true) {
+            if (length == body.length) {
+                // Full, so either we're done or the Content-Length is missing (or wrong):
+                int next = input.read();
+                if (next < 0) {
+                    break;
+                }
+                if (length >= MAX_FORM_SIZE) {
+                    throw new BindingException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Form is over the limit of " + MAX_FORM_SIZE + " bytes");
+                }
+                body = Arrays.copyOf(body, Math.min(Math.max(length * 2, 1024), MAX_FORM_SIZE));
+                body[length++] = (byte) next;
+            }
+            int read = input.read(body, length, body.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length == body.length ? body : Arrays.copyOf(body, length);
+    }
+
+    /**
+     * A field that can be set from a form parameter.
+     */
+    static final class FormField {
+
+        final byte[] name;
+        final Kind kind;
+        final Converter converter;
+        final MethodHandle setter;
+
+        /**
+         * If the field is a collection, for getting the current value. Otherwise null.
+         */
+        final MethodHandle getter;
+
+        private FormField(byte[] name, Kind kind, Converter converter, MethodHandle setter, MethodHandle getter) {
+            this.name = name;
+            this.kind = kind;
+            this.converter = converter;
+            this.setter = setter;
+            this.getter = getter;
+        }
+
+        static FormField of(Field field, MethodHandles.Lookup lookup) {
+            Class<?> type = field.getType();
+            boolean collection = type == List.class || type == Collection.class || type == ArrayList.class;
+            Class<?> valueType = collection ? elementType(field.getGenericType()) : type;
+            Converter converter = valueType == null ? null : Converter.forType(valueType);
+            if (converter == null) {
+                log.debug("Form field {} of type {} will not be bound", field.getName(), field.getGenericType());
+                return null;
+            }
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            String name = serializedName == null ? field.getName() : serializedName.value();
+            try {
+                field.setAccessible(true);
+                MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                MethodHandle getter = collection ? lookup.unreflectGetter(field).asType(GETTER_TYPE) : null;
+                return new FormField(name.getBytes(StandardCharsets.UTF_8), collection ? Kind.OTHER : kind(valueType), converter, setter, getter);
+            } catch (IllegalAccessException | RuntimeException e) {
+                log.debug("Form field {} is not accessible: {}", field.getName(), e.getMessage());
+                return null;
+            }
+        }
+
+        private static Kind kind(Class<?> type) {
+            if (type == String.class || type == Object.class || type == CharSequence.class) {
+                return Kind.STRING;
+            } else if (type == int.class || type == Integer.class) {
+                return Kind.INT;
+            } else if (type == long.class || type == Long.class) {
+                return Kind.LONG;
+            } else if (type == short.class || type == Short.class) {
+                return Kind.SHORT;
+            } else if (type == byte.class || type == Byte.class) {
+                return Kind.BYTE;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return Kind.BOOLEAN;
+            }
+            return Kind.OTHER;
+        }
+
+        private static Class<?> elementType(Type type) {
+            if (type instanceof ParameterizedType) {
+                Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+                if (argument instanceof Class) {
+                    return (Class<?>) argument;
+                }
+            }
+            return null;
+        }
+
+        boolean matches(byte[] bytes, int start, int end) {
+            if (end - start != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; i++) {
+                if (bytes[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void set(Object target, byte[] bytes, int start, int end, Charset charset) {
+            if (start == end && kind != Kind.STRING) {
+                return;
+            }
+            try {
+                Object value;
+                switch (kind) {
+                    case STRING:
+                        value = new String(bytes, start, end - start, charset);
+                        break;
+                    case INT:
+                        value = (int) parseLong(bytes, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                        break;
+                    case LONG:
+                        value = parseLong(bytes, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+                        break;
+                    case SHORT:
+                        value = (short) parseLong(bytes, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+                        break;
+                    case BYTE:
+                        value = (byte) parseLong(bytes, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                        break;
+                    case BOOLEAN:
+                        value = is(bytes, start, end, "true") || is(bytes, start, end, "on");
+                        break;
+                    default:
+                        value = converter.convert(new String(bytes, start, end - start, charset));
+                }
+                if (getter != null) {
+                    add(target, value);
+                } else {
+                    setter.invokeExact(target, value);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new BindingException(HttpServletResponse.SC_BAD_REQUEST, new String(name, StandardCharsets.UTF_8) + ": " + e.getMessage());
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private void add(Object target, Object value) throws Throwable {
+            @SuppressWarnings("unchecked")
+            Collection<Object> values = (Collection<Object>) (Object) getter.invokeExact(target);
+            if (values == null) {
+                values = new ArrayList<>();
+                setter.invokeExact(target, (Object) values);
+            }
+            values.add(value);
+        }
+
+        private static boolean is(byte[] bytes, int start, int end, String value) {
+            if (end - start != value.length()) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if ((bytes[i] | 0x20) != value.charAt(i - start)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * As {@link Converter#parseLong(String, int, int)}, but for bytes, with a range check.
+         */
+        static long parseLong(byte[] bytes, int start, int end, long min, long max) {
+            boolean negative = bytes[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (i >= end) {
+                throw new NumberFormatException("Not a number");
+            }
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long number = 0;
+            for (; i < end; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9 || number < (limit + digit) / 10) {
+                    throw new NumberFormatException("Not a number: " + new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+                }
+                number = number * 10 - digit;
+            }
+            number = negative ? number : -number;
+            if (number < min || number > max) {
+                throw new NumberFormatException("Out of range: " + number);
+            }
+            return number;
+        }
+    }
+}
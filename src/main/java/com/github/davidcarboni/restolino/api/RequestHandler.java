@@ -1,10 +1,658 @@
 package com.github.davidcarboni.restolino.api;
 
+import com.github.davidcarboni.restolino.framework.Batch;
+import com.github.davidcarboni.restolino.framework.Cached;
+import com.github.davidcarboni.restolino.framework.Coalesce;
+import com.github.davidcarboni.restolino.framework.ETag;
+import com.github.davidcarboni.restolino.framework.Timeout;
+import com.github.davidcarboni.restolino.helpers.Conditional;
+import com.github.davidcarboni.restolino.helpers.EventStream;
+import com.github.davidcarboni.restolino.helpers.Multipart;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
+import com.github.davidcarboni.restolino.json.Serialiser;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpHeader;
+import org.slf4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Stream;
+
+import static org.slf4j.LoggerFactory.getLogger;
 
 public class RequestHandler {
 
+    private static final Logger log = getLogger(RequestHandler.class);
+
+    /**
+     * The shape every handler method is adapted to: <code>(endpoint, args[]) -&gt; result</code>.
+     */
+    static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    /**
+     * The default <code>Content-Type</code> for an {@link InputStream} response.
+     */
+    static final String OCTET_STREAM = "application/octet-stream";
+
     public Method handlerMethod;
     public Class<?> requestMessageType;
     public Class<?> responseMessageType;
+
+    /**
+     * {@link #handlerMethod}, adapted to {@link #INVOKER_TYPE}.
+     */
+    transient MethodHandle invoker;
+
+    /**
+     * One binder per parameter of {@link #handlerMethod}, in order.
+     */
+    transient ArgumentBinder[] binders;
+
+    /**
+     * The full (possibly generic) request message type, e.g. <code>List&lt;Item&gt;</code>.
+     */
+    transient Type requestMessageGenericType;
+
+    /**
+     * If the request message parameter is an {@link Iterator}, which is
+     * filled by parsing the body as the handler reads from it. In that case
+     * {@link #requestMessageGenericType} is the type of each message.
+     */
+    transient boolean requestStreamed;
+
+    /**
+     * If more than zero, streamed request messages are passed to the
+     * handler in lists of up to this many. Set by {@link Batch @Batch}.
+     */
+    transient int requestBatchSize;
+
+    /**
+     * Binds <code>application/x-www-form-urlencoded</code> request bodies to
+     * {@link #requestMessageType}, if it's a class with fields that can be
+     * bound from a form.
+     */
+    transient FormReader formReader;
+
+    /**
+     * The full (possibly generic) response message type.
+     */
+    transient Type responseMessageGenericType;
+
+    /**
+     * If the response is streamed, how: set if {@link #responseMessageType}
+     * is an {@link InputStream}, {@link Iterator}, {@link Iterable},
+     * {@link Stream} or {@link EventStream}.
+     */
+    transient StreamType responseStreamType;
+
+    /**
+     * The class the response adapter is for: {@link #responseMessageType},
+     * or the element type of a streamed response.
+     */
+    transient Class<?> responseAdapterType;
+
+    /**
+     * If the response adapter can be used for any instance of
+     * {@link #responseAdapterType}, rather than only that exact class.
+     */
+    transient boolean responseAdapterForSubtypes;
+
+    /**
+     * If {@link #handlerMethod} returns a {@link CompletionStage}, in which
+     * case the response message is sent when it completes.
+     */
+    transient boolean async;
+
+    /**
+     * How long to wait for an {@link #async} response, in milliseconds, or 0
+     * for the container default. Set by {@link Timeout @Timeout}.
+     */
+    transient long timeout;
+
+    /**
+     * If {@link #handlerMethod} is a <code>GET</code> marked {@link ETag @ETag},
+     * in which case responses are conditional.
+     */
+    transient boolean etag;
+
+    /**
+     * The caching policy, if {@link #handlerMethod} is marked
+     * {@link Cached @Cached} and its responses can be cached.
+     */
+    transient Cached cached;
+
+    /**
+     * How long cached responses stay fresh, in nanoseconds.
+     */
+    transient long cacheTtl;
+
+    /**
+     * The coalescing policy, if {@link #handlerMethod} is marked
+     * {@link Coalesce @Coalesce} and identical requests can share a response.
+     */
+    transient Coalesce coalesce;
+
+    /**
+     * How long identical requests wait for a shared response, in nanoseconds.
+     */
+    transient long coalesceTimeout;
+
+    /**
+     * Gson adapters for the message types, resolved from the current shared
+     * {@link Gson} instance.
+     */
+    private transient volatile MessageAdapters adapters;
+
+    /**
+     * Compiles {@link #handlerMethod} into a {@link MethodHandle} and works out
+     * how each of its parameters will be bound. This is done once, when the
+     * route is configured, so that requests don't need to use reflection.
+     *
+     * @param template The template of the route, for binding path variables.
+     * @throws IllegalAccessException If the method can't be accessed.
+     */
+    void compile(RouteTemplate template) throws IllegalAccessException {
+
+        // Bind parameters:
+        Class<?>[] parameterTypes = handlerMethod.getParameterTypes();
+        Annotation[][] parameterAnnotations = handlerMethod.getParameterAnnotations();
+        binders = new ArgumentBinder[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            Annotation[] annotations = parameterAnnotations[i];
+            PathParam pathParam = annotation(annotations, PathParam.class);
+            QueryParam queryParam = annotation(annotations, QueryParam.class);
+            HeaderParam headerParam = annotation(annotations, HeaderParam.class);
+            if (pathParam != null) {
+                binders[i] = pathVariable(pathParam.value(), parameterType, template);
+            } else if (queryParam != null) {
+                Converter converter = converter(parameterType, "query");
+                binders[i] = converter == null ? ArgumentBinder.NULL :
+                        new ArgumentBinder.QueryParameter(queryParam.value(), converter, defaultValue(annotations, parameterType, converter));
+            } else if (headerParam != null) {
+                Converter converter = converter(parameterType, "header");
+                binders[i] = converter == null ? ArgumentBinder.NULL :
+                        new ArgumentBinder.Header(headerParam.value(), converter, defaultValue(annotations, parameterType, converter));
+            } else if (parameterType.isAssignableFrom(HttpServletRequest.class)) {
+                binders[i] = ArgumentBinder.REQUEST;
+            } else if (parameterType.isAssignableFrom(HttpServletResponse.class)) {
+                binders[i] = ArgumentBinder.RESPONSE;
+            } else if (parameterType == Multipart.class) {
+                binders[i] = ArgumentBinder.MULTIPART;
+            } else if (parameterType == RequestContext.class) {
+                binders[i] = ArgumentBinder.CONTEXT;
+            } else if (requestMessageType != null && parameterType.isAssignableFrom(requestMessageType)) {
+                requestMessageGenericType = handlerMethod.getGenericParameterTypes()[i];
+                if (parameterType == Iterator.class) {
+                    streamRequest(annotation(annotations, Batch.class));
+                } else {
+                    formReader = FormReader.forType(requestMessageType);
+                }
+                binders[i] = new ArgumentBinder.Message(this);
+            } else {
+                log.warn("Warning: unexpected parameter type {} on method {}. Null will be assigned",
+                        parameterType.getSimpleName(), handlerMethod.getName());
+                binders[i] = ArgumentBinder.NULL;
+            }
+        }
+
+        // Asynchronous methods:
+        async = CompletionStage.class.isAssignableFrom(handlerMethod.getReturnType());
+        if (async) {
+            Timeout timeout = handlerMethod.getAnnotation(Timeout.class);
+            if (timeout == null) {
+                timeout = handlerMethod.getDeclaringClass().getAnnotation(Timeout.class);
+            }
+            this.timeout = timeout == null ? 0 : Math.max(timeout.unit().toMillis(timeout.value()), 1);
+        }
+
+        // Conditional responses:
+        etag = handlerMethod.isAnnotationPresent(GET.class)
+                && (handlerMethod.isAnnotationPresent(ETag.class) || handlerMethod.getDeclaringClass().isAnnotationPresent(ETag.class));
+
+        // Response message type:
+        if (responseMessageType != null) {
+            responseMessageGenericType = responseType(handlerMethod);
+            responseStreamType = StreamType.of(responseMessageType);
+            if (responseStreamType == StreamType.BYTES || responseStreamType == StreamType.EVENTS) {
+                // Sent as-is:
+                responseMessageGenericType = null;
+                if (async && responseStreamType == StreamType.EVENTS) {
+                    log.warn("Warning: an EventStream needs to be returned directly, not as a CompletionStage: {}",
+                            handlerMethod.getName());
+                }
+            } else if (responseStreamType != null) {
+                // Serialised one element at a time:
+                responseMessageGenericType = typeArgument(responseMessageGenericType);
+            }
+        }
+        if (responseMessageGenericType != null) {
+            responseAdapterType = TypeToken.get(responseMessageGenericType).getRawType();
+            // Collection and Map adapters work with any implementation:
+            responseAdapterForSubtypes = responseMessageGenericType instanceof ParameterizedType
+                    && (Collection.class.isAssignableFrom(responseAdapterType) || Map.class.isAssignableFrom(responseAdapterType));
+        }
+
+        // Cached responses:
+        cached = handlerMethod.getAnnotation(Cached.class);
+        if (cached != null) {
+            if (!handlerMethod.isAnnotationPresent(GET.class) || async || responseStreamType != null || responseMessageType == null) {
+                log.warn("Warning: @Cached needs a GET method that returns a (non-streamed) message: {}. Responses will not be cached",
+                        handlerMethod.getName());
+                cached = null;
+            } else {
+                cacheTtl = cached.unit().toNanos(cached.ttl());
+            }
+        }
+
+        // Coalesced requests:
+        coalesce = handlerMethod.getAnnotation(Coalesce.class);
+        if (coalesce != null) {
+            if (!handlerMethod.isAnnotationPresent(GET.class) || async || responseStreamType != null || responseMessageType == null) {
+                log.warn("Warning: @Coalesce needs a GET method that returns a (non-streamed) message: {}. Requests will not be coalesced",
+                        handlerMethod.getName());
+                coalesce = null;
+            } else {
+                coalesceTimeout = coalesce.unit().toNanos(coalesce.timeout());
+            }
+        }
+
+        // Compile the method:
+        handlerMethod.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(handlerMethod);
+        if (Modifier.isStatic(handlerMethod.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        invoker = handle.asSpreader(Object[].class, parameterTypes.length).asType(INVOKER_TYPE);
+    }
+
+    private void streamRequest(Batch batch) {
+        requestStreamed = true;
+        requestMessageGenericType = typeArgument(requestMessageGenericType);
+        if (batch != null) {
+            if (TypeToken.get(requestMessageGenericType).getRawType() == List.class) {
+                requestBatchSize = Math.max(batch.value(), 1);
+                requestMessageGenericType = typeArgument(requestMessageGenericType);
+            } else {
+                log.warn("Warning: @Batch needs an Iterator<List<...>> parameter on method {}. Messages will not be batched",
+                        handlerMethod.getName());
+            }
+        }
+    }
+
+    private ArgumentBinder pathVariable(String name, Class<?> type, RouteTemplate template) {
+        int index = template.variable(name);
+        if (index < 0) {
+            log.warn("Warning: no variable called {} in path {} for method {}. Null will be assigned",
+                    name, template, handlerMethod.getName());
+            return ArgumentBinder.NULL;
+        }
+        Converter converter = converter(type, "path");
+        if (converter == null) {
+            return ArgumentBinder.NULL;
+        }
+        return new ArgumentBinder.PathVariable(index, converter, template.isNumber(index));
+    }
+
+    private Converter converter(Class<?> type, String kind) {
+        Converter converter = Converter.forType(type);
+        if (converter == null) {
+            log.warn("Warning: unsupported {} parameter type {} on method {}. Null will be assigned",
+                    kind, type.getSimpleName(), handlerMethod.getName());
+        }
+        return converter;
+    }
+
+    private Object defaultValue(Annotation[] annotations, Class<?> type, Converter converter) {
+        DefaultValue defaultValue = annotation(annotations, DefaultValue.class);
+        if (defaultValue != null) {
+            try {
+                return converter.convert(defaultValue.value());
+            } catch (IllegalArgumentException e) {
+                log.warn("Warning: unable to convert default value {} to {} on method {}: {}",
+                        defaultValue.value(), type.getSimpleName(), handlerMethod.getName(), e.getMessage());
+            }
+        }
+        return Converter.absent(type);
+    }
+
+    /**
+     * @param method A handler method.
+     * @return The type of response message the method returns, or null for
+     * a void method. This is the return type or, if the method returns a
+     * {@link CompletionStage}, the type of its result.
+     */
+    static Class<?> responseMessageType(Method method) {
+        Class<?> type = TypeToken.get(responseType(method)).getRawType();
+        return type == void.class || type == Void.class ? null : type;
+    }
+
+    /**
+     * @param method A handler method.
+     * @return The full (possibly generic) return type of the method or, if
+     * the method returns a {@link CompletionStage}, the type of its result.
+     */
+    static Type responseType(Method method) {
+        Type type = method.getGenericReturnType();
+        if (!CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            return type;
+        }
+        if (type instanceof ParameterizedType) {
+            Type rawType = ((ParameterizedType) type).getRawType();
+            if (rawType == CompletableFuture.class || rawType == CompletionStage.class) {
+                return typeArgument(type);
+            }
+        }
+        // A raw type, or a subclass we can't easily see the result type of:
+        return Object.class;
+    }
+
+    /**
+     * @param type A type such as <code>Iterator&lt;T&gt;</code>.
+     * @return The type argument (<code>T</code>), or Object if there isn't one.
+     */
+    static Type typeArgument(Type type) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length == 1) {
+                Type result = arguments[0];
+                if (result instanceof WildcardType) {
+                    result = ((WildcardType) result).getUpperBounds()[0];
+                }
+                return result;
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * @param annotations The annotations on a parameter.
+     * @return If the parameter is bound from the path, query or headers, true.
+     */
+    static boolean isRequestParameter(Annotation[] annotations) {
+        return annotation(annotations, PathParam.class) != null
+                || annotation(annotations, QueryParam.class) != null
+                || annotation(annotations, HeaderParam.class) != null;
+    }
+
+    /**
+     * Gets the Gson adapters for the message types, resolving them if this
+     * is the first call or if the shared {@link Gson} instance has been
+     * rebuilt since they were resolved. This is called when the
+     * {@link Router} is configured so that requests find them ready.
+     *
+     * @return The adapters.
+     */
+    MessageAdapters adapters() {
+        Gson gson = Serialiser.getGson();
+        MessageAdapters result = adapters;
+        if (result == null || result.gson != gson) {
+            result = new MessageAdapters(gson,
+                    adapter(gson, requestMessageGenericType),
+                    adapter(gson, responseMessageGenericType));
+            adapters = result;
+        }
+        return result;
+    }
+
+    private TypeAdapter<Object> adapter(Gson gson, Type type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            TypeAdapter<Object> adapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(type));
+            return adapter;
+        } catch (RuntimeException e) {
+            log.warn("Unable to resolve a Json adapter for {} on method {}: {}", type, handlerMethod.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Deserialises the request message or, if {@link #requestStreamed},
+     * returns an iterator that deserialises messages as they're read. A form
+     * post is bound by the {@link #formReader}, if there is one.
+     *
+     * @param request The request.
+     * @return The request message.
+     * @throws IOException If an error occurs in reading the request.
+     */
+    Object readRequest(HttpServletRequest request) throws IOException {
+        TypeAdapter<Object> adapter = adapters().request;
+        if (requestStreamed) {
+            if (adapter == null) {
+                // Let Gson report whatever the problem is:
+                @SuppressWarnings("unchecked")
+                TypeAdapter<Object> resolved = (TypeAdapter<Object>) Serialiser.getGson().getAdapter(TypeToken.get(requestMessageGenericType));
+                adapter = resolved;
+            }
+            boolean newlineDelimited = StringUtils.containsIgnoreCase(request.getContentType(), "ndjson");
+            Iterator<Object> messages = Serialiser.iterate(request, adapter, newlineDelimited);
+            return requestBatchSize > 0 ? new Batches<>(messages, requestBatchSize) : messages;
+        }
+        if (formReader != null && FormReader.isForm(request)) {
+            return formReader.read(request);
+        }
+        if (adapter == null) {
+            return Serialiser.deserialise(request, requestMessageType);
+        }
+        return Serialiser.deserialise(request, adapter);
+    }
+
+    /**
+     * Serialises the response message. The adapter for the declared return
+     * type is only used if it fits the actual message: a subclass may have
+     * more fields, so otherwise Gson works from the runtime type as usual.
+     * If the method is marked {@link ETag @ETag}, the response is
+     * conditional on the request's <code>If-None-Match</code>.
+     * <p>
+     * A streamed response is written as it's read, rather than collected
+     * first: an {@link InputStream} is copied as-is and the elements of an
+     * {@link Iterator}, {@link Iterable} or {@link Stream} are written as a
+     * Json array or, if the client accepts it, newline-delimited Json.
+     * Whatever can be closed is closed once the response has been written.
+     * An {@link EventStream} is opened and left open.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @param message  The response message.
+     * @throws IOException If an error occurs in writing the response.
+     */
+    void writeResponse(HttpServletRequest request, HttpServletResponse response, Object message) throws IOException {
+
+        if (responseStreamType == null) {
+            TypeAdapter<Object> adapter = responseAdapter(message);
+            if (!etag) {
+                Serialiser.serialise(response, message, adapter);
+            } else if (response.containsHeader(Conditional.ETAG) || response.containsHeader(Conditional.LAST_MODIFIED)) {
+                // The handler has given a version, so there's no need to hash the response:
+                if (!Conditional.notModified(request, response)) {
+                    Serialiser.serialise(response, message, adapter);
+                }
+            } else {
+                Serialiser.serialise(response, message, adapter, request.getHeader(Conditional.IF_NONE_MATCH));
+            }
+            return;
+        }
+
+        if (responseStreamType == StreamType.EVENTS) {
+            // Kept open asynchronously, so this returns straight away:
+            ((EventStream) message).open(request, response);
+            return;
+        }
+
+        if (responseStreamType == StreamType.BYTES) {
+            try (InputStream input = (InputStream) message) {
+                if (response.getContentType() == null) {
+                    response.setContentType(OCTET_STREAM);
+                }
+                IOUtils.copy(input, response.getOutputStream());
+            }
+            return;
+        }
+
+        Iterator<?> iterator = responseStreamType.iterator(message);
+        try {
+            boolean newlineDelimited = StringUtils.containsIgnoreCase(request.getHeader(HttpHeader.ACCEPT.asString()), "ndjson");
+            Serialiser.stream(response, iterator, adapters().response, responseAdapterType, newlineDelimited);
+        } finally {
+            close(message);
+            if (iterator != message) {
+                close(iterator);
+            }
+        }
+    }
+
+    /**
+     * Serialises the response message to bytes, to be cached or shared.
+     *
+     * @param message The response message.
+     * @return The Json.
+     */
+    byte[] serialise(Object message) {
+        return Serialiser.toBytes(message, responseAdapter(message));
+    }
+
+    /**
+     * @param message The response message.
+     * @return The adapter for the declared return type, if it fits the
+     * actual message: a subclass may have more fields, so otherwise null so
+     * that Gson works from the runtime type as usual.
+     */
+    private TypeAdapter<Object> responseAdapter(Object message) {
+        TypeAdapter<Object> adapter = adapters().response;
+        if (adapter != null && message.getClass() != responseAdapterType
+                && !(responseAdapterForSubtypes && responseAdapterType.isInstance(message))) {
+            adapter = null;
+        }
+        return adapter;
+    }
+
+    private void close(Object message) {
+        if (message instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) message).close();
+            } catch (Exception e) {
+                log.warn("Error closing response stream from method {}: {}", handlerMethod.getName(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * @param annotations The annotations on a parameter.
+     * @param type        The annotation type to look for.
+     * @param <A>         The annotation type.
+     * @return The annotation, or null if the parameter doesn't have one of that type.
+     */
+    static <A extends Annotation> A annotation(Annotation[] annotations, Class<A> type) {
+        for (Annotation annotation : annotations) {
+            if (type.isInstance(annotation)) {
+                return type.cast(annotation);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Invokes {@link #handlerMethod}.
+     *
+     * @param endpoint The endpoint instance to invoke the method on.
+     * @param request  The request.
+     * @param response The response.
+     * @param match    The route match, giving access to path variables.
+     * @return The return value of the method, or null for a void method.
+     * @throws Throwable Whatever the method throws.
+     */
+    Object invoke(Object endpoint, HttpServletRequest request, HttpServletResponse response, RouteMatch match) throws Throwable {
+        ArgumentBinder[] binders = this.binders;
+        Object[] args = new Object[binders.length];
+        for (int i = 0; i < binders.length; i++) {
+            args[i] = binders[i].bind(request, response, match);
+        }
+        log.debug("Invoking method {} on {}", handlerMethod.getName(), endpoint.getClass().getSimpleName());
+        return (Object) invoker.invokeExact(endpoint, args);
+    }
+
+    /**
+     * The return types that are streamed rather than serialised in one go.
+     */
+    enum StreamType {
+
+        BYTES, ITERATOR, ITERABLE, STREAM, EVENTS;
+
+        /**
+         * @param type A response message type.
+         * @return How the type is streamed, or null if it isn't. Only
+         * <code>Iterable</code> itself is streamed, not its subtypes:
+         * collections are serialised as usual, with a Content-Length.
+         */
+        static StreamType of(Class<?> type) {
+            if (InputStream.class.isAssignableFrom(type)) {
+                return BYTES;
+            } else if (EventStream.class.isAssignableFrom(type)) {
+                return EVENTS;
+            } else if (Iterator.class.isAssignableFrom(type)) {
+                return ITERATOR;
+            } else if (type == Iterable.class) {
+                return ITERABLE;
+            } else if (Stream.class.isAssignableFrom(type)) {
+                return STREAM;
+            }
+            return null;
+        }
+
+        Iterator<?> iterator(Object message) {
+            switch (this) {
+                case ITERABLE:
+                    return ((Iterable<?>) message).iterator();
+                case STREAM:
+                    return ((Stream<?>) message).iterator();
+                default:
+                    return (Iterator<?>) message;
+            }
+        }
+    }
+
+    /**
+     * The adapters resolved from one {@link Gson} instance.
+     */
+    static final class MessageAdapters {
+
+        final Gson gson;
+        final TypeAdapter<Object> request;
+        final TypeAdapter<Object> response;
+
+        MessageAdapters(Gson gson, TypeAdapter<Object> request, TypeAdapter<Object> response) {
+            this.gson = gson;
+            this.request = request;
+            this.response = response;
+        }
+    }
 }
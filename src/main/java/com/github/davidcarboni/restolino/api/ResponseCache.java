@@ -0,0 +1,425 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.framework.Cached;
+import com.github.davidcarboni.restolino.helpers.Conditional;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.slf4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Caches the encoded responses of {@link Cached @Cached} methods. Each
+ * {@link Router} has its own cache, so it's emptied when classes are
+ * reloaded. To invalidate responses when your data changes, e.g. in a
+ * <code>POST</code> handler:
+ * <pre>
+ * ApiHandler.api.cache.invalidate("/products");
+ * </pre>
+ * Responses are keyed by path, then the (sorted) query string, then any
+ * headers the method varies by, so invalidating a path prefix removes all
+ * the variants of every path under it.
+ * <p>
+ * The cache is bounded by the number of bytes it holds (see
+ * {@link #setMaxBytes(long)}) and evicts the least recently used responses
+ * first. Expired responses are dropped when they're next requested or
+ * when they reach the end of the queue.
+ */
+public class ResponseCache {
+
+    private static final Logger log = getLogger(ResponseCache.class);
+
+    /**
+     * The default size of the cache: 16MB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Responses smaller than this aren't worth gzipping.
+     */
+    static final int GZIP_MIN_SIZE = 256;
+
+    /**
+     * A rough allowance for the memory used by an entry, other than its bytes.
+     */
+    static final int ENTRY_OVERHEAD = 128;
+
+    static final String CONTENT_TYPE = MimeTypes.Type.APPLICATION_JSON_UTF_8.asString();
+
+    private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Sets the maximum size of response caches, in bytes.
+     *
+     * @param bytes The maximum number of bytes to cache. Zero disables caching.
+     */
+    public static void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+    }
+
+    /**
+     * Removes every response whose key starts with the given prefix. Keys
+     * start with the request path, so <code>/products</code> removes
+     * <code>/products</code>, <code>/products?page=2</code> and
+     * <code>/products/123</code>, but not <code>/productsearch</code>. Paths
+     * are compared the way requests are routed: ignoring case and empty
+     * segments.
+     *
+     * @param keyPrefix The start of the keys to remove.
+     * @return The number of responses removed.
+     */
+    public synchronized int invalidate(String keyPrefix) {
+        String prefix = normalisePrefix(keyPrefix);
+        boolean wholeSegments = prefix.indexOf('?') < 0 && prefix.indexOf('\n') < 0;
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (startsWith(entry.getKey(), prefix, wholeSegments)) {
+                bytes -= entry.getValue().size;
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Tidies the path part of a prefix passed to {@link #invalidate(String)}
+     * the way {@link #key(HttpServletRequest, RouteTemplate, boolean, String[])}
+     * does, leaving any query or header part as it is.
+     */
+    static String normalisePrefix(String keyPrefix) {
+        int end = StringUtils.indexOfAny(keyPrefix, '?', '\n');
+        String path = end < 0 ? keyPrefix : keyPrefix.substring(0, end);
+        StringBuilder result = new StringBuilder(keyPrefix.length());
+        for (String segment : StringUtils.split(path, '/')) {
+            result.append('/').append(segment);
+        }
+        if (end >= 0) {
+            if (result.length() == 0) {
+                result.append('/');
+            }
+            result.append(keyPrefix, end, keyPrefix.length());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Literal segments are lowercased in keys, but variables aren't, so
+     * this ignores case. At worst that removes a few more responses than
+     * were asked for.
+     */
+    private static boolean startsWith(String key, String prefix, boolean wholeSegments) {
+        if (!key.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return false;
+        }
+        if (!wholeSegments || key.length() == prefix.length()) {
+            return true;
+        }
+        char next = key.charAt(prefix.length());
+        return next == '/' || next == '?' || next == '\n';
+    }
+
+    /**
+     * Removes every response from the given route.
+     *
+     * @param route The route, as listed in {@link Router#api}, e.g.
+     *              <code>products</code> or <code>/products/{id}</code>.
+     * @return The number of responses removed.
+     */
+    public synchronized int invalidateRoute(String route) {
+        int removed = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.route.equals(route)) {
+                bytes -= entry.size;
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all responses.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return The number of responses in the cache.
+     */
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return The approximate number of bytes held by the cache.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param key A key from {@link #key(HttpServletRequest, RouteTemplate, Cached)}.
+     * @return The cached response, or null if there isn't a fresh one.
+     */
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expired(System.nanoTime())) {
+            entries.remove(key);
+            bytes -= entry.size;
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a response, evicting the least recently used responses to make
+     * room for it.
+     *
+     * @param key   A key from {@link #key(HttpServletRequest, RouteTemplate, Cached)}.
+     * @param entry The response.
+     */
+    synchronized void put(String key, Entry entry) {
+        long maxBytes = ResponseCache.maxBytes;
+        if (entry.size > maxBytes / 4) {
+            log.debug("Not caching {}: {} bytes is too big for the cache", key, entry.size);
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        bytes += entry.size;
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Builds the cache key for a request: the path, then the query string
+     * with its parameters sorted by name, then the values of the headers the
+     * method varies by.
+     * <p>
+     * The path is put together from its segments the way it was routed, so
+     * that <code>/Products/1</code>, <code>/products/1</code> and
+     * <code>//products/1</code> share a key: empty segments are skipped and
+     * literal segments of the route are lowercased. Path variables are kept
+     * as they are, because they may well be case-sensitive.
+     *
+     * @param request  The request.
+     * @param template The route the request matched.
+     * @param cached   The caching policy of the method.
+     * @return The key.
+     */
+    static String key(HttpServletRequest request, RouteTemplate template, Cached cached) {
+        return key(request, template, cached.varyByQuery(), cached.varyByHeaders());
+    }
+
+    /**
+     * Builds a key for a request, as per {@link #key(HttpServletRequest, RouteTemplate, Cached)}.
+     *
+     * @param request       The request.
+     * @param template      The route the request matched.
+     * @param varyByQuery   If the query string is part of the key.
+     * @param varyByHeaders The headers that are part of the key.
+     * @return The key.
+     */
+    static String key(HttpServletRequest request, RouteTemplate template, boolean varyByQuery, String[] varyByHeaders) {
+        StringBuilder key = new StringBuilder();
+        List<String> segments = RequestContext.of(request).segments();
+        for (int i = 0; i < segments.size(); i++) {
+            key.append('/');
+            if (i < template.kinds.length && template.kinds[i] == RouteTemplate.LITERAL) {
+                key.append(template.segments[i]);
+            } else {
+                key.append(segments.get(i));
+            }
+        }
+        if (key.length() == 0) {
+            key.append('/');
+        }
+        String query = request.getQueryString();
+        if (varyByQuery && query != null && !query.isEmpty()) {
+            key.append('?');
+            appendSorted(query, key);
+        }
+        for (String header : varyByHeaders) {
+            String value = request.getHeader(header);
+            key.append('\n').append(header).append(':');
+            if (value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends the parameters of a query string sorted by name, keeping the
+     * order of repeated parameters, which may matter.
+     */
+    private static void appendSorted(String query, StringBuilder key) {
+        String[] parameters = query.split("&");
+        Arrays.sort(parameters, (a, b) -> {
+            int aEnd = a.indexOf('=');
+            int bEnd = b.indexOf('=');
+            return a.substring(0, aEnd < 0 ? a.length() : aEnd).compareTo(b.substring(0, bEnd < 0 ? b.length() : bEnd));
+        });
+        boolean first = true;
+        for (String parameter : parameters) {
+            if (!parameter.isEmpty()) {
+                if (!first) {
+                    key.append('&');
+                }
+                key.append(parameter);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Sends a cached response, or a 304 if the method is marked
+     * {@link com.github.davidcarboni.restolino.framework.ETag @ETag} and the
+     * client already has it. The gzipped copy has its own <code>ETag</code>
+     * (see {@link Conditional#gzipEtag(String)}), but either one will do for
+     * a 304.
+     *
+     * @param entry    The response.
+     * @param etag     If the response is conditional.
+     * @param request  The request.
+     * @param response The response.
+     * @throws IOException If an error occurs in writing the response.
+     */
+    static void write(Entry entry, boolean etag, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        boolean gzip = false;
+        if (entry.gzip != null) {
+            response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+            gzip = acceptsGzip(request.getHeader(HttpHeader.ACCEPT_ENCODING.asString()));
+        }
+        if (etag) {
+            response.setHeader(Conditional.ETAG, gzip ? entry.gzipEtag : entry.etag);
+            String ifNoneMatch = request.getHeader(Conditional.IF_NONE_MATCH);
+            if (Conditional.matches(ifNoneMatch, entry.etag) || Conditional.matches(ifNoneMatch, entry.gzipEtag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        byte[] body = entry.body;
+        if (gzip) {
+            // Setting Content-Encoding also stops GzipHandler compressing it again:
+            response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+            body = entry.gzip;
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * @param acceptEncoding The <code>Accept-Encoding</code> request header.
+     * @return If gzip is listed, without <code>q=0</code>.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    if (isZeroQuality(parts[i].trim())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param parameter A parameter of a coding, e.g. <code>q=0.8</code>.
+     * @return If it's <code>q=0</code>, <code>q=0.</code>, <code>q=0.000</code> and so on.
+     */
+    private static boolean isZeroQuality(String parameter) {
+        if (parameter.length() < 3 || (parameter.charAt(0) != 'q' && parameter.charAt(0) != 'Q')
+                || parameter.charAt(1) != '=' || parameter.charAt(2) != '0') {
+            return false;
+        }
+        for (int i = 3; i < parameter.length(); i++) {
+            if (parameter.charAt(i) != '0' && !(i == 3 && parameter.charAt(i) == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+
+        final String route;
+        final byte[] body;
+        final byte[] gzip;
+        final String etag;
+        final String gzipEtag;
+        final long expires;
+        final int size;
+
+        /**
+         * @param route The route the response is from.
+         * @param body  The encoded response.
+         * @param gzip  If a gzipped copy should be kept too.
+         * @param ttl   How long the response stays fresh, in nanoseconds.
+         */
+        Entry(String route, byte[] body, boolean gzip, long ttl) {
+            this.route = route;
+            this.body = body;
+            this.gzip = gzip && body.length >= GZIP_MIN_SIZE ? gzip(body) : null;
+            this.etag = Conditional.etag(body, 0, body.length);
+            this.gzipEtag = this.gzip == null ? null : Conditional.gzipEtag(etag);
+            this.expires = System.nanoTime() + ttl;
+            this.size = ENTRY_OVERHEAD + body.length + (this.gzip == null ? 0 : this.gzip.length);
+        }
+
+        boolean expired(long now) {
+            return now - expires >= 0;
+        }
+
+        private static byte[] gzip(byte[] body) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+                gzip.write(body);
+            } catch (IOException e) {
+                // Not expected when writing to memory
+                throw new IllegalStateException(e);
+            }
+            return output.toByteArray();
+        }
+    }
+}
@@ -1,13 +1,98 @@
 package com.github.davidcarboni.restolino.api;
 
+import com.github.davidcarboni.restolino.framework.Api;
+import org.slf4j.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.slf4j.LoggerFactory.getLogger;
+
 /**
- * Represents an api endpoint, e.g. {@code /example}, mapped to a class of the same name annotated with {@link com.github.davidcarboni.restolino.framework.Api Api}.
+ * Represents an api endpoint, e.g. {@code /example}, mapped to a class of the same name annotated with {@link com.github.davidcarboni.restolino.framework.Api Api},
+ * or a {@link javax.ws.rs.Path @Path} template such as {@code /users/{id}}.
  */
 public class Route {
 
+    private static final Logger log = getLogger(Route.class);
+
     public Class<?> endpointClass;
     public Map<HttpMethod, RequestHandler> requestHandlers = new HashMap<>();
+
+    /**
+     * The path this route responds to.
+     */
+    transient RouteTemplate template;
+
+    /**
+     * The no-arg constructor of {@link #endpointClass}, adapted to <code>() -&gt; Object</code>.
+     */
+    transient MethodHandle constructor;
+
+    /**
+     * The shared instance, if {@link #endpointClass} is marked {@link Api#threadSafe()}.
+     */
+    transient Object instance;
+
+    /**
+     * Compiles the constructor of {@link #endpointClass} and, if the class is
+     * marked as {@link Api#threadSafe() thread-safe}, creates the single
+     * instance that will handle all requests.
+     */
+    void compile() {
+        constructor = null;
+        instance = null;
+        try {
+            Constructor<?> noArgs = endpointClass.getDeclaredConstructor();
+            noArgs.setAccessible(true);
+            constructor = MethodHandles.lookup().unreflectConstructor(noArgs)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            log.error("Endpoint class {} needs an accessible no-arg constructor", endpointClass.getName(), e);
+            return;
+        }
+
+        Api api = endpointClass.getAnnotation(Api.class);
+        if (api != null && api.threadSafe()) {
+            try {
+                instance = (Object) constructor.invokeExact();
+                log.info("Shared instance created for thread-safe endpoint {}", endpointClass.getSimpleName());
+            } catch (Throwable t) {
+                log.error("Error instantiating thread-safe endpoint class {}", endpointClass.getName(), t);
+                constructor = null;
+            }
+        }
+    }
+
+    /**
+     * Shares the compiled constructor and, for a thread-safe endpoint, the
+     * instance of another route for the same endpoint class. This means there
+     * is only one instance of a thread-safe class, however many paths it
+     * responds to.
+     *
+     * @param other An already compiled route for {@link #endpointClass}.
+     */
+    void compile(Route other) {
+        constructor = other.constructor;
+        instance = other.instance;
+    }
+
+    /**
+     * @return The shared instance for a thread-safe endpoint, otherwise a new instance.
+     * @throws Throwable Whatever the endpoint constructor throws.
+     */
+    Object endpoint() throws Throwable {
+        Object result = instance;
+        if (result == null) {
+            if (constructor == null) {
+                throw new RuntimeException("Unable to instantiate " + endpointClass.getSimpleName());
+            }
+            result = (Object) constructor.invokeExact();
+        }
+        return result;
+    }
 }
@@ -0,0 +1,99 @@
+package com.github.davidcarboni.restolino.api;
+
+/**
+ * The result of matching a request path against the {@link RouteTree}: the
+ * {@link Route} and the position (and, for numeric variables, the parsed
+ * value) of each path variable.
+ */
+class RouteMatch {
+
+    final Route route;
+    final String path;
+
+    /**
+     * Start and end (exclusive) of each variable within {@link #path}.
+     */
+    private final int[] bounds;
+
+    /**
+     * Values of variables that were matched as numbers.
+     */
+    private final long[] numbers;
+
+    RouteMatch(Route route, String path, int[] bounds, long[] numbers) {
+        this.route = route;
+        this.path = path;
+        this.bounds = bounds;
+        this.numbers = numbers;
+    }
+
+    /**
+     * @param index The variable index.
+     * @return The value of the variable.
+     */
+    String variable(int index) {
+        return path.substring(bounds[index * 2], bounds[index * 2 + 1]);
+    }
+
+    /**
+     * @param index The index of a variable that was matched as a number.
+     * @return The value parsed during matching.
+     */
+    long number(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Parses a variable as a (possibly negative) whole number, without taking
+     * a substring.
+     *
+     * @param index The variable index.
+     * @return The parsed value.
+     * @throws NumberFormatException If the variable is not a whole number.
+     */
+    long parseNumber(int index) {
+        return Converter.parseLong(path, bounds[index * 2], bounds[index * 2 + 1]);
+    }
+
+    /**
+     * @param index The variable index.
+     * @return The start of the variable within {@link #path}.
+     */
+    int start(int index) {
+        return bounds[index * 2];
+    }
+
+    /**
+     * @param index The variable index.
+     * @return The end (exclusive) of the variable within {@link #path}.
+     */
+    int end(int index) {
+        return bounds[index * 2 + 1];
+    }
+
+    /**
+     * Parses a run of digits.
+     *
+     * @param value  The string to parse.
+     * @param start  The start of the digits.
+     * @param end    The end (exclusive) of the digits.
+     * @param result Where to put the parsed value.
+     * @param index  The index in result to put the value at.
+     * @return If the region contained only digits and fits in a long, true.
+     */
+    static boolean parse(String value, int start, int end, long[] result, int index) {
+        if (start >= end) {
+            return false;
+        }
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || number > (Long.MAX_VALUE - digit) / 10) {
+                return false;
+            }
+            number = number * 10 + digit;
+        }
+        result[index] = number;
+        return true;
+    }
+}
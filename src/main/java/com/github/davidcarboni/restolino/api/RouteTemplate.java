@@ -0,0 +1,185 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parsed form of the path an endpoint responds to.
+ * <p>
+ * This is either a plain endpoint name (the lowercased class name), or a
+ * JAX-RS style {@link javax.ws.rs.Path @Path} template such as
+ * <code>/users/{id}/orders/{orderId}</code>. Endpoint names match any path
+ * that starts with the name. Templates can either match exactly or, like
+ * endpoint names, match anything below them. Literal segments are matched
+ * ignoring case, as endpoint names always have been.
+ * <p>
+ * Variables can be constrained to digits with <code>{id: \d+}</code> (or
+ * <code>[0-9]+</code>). Numeric variables are parsed as they are matched and
+ * a path that doesn't fit won't match the template. Other regular expressions
+ * aren't supported.
+ */
+class RouteTemplate {
+
+    static final int LITERAL = 0;
+    static final int VARIABLE = 1;
+    static final int NUMBER = 2;
+
+    /**
+     * Literal text (lowercased) or variable name, for each segment.
+     */
+    final String[] segments;
+
+    /**
+     * {@link #LITERAL}, {@link #VARIABLE} or {@link #NUMBER}, for each segment.
+     */
+    final int[] kinds;
+
+    /**
+     * The names of the variables, in the order they appear.
+     */
+    final String[] variables;
+
+    /**
+     * If this template also matches any path below it, true.
+     */
+    final boolean prefix;
+
+    private RouteTemplate(String[] segments, int[] kinds, String[] variables, boolean prefix) {
+        this.segments = segments;
+        this.kinds = kinds;
+        this.variables = variables;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param name An endpoint name.
+     * @return A template that matches the name and anything below it.
+     */
+    static RouteTemplate endpoint(String name) {
+        return new RouteTemplate(new String[]{StringUtils.lowerCase(name)}, new int[]{LITERAL}, new String[0], true);
+    }
+
+    /**
+     * Parses one or more {@link javax.ws.rs.Path @Path} values into a single
+     * template that matches exactly.
+     *
+     * @param paths The class and method paths, in order. Nulls are ignored.
+     * @return The parsed template.
+     * @throws IllegalArgumentException If the template can't be parsed.
+     */
+    static RouteTemplate parse(String... paths) {
+        return parse(false, paths);
+    }
+
+    /**
+     * Parses one or more {@link javax.ws.rs.Path @Path} values into a single template.
+     *
+     * @param prefix If the template should also match anything below it, true.
+     * @param paths  The class and method paths, in order. Nulls are ignored.
+     * @return The parsed template.
+     * @throws IllegalArgumentException If the template can't be parsed.
+     */
+    static RouteTemplate parse(boolean prefix, String... paths) {
+
+        List<String> segments = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        for (String path : paths) {
+            if (path == null) {
+                continue;
+            }
+            for (String segment : StringUtils.split(path, '/')) {
+                if (StringUtils.startsWith(segment, "{") && StringUtils.endsWith(segment, "}")) {
+                    String variable = segment.substring(1, segment.length() - 1);
+                    String regex = StringUtils.trim(StringUtils.substringAfter(variable, ":"));
+                    String name = StringUtils.trim(StringUtils.substringBefore(variable, ":"));
+                    if (StringUtils.isBlank(name) || variables.contains(name)) {
+                        throw new IllegalArgumentException("Missing or duplicate variable name in " + segment);
+                    }
+                    int kind;
+                    if (StringUtils.isEmpty(regex)) {
+                        kind = VARIABLE;
+                    } else if (StringUtils.equalsAny(regex, "\\d+", "[0-9]+")) {
+                        kind = NUMBER;
+                    } else {
+                        throw new IllegalArgumentException("Unsupported regular expression in " + segment
+                                + ". Only \\d+ and [0-9]+ are supported.");
+                    }
+                    segments.add(name);
+                    kinds.add(kind);
+                    variables.add(name);
+                } else if (StringUtils.containsAny(segment, '{', '}')) {
+                    throw new IllegalArgumentException("A variable must take up a whole segment: " + segment);
+                } else {
+                    segments.add(StringUtils.lowerCase(segment));
+                    kinds.add(LITERAL);
+                }
+            }
+        }
+
+        int[] kindsArray = new int[kinds.size()];
+        for (int i = 0; i < kindsArray.length; i++) {
+            kindsArray[i] = kinds.get(i);
+        }
+        return new RouteTemplate(segments.toArray(new String[0]), kindsArray, variables.toArray(new String[0]), prefix);
+    }
+
+    /**
+     * @param name A variable name.
+     * @return The index of the variable, or -1 if there is no such variable.
+     */
+    int variable(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (StringUtils.equals(variables[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index A variable index.
+     * @return If the variable is constrained to digits, true.
+     */
+    boolean isNumber(int index) {
+        int variable = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] != LITERAL && variable++ == index) {
+                return kinds[i] == NUMBER;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The template as a path. For an endpoint name, this is just the
+     * name, as it always has been in the api documentation. Other templates that
+     * match anything below them end in <code>/**</code>.
+     */
+    @Override
+    public String toString() {
+        if (prefix && segments.length == 1 && kinds[0] == LITERAL) {
+            return segments[0];
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            result.append('/');
+            if (kinds[i] == LITERAL) {
+                result.append(segments[i]);
+            } else {
+                result.append('{').append(segments[i]);
+                if (kinds[i] == NUMBER) {
+                    result.append(": \\d+");
+                }
+                result.append('}');
+            }
+        }
+        if (prefix) {
+            result.append("/**");
+        }
+        return result.length() == 0 ? "/" : result.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Resolves request paths to routes.
+ * <p>
+ * This is a trie with one level per path segment, built once from the
+ * {@link RouteTemplate} of each {@link Route} when the {@link Router} is
+ * configured. The literal children of each node are held in a
+ * {@link SegmentTable}, so the cost of a lookup depends on the depth of the
+ * path rather than on the number of routes. Variables are located (and
+ * numeric ones parsed) as the path is matched.
+ * <p>
+ * At each level a literal segment is preferred, then a numeric variable, then
+ * any variable. If nothing deeper matches, a route that matches everything
+ * below it (such as an endpoint name) is used.
+ */
+class RouteTree {
+
+    private static final Logger log = getLogger(RouteTree.class);
+
+    static class Node {
+
+        Map<String, Node> literals = new HashMap<>();
+        SegmentTable<Node> children;
+        Node number;
+        Node variable;
+
+        Route route;
+        RouteMatch match;
+        Route prefix;
+        RouteMatch prefixMatch;
+
+        void freeze() {
+            children = new SegmentTable<>(literals);
+            for (Node child : literals.values()) {
+                child.freeze();
+            }
+            if (number != null) {
+                number.freeze();
+            }
+            if (variable != null) {
+                variable.freeze();
+            }
+        }
+    }
+
+    private final Node root = new Node();
+    private int maxVariables;
+
+    RouteTree(Collection<Route> routes) {
+        for (Route route : routes) {
+            add(route);
+        }
+        root.freeze();
+    }
+
+    private void add(Route route) {
+        RouteTemplate template = route.template;
+
+        Node node = root;
+        for (int i = 0; i < template.segments.length; i++) {
+            switch (template.kinds[i]) {
+                case RouteTemplate.NUMBER:
+                    if (node.number == null) {
+                        node.number = new Node();
+                    }
+                    node = node.number;
+                    break;
+                case RouteTemplate.VARIABLE:
+                    if (node.variable == null) {
+                        node.variable = new Node();
+                    }
+                    node = node.variable;
+                    break;
+                default:
+                    Node child = node.literals.get(template.segments[i]);
+                    if (child == null) {
+                        child = new Node();
+                        node.literals.put(template.segments[i], child);
+                    }
+                    node = child;
+            }
+        }
+
+        Route existing = template.prefix ? node.prefix : node.route;
+        if (existing != null) {
+            log.warn("Ignoring route {} for {} because {} has the same path",
+                    template, route.endpointClass, existing.template);
+            return;
+        }
+
+        // Routes without variables can share a single match:
+        RouteMatch match = template.variables.length == 0 ? new RouteMatch(route, null, null, null) : null;
+        if (template.prefix) {
+            node.prefix = route;
+            node.prefixMatch = match;
+        } else {
+            node.route = route;
+            node.match = match;
+        }
+        maxVariables = Math.max(maxVariables, template.variables.length);
+    }
+
+    /**
+     * @param path A request path, as returned by
+     *             {@link javax.servlet.http.HttpServletRequest#getPathInfo()}.
+     * @return The match, or null if no route matches.
+     */
+    RouteMatch match(String path) {
+        if (path == null) {
+            return null;
+        }
+        return match(root, path, 0, 0, null, null);
+    }
+
+    private RouteMatch match(Node node, String path, int position, int variable, int[] bounds, long[] numbers) {
+
+        // Locate the next segment, skipping any slashes:
+        int length = path.length();
+        int start = position;
+        while (start < length && path.charAt(start) == '/') {
+            start++;
+        }
+
+        // End of the path:
+        if (start == length) {
+            if (node.route != null) {
+                return node.match != null ? node.match : new RouteMatch(node.route, path, bounds, numbers);
+            }
+            return prefix(node, path, bounds, numbers);
+        }
+
+        int end = start;
+        while (end < length && path.charAt(end) != '/') {
+            end++;
+        }
+
+        RouteMatch result = null;
+
+        // Literal:
+        Node child = node.children.get(path, start, end);
+        if (child != null) {
+            result = match(child, path, end, variable, bounds, numbers);
+        }
+
+        // Variables:
+        if (result == null && (node.number != null || node.variable != null)) {
+            if (bounds == null) {
+                bounds = new int[maxVariables * 2];
+                numbers = new long[maxVariables];
+            }
+            bounds[variable * 2] = start;
+            bounds[variable * 2 + 1] = end;
+            if (node.number != null && RouteMatch.parse(path, start, end, numbers, variable)) {
+                result = match(node.number, path, end, variable + 1, bounds, numbers);
+            }
+            if (result == null && node.variable != null) {
+                result = match(node.variable, path, end, variable + 1, bounds, numbers);
+            }
+        }
+
+        // Anything below an endpoint name:
+        if (result == null) {
+            result = prefix(node, path, bounds, numbers);
+        }
+
+        return result;
+    }
+
+    private static RouteMatch prefix(Node node, String path, int[] bounds, long[] numbers) {
+        if (node.prefix == null) {
+            return null;
+        }
+        return node.prefixMatch != null ? node.prefixMatch : new RouteMatch(node.prefix, path, bounds, numbers);
+    }
+}
@@ -4,7 +4,9 @@ import com.github.davidcarboni.restolino.framework.*;
 import com.github.davidcarboni.restolino.routes.DefaultApiDocumentation;
 import com.github.davidcarboni.restolino.routes.DefaultNotFound;
 import com.github.davidcarboni.restolino.routes.DefaultServerError;
-import com.github.davidcarboni.restolino.helpers.Path;
+import com.github.davidcarboni.restolino.helpers.Multipart;
+import com.github.davidcarboni.restolino.helpers.MultipartException;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
 import com.github.davidcarboni.restolino.json.Serialiser;
 import org.apache.commons.lang3.StringUtils;
 import org.reflections.Reflections;
@@ -18,6 +20,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -36,6 +40,23 @@ public class Router {
 
     public Map<String, Route> api = new HashMap<>();
 
+    /**
+     * Lookup structure for {@link #api}, used to route requests.
+     */
+    transient RouteTree routes = new RouteTree(api.values());
+
+    /**
+     * Responses of {@link Cached @Cached} methods. This belongs to the
+     * router, so a reload starts with an empty cache.
+     */
+    public final transient ResponseCache cache = new ResponseCache();
+
+    /**
+     * Calls to {@link Coalesce @Coalesce} methods that are in progress,
+     * keyed as per {@link ResponseCache#key(HttpServletRequest, RouteTemplate, boolean, String[])}.
+     */
+    final transient ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
     public Router(Reflections reflections) {
 
         // Set up the API endpoints:
@@ -65,10 +86,10 @@ public class Router {
         log.info("Examining endpoint class methods:");
 
         // Configure the classes:
+        Map<Class<?>, Route> compiled = new HashMap<>();
         for (Class<?> endpointClass : endpoints) {
 
-            Route route = getEndpoint(endpointClass);
-            route.endpointClass = endpointClass;
+            javax.ws.rs.Path classPath = endpointClass.getAnnotation(javax.ws.rs.Path.class);
 
             for (Method method : endpointClass.getMethods()) {
 
@@ -87,14 +108,29 @@ public class Router {
                         if (httpMethod != null) {
                             log.info("Http method: {}", httpMethod);
 
+                            // Which path does this method respond to?
+                            Route route;
+                            try {
+                                route = getRoute(endpointClass, classPath, method.getAnnotation(javax.ws.rs.Path.class), compiled);
+                            } catch (IllegalArgumentException e) {
+                                log.error("Invalid path for {} method {}: {}", httpMethod, method.getName(), e.getMessage());
+                                break annotation;
+                            }
+
                             RequestHandler requestHandler = new RequestHandler();
                             requestHandler.handlerMethod = method;
                             log.info("Java method: {}", method.getName());
 
                             // Look for an optional Json message type parameter:
-                            for (Class<?> parameterType : method.getParameterTypes()) {
+                            Class<?>[] parameterTypes = method.getParameterTypes();
+                            Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+                            for (int i = 0; i < parameterTypes.length; i++) {
+                                Class<?> parameterType = parameterTypes[i];
                                 if (!HttpServletRequest.class.isAssignableFrom(parameterType)
-                                        && !HttpServletResponse.class.isAssignableFrom(parameterType)) {
+                                        && !HttpServletResponse.class.isAssignableFrom(parameterType)
+                                        && parameterType != Multipart.class
+                                        && parameterType != RequestContext.class
+                                        && !RequestHandler.isRequestParameter(parameterAnnotations[i])) {
                                     if (requestHandler.requestMessageType != null) {
                                         log.error("Too many parameters on {} method {}. " +
                                                         "Message type already set to {} but also found a {} parameter.",
@@ -108,11 +144,20 @@ public class Router {
                             }
 
                             // Check the response Json message type:
-                            if (method.getReturnType() != void.class) {
-                                requestHandler.responseMessageType = method.getReturnType();
+                            Class<?> responseMessageType = RequestHandler.responseMessageType(method);
+                            if (responseMessageType != null) {
+                                requestHandler.responseMessageType = responseMessageType;
                                 log.info("Response Json: {}", requestHandler.responseMessageType.getSimpleName());
                             }
 
+                            // Compile the handler so requests don't need reflection:
+                            try {
+                                requestHandler.compile(route.template);
+                            } catch (IllegalAccessException e) {
+                                log.error("Unable to access {} method {}", httpMethod, method.getName(), e);
+                                break annotation;
+                            }
+
                             route.requestHandlers.put(httpMethod, requestHandler);
 
                         }
@@ -121,15 +166,85 @@ public class Router {
             }
         }
 
+        // Build the lookup structure for routing requests:
+        routes = new RouteTree(api.values());
+
+        // Resolve Json adapters now, rather than on the first request to each endpoint:
+        Set<ClassLoader> classLoaders = new LinkedHashSet<>();
+        for (Class<?> endpointClass : endpoints) {
+            classLoaders.add(endpointClass.getClassLoader());
+        }
+        Serialiser.loadGeneratedAdapters(classLoaders);
+        warmUp();
     }
 
-    private Route getEndpoint(Class<?> endpointClass) {
+    /**
+     * Resolves the Gson adapters for every request and response message type.
+     * This is called when the API is configured and should be called again
+     * if Json serialisation is configured afterwards (e.g. in a
+     * {@link Startup}), which rebuilds the shared Gson instance. Adapters
+     * that are already up to date are left as they are.
+     */
+    public void warmUp() {
+        for (Route route : api.values()) {
+            for (RequestHandler requestHandler : route.requestHandlers.values()) {
+                requestHandler.adapters();
+            }
+        }
+    }
+
+    /**
+     * Gets (or creates) the route for a handler method.
+     * <p>
+     * If neither the class nor the method has a {@link javax.ws.rs.Path @Path},
+     * the route is the lowercased class name, which matches that name and
+     * anything below it. Otherwise the route is the class path (or, failing
+     * that, the lowercased class name) followed by the method path. A method
+     * without a path also matches anything below the class path, so that
+     * adding <code>@Path(&lt;classname&gt;)</code> to a class doesn't change
+     * which requests it receives.
+     *
+     * @param endpointClass The endpoint class.
+     * @param classPath     The {@link javax.ws.rs.Path @Path} of the class, if any.
+     * @param methodPath    The {@link javax.ws.rs.Path @Path} of the method, if any.
+     * @param compiled      The first route compiled for each endpoint class.
+     * @return The route.
+     * @throws IllegalArgumentException If the path template can't be parsed.
+     */
+    private Route getRoute(Class<?> endpointClass, javax.ws.rs.Path classPath, javax.ws.rs.Path methodPath, Map<Class<?>, Route> compiled) {
+
         String endpointName = StringUtils.lowerCase(endpointClass.getSimpleName());
-        log.info("Route: /{} (Class {})", endpointName, endpointClass.getName());
-        if (!api.containsKey(endpointName)) {
-            api.put(endpointName, new Route());
+        RouteTemplate template;
+        if (classPath == null && methodPath == null) {
+            template = RouteTemplate.endpoint(endpointName);
+        } else {
+            template = RouteTemplate.parse(methodPath == null,
+                    classPath != null ? classPath.value() : endpointName,
+                    methodPath != null ? methodPath.value() : null);
         }
-        return api.get(endpointName);
+
+        String key = template.toString();
+        Route route = api.get(key);
+        if (route == null) {
+            log.info("Route: /{} (Class {})", StringUtils.removeStart(key, "/"), endpointClass.getName());
+            route = new Route();
+            route.template = template;
+            api.put(key, route);
+        }
+
+        // Compile the constructor (and any shared instance) once per class:
+        if (route.endpointClass != endpointClass) {
+            route.endpointClass = endpointClass;
+            Route other = compiled.get(endpointClass);
+            if (other != null) {
+                route.compile(other);
+            } else {
+                route.compile();
+                compiled.put(endpointClass, route);
+            }
+        }
+
+        return route;
     }
 
     /**
@@ -185,7 +300,7 @@ public class Router {
 
     public void get(HttpServletRequest request, HttpServletResponse response) {
 
-        if (isRootRequest(request)) {
+        if (RequestContext.of(request).isRoot()) {
             doRootRequest(request, response);
         } else {
             doMethod(request, response, HttpMethod.GET);
@@ -207,8 +322,9 @@ public class Router {
     public void options(HttpServletRequest request, HttpServletResponse response) {
 
         List<String> result = new ArrayList<>();
+        RequestContext context = RequestContext.of(request);
 
-        if (isRootRequest(request)) {
+        if (context.isRoot()) {
 
             // We only allow GET to the root resource:
             result.add(HttpMethod.GET.name());
@@ -216,9 +332,9 @@ public class Router {
         } else {
 
             // Determine which http methods are configured:
-            String requestPath = mapRequestPath(request);
-            if (api.containsKey(requestPath)) {
-                for (HttpMethod httpMethod : api.get(requestPath).requestHandlers.keySet()) {
+            RouteMatch match = match(context);
+            if (match != null) {
+                for (HttpMethod httpMethod : match.route.requestHandlers.keySet()) {
                     result.add(httpMethod.name());
                 }
             }
@@ -228,20 +344,14 @@ public class Router {
     }
 
     /**
-     * Determines if the given request is for the root resource (ie /).
+     * Looks up the route for a request. The result is kept in the
+     * {@link RequestContext}, so this is only done once per request.
      *
-     * @param request The {@link HttpServletRequest}
-     * @return If {@link HttpServletRequest#getPathInfo()} is null, empty string
-     * or "/" ten true.
+     * @param context The request context.
+     * @return The match, or null if no route matches.
      */
-    static boolean isRootRequest(HttpServletRequest request) {
-        String path = request.getPathInfo();
-        if (StringUtils.isBlank(path)) {
-            return true;
-        } else if (StringUtils.equals("/", path)) {
-            return true;
-        }
-        return false;
+    RouteMatch match(RequestContext context) {
+        return context.computeIfAbsent(RouteMatch.class, c -> routes.match(c.path()));
     }
 
     /**
@@ -322,13 +432,13 @@ public class Router {
     void doMethod(HttpServletRequest request, HttpServletResponse response, HttpMethod httpMethod) {
 
         // Locate a request handler:
-        String requestPath = mapRequestPath(request);
-        Route route = api.get(requestPath);
+        RouteMatch match = match(RequestContext.of(request));
+        Route route = match == null ? null : match.route;
 
         try {
 
             if (route != null && route.requestHandlers.containsKey(httpMethod)) {
-                handleRequest(request, response, route, httpMethod);
+                handleRequest(request, response, match, httpMethod);
             } else {
                 handleNotFound(request, response);
             }
@@ -344,18 +454,111 @@ public class Router {
 
             RequestHandler requestHandler = (route == null ? null : route.requestHandlers.get(httpMethod));
             handleError(request, response, requestHandler, caught);
+
+        } finally {
+
+            // Clean up any upload, unless the response is still to come:
+            if (!request.isAsyncStarted()) {
+                Multipart.release(request);
+            }
         }
 
     }
 
-    private void handleRequest(HttpServletRequest request, HttpServletResponse response, Route route, HttpMethod httpMethod) throws Exception {
+    private void handleRequest(HttpServletRequest request, HttpServletResponse response, RouteMatch match, HttpMethod httpMethod) throws Throwable {
 
         // An API route is defined for this request:
-        Object handler = instantiate(route.endpointClass);
-        RequestHandler requestHandler = route.requestHandlers.get(httpMethod);
-        Object responseMessage = invoke(request, response, handler, requestHandler.handlerMethod, requestHandler.requestMessageType);
+        RequestHandler requestHandler = match.route.requestHandlers.get(httpMethod);
+
+        // A cached response?
+        String cacheKey = null;
+        if (requestHandler.cached != null) {
+            cacheKey = ResponseCache.key(request, match.route.template, requestHandler.cached);
+            ResponseCache.Entry entry = cache.get(cacheKey);
+            if (entry != null) {
+                ResponseCache.write(entry, requestHandler.etag, request, response);
+                return;
+            }
+        }
+
+        // An identical request in progress?
+        Flight flight = null;
+        String flightKey = null;
+        if (requestHandler.coalesce != null) {
+            flightKey = ResponseCache.key(request, match.route.template, requestHandler.coalesce.varyByQuery(), requestHandler.coalesce.varyByHeaders());
+            flight = new Flight();
+            Flight leader = flights.putIfAbsent(flightKey, flight);
+            if (leader != null) {
+                ResponseCache.Entry entry = leader.await(requestHandler.coalesceTimeout);
+                if (entry != null) {
+                    ResponseCache.write(entry, requestHandler.etag, request, response);
+                    return;
+                }
+                // Timed out, or the response can't be shared, so go it alone:
+                flight = null;
+            }
+        }
+
+        try {
+            invokeHandler(request, response, match, requestHandler, cacheKey, flight);
+        } finally {
+            if (flight != null) {
+                // Release any waiting requests if there's no response to share:
+                flight.complete(null);
+                flights.remove(flightKey, flight);
+            }
+        }
+    }
+
+    /**
+     * Calls the handler method and sends its response, caching it and
+     * sharing it with identical requests as needed.
+     */
+    private void invokeHandler(HttpServletRequest request, HttpServletResponse response, RouteMatch match,
+                               RequestHandler requestHandler, String cacheKey, Flight flight) throws Throwable {
+
+        // Created here, so that cache hits and coalesced requests don't create one they won't use:
+        Object handler = match.route.endpoint();
+        Object responseMessage;
+        try {
+            responseMessage = requestHandler.invoke(handler, request, response, match);
+        } catch (BindingException e) {
+            if (e.status == HttpServletResponse.SC_NOT_FOUND) {
+                // A path or query parameter doesn't fit the parameter type, so the request doesn't really match:
+                handleNotFound(request, response);
+            } else {
+                response.setStatus(e.status);
+                Serialiser.serialise(response, e.getMessage());
+            }
+            return;
+        } catch (MultipartException e) {
+            // A malformed or oversized upload:
+            response.setStatus(e.status);
+            Serialiser.serialise(response, e.getMessage());
+            return;
+        }
+        if (requestHandler.async) {
+            // Release this thread and respond when the result is ready:
+            if (responseMessage != null) {
+                AsyncResponse.send(this, requestHandler, request, response, (CompletionStage<?>) responseMessage);
+            }
+            return;
+        }
+        if ((cacheKey != null || flight != null) && responseMessage != null && response.getStatus() == HttpServletResponse.SC_OK) {
+            boolean gzip = cacheKey != null && requestHandler.cached.gzip();
+            ResponseCache.Entry entry = new ResponseCache.Entry(match.route.template.toString(),
+                    requestHandler.serialise(responseMessage), gzip, requestHandler.cacheTtl);
+            if (cacheKey != null) {
+                cache.put(cacheKey, entry);
+            }
+            if (flight != null) {
+                flight.complete(entry);
+            }
+            ResponseCache.write(entry, requestHandler.etag, request, response);
+            return;
+        }
         if (requestHandler.responseMessageType != null && responseMessage != null) {
-            Serialiser.serialise(response, responseMessage);
+            requestHandler.writeResponse(request, response, responseMessage);
         }
     }
 
@@ -380,10 +583,23 @@ public class Router {
         }
     }
 
-    private void handleError(HttpServletRequest request, HttpServletResponse response, RequestHandler requestHandler, Throwable t) {
+    void handleError(HttpServletRequest request, HttpServletResponse response, RequestHandler requestHandler, Throwable t) {
+        handleError(request, response, requestHandler, t, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Passes an error to {@link #serverError}.
+     *
+     * @param request        The request.
+     * @param response       The response.
+     * @param requestHandler The handler the error occurred in, if any.
+     * @param t              The error.
+     * @param status         The default response code.
+     */
+    void handleError(HttpServletRequest request, HttpServletResponse response, RequestHandler requestHandler, Throwable t, int status) {
 
         // Set a default response code:
-        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        response.setStatus(status);
 
         try {
 
@@ -409,49 +625,7 @@ public class Router {
      */
     public String mapRequestPath(HttpServletRequest request) {
 
-        String endpointName = Path.newInstance(request).firstSegment();
+        String endpointName = RequestContext.of(request).firstSegment();
         return StringUtils.lowerCase(endpointName);
     }
-
-    private static Object instantiate(Class<?> endpointClass) {
-
-        // Instantiate:
-        Object result = null;
-        try {
-            result = endpointClass.newInstance();
-        } catch (InstantiationException e) {
-            throw new RuntimeException("Unable to instantiate " + endpointClass.getSimpleName(), e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("Unable to access " + endpointClass.getSimpleName(), e);
-        } catch (NullPointerException e) {
-            throw new RuntimeException("No class to instantiate", e);
-        }
-        return result;
-
-    }
-
-    private static Object invoke(HttpServletRequest request, HttpServletResponse response, Object route, Method requestHandler, Class<?> requestMessage) throws Exception {
-        Object result = null;
-
-        // Build the parameter list:
-        ArrayList<Object> args = new ArrayList<>();
-        for (Class<?> parameterType : requestHandler.getParameterTypes()) {
-            if (parameterType.isAssignableFrom(HttpServletRequest.class)) {
-                args.add(request);
-            } else if (parameterType.isAssignableFrom(HttpServletResponse.class)) {
-                args.add(response);
-            } else if (requestMessage != null && parameterType.isAssignableFrom(requestMessage)) {
-                args.add(Serialiser.deserialise(request, requestMessage));
-            } else {
-                log.warn("Warning: unexpected parameter type {}. Attempting to assign null", parameterType.getSimpleName());
-                args.add(null);
-            }
-        }
-
-        log.debug("Invoking method {} on {}", requestHandler.getName(), route.getClass().getSimpleName());
-        result = requestHandler.invoke(route, args.toArray());
-
-        // log.info("Result is " + result);
-        return result;
-    }
 }
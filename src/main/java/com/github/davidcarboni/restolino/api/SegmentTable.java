@@ -0,0 +1,84 @@
+package com.github.davidcarboni.restolino.api;
+
+import java.util.Map;
+
+/**
+ * Maps a path segment to a value, ignoring case.
+ * <p>
+ * This is a small open-addressed hash table that is built once, when the
+ * {@link Router} is configured. Lookups hash and compare the segment straight
+ * from the characters of the request path, so that resolving a route doesn't
+ * need to split the path, take a substring or make a lowercased copy.
+ *
+ * @param <V> The type of value held in the table.
+ */
+class SegmentTable<V> {
+
+    private final String[] names;
+    private final Object[] values;
+    private final int mask;
+
+    /**
+     * @param entries Values, keyed by lowercase segment.
+     */
+    SegmentTable(Map<String, V> entries) {
+
+        // Keep the load factor at or below 0.5 so probe sequences stay short:
+        int capacity = 2;
+        while (capacity < entries.size() * 2) {
+            capacity <<= 1;
+        }
+        names = new String[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for (Map.Entry<String, V> entry : entries.entrySet()) {
+            String name = entry.getKey();
+            int index = hash(name, 0, name.length()) & mask;
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+            names[index] = name;
+            values[index] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param path  A request path.
+     * @param start The start of the segment within the path.
+     * @param end   The end (exclusive) of the segment within the path.
+     * @return The value for the segment, or null.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String path, int start, int end) {
+        int length = end - start;
+        int index = hash(path, start, end) & mask;
+        String name;
+        while ((name = names[index]) != null) {
+            if (name.length() == length && name.regionMatches(true, 0, path, start, length)) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Case-insensitive hash of a region of a string.
+     */
+    private static int hash(String value, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + lowerCase(value.charAt(i));
+        }
+        // Spread the high bits down, as the table is indexed by the low bits:
+        return hash ^ (hash >>> 16);
+    }
+
+    private static char lowerCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
@@ -11,4 +11,14 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Api {
 
+    /**
+     * By default a new instance of the endpoint class is created for each
+     * request. If your class is safe to share between concurrent requests
+     * (e.g. it only holds things like prepared clients or caches that are
+     * themselves thread-safe) set this to true and a single instance will be
+     * created when the API is configured - and again on each reload.
+     *
+     * @return If the endpoint class can be shared between requests, true.
+     */
+    boolean threadSafe() default false;
 }
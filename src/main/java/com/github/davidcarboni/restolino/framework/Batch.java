@@ -0,0 +1,33 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put this on an <code>Iterator&lt;List&lt;T&gt;&gt;</code> message
+ * parameter to receive the messages in a request body in batches, e.g. to
+ * write them to a database a batch at a time:
+ * <pre>
+ * &#64;POST
+ * public void upload(&#64;Batch(500) Iterator&lt;List&lt;Row&gt;&gt; batches) {
+ *     while (batches.hasNext()) {
+ *         db.insert(batches.next());
+ *     }
+ * }
+ * </pre>
+ * Each batch is a new list, so you can hold on to it. Messages are parsed
+ * as you ask for them, so only one batch needs to be in memory at a time.
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Batch {
+
+    /**
+     * @return The maximum number of messages in each batch. Only the last batch can be smaller.
+     */
+    int value();
+}
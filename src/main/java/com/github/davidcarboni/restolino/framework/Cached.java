@@ -0,0 +1,63 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put this on a {@link javax.ws.rs.GET @GET} method to cache its
+ * responses on the server. While a cached response is fresh, requests for
+ * it are answered with the encoded bytes without calling the method or
+ * serialising anything:
+ * <pre>
+ * &#64;GET
+ * &#64;Cached(ttl = 30)
+ * public List&lt;Product&gt; get(&#64;QueryParam("category") String category) {
+ *     ...
+ * }
+ * </pre>
+ * Responses are cached by path and, unless {@link #varyByQuery()} is false,
+ * by query string (in any parameter order). Add {@link #varyByHeaders()} if
+ * the response depends on request headers. Only the Json body is cached, so
+ * don't cache a method that sets response headers (e.g. cookies) or a
+ * status other than 200. Streamed and asynchronous responses aren't cached.
+ * <p>
+ * Use {@link com.github.davidcarboni.restolino.api.ResponseCache} to
+ * invalidate responses when the underlying data changes.
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cached {
+
+    /**
+     * @return How long a response stays fresh, in {@link #unit()}s.
+     */
+    long ttl();
+
+    /**
+     * @return The unit of {@link #ttl()}. Defaults to seconds.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * @return If false, the query string is ignored, so all requests for the
+     * path share one response.
+     */
+    boolean varyByQuery() default true;
+
+    /**
+     * @return The names of request headers that responses vary by, e.g.
+     * <code>Accept-Language</code>.
+     */
+    String[] varyByHeaders() default {};
+
+    /**
+     * @return If true, a gzipped copy of the response is cached too and sent
+     * to clients that accept it, rather than compressing for every request.
+     */
+    boolean gzip() default false;
+}
@@ -0,0 +1,51 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put this on a {@link javax.ws.rs.GET @GET} method so that identical
+ * requests that arrive together share one call. The first request runs the
+ * method as usual, while any identical requests that arrive before it's
+ * finished wait for its serialised response rather than calling the method
+ * themselves. This stops a burst of requests for a popular resource (e.g.
+ * when a {@link Cached @Cached} response expires) all hitting your
+ * database at once.
+ * <p>
+ * Requests are identical if they're for the same path and, unless
+ * {@link #varyByQuery()} is false, the same query string (in any parameter
+ * order), and have the same values for any {@link #varyByHeaders()}. As
+ * with {@link Cached @Cached}, only a 200 Json body is shared, so don't use
+ * this on a method that sets response headers. If the first request fails
+ * or doesn't respond within the {@link #timeout()}, waiting requests call
+ * the method themselves.
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Coalesce {
+
+    /**
+     * @return How long to wait for the first request, in {@link #unit()}s.
+     */
+    long timeout() default 5000;
+
+    /**
+     * @return The unit of {@link #timeout()}. Defaults to milliseconds.
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * @return If false, the query string is ignored.
+     */
+    boolean varyByQuery() default true;
+
+    /**
+     * @return The names of request headers that responses vary by.
+     */
+    String[] varyByHeaders() default {};
+}
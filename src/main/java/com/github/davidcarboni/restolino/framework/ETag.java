@@ -0,0 +1,32 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put this on a {@link javax.ws.rs.GET @GET} method (or on the endpoint
+ * class, to apply to all of its <code>GET</code> methods) to make responses
+ * conditional. The response message is serialised into a buffer and sent
+ * with a strong <code>ETag</code> computed from the bytes. If that matches
+ * the request's <code>If-None-Match</code>, a <code>304 Not Modified</code>
+ * is sent with no body.
+ * <p>
+ * If your method can tell cheaply whether anything has changed (e.g. from a
+ * version number or a timestamp), use
+ * {@link com.github.davidcarboni.restolino.helpers.Conditional Conditional}
+ * to avoid building the response at all. If the method sets an
+ * <code>ETag</code> or <code>Last-Modified</code> header itself, that is
+ * used instead of hashing the response.
+ * <p>
+ * Only responses that fit within the content length limit
+ * (<code>restolino.contentlengthlimit</code>) are tagged. Bigger and
+ * streamed responses are sent as usual.
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface ETag {
+}
@@ -11,8 +11,11 @@ import javax.servlet.http.HttpServletResponse;
  * <p>
  * This interface is named {@link Filter} because it provides similar
  * functionality to a Servlet filter, however there are important differences.
- * Restolino doesn't offer a "chain" of filters. Implementations of this class
- * will be called on each request but the order is not guaranteed.
+ * Filters can't wrap the request or each other. They're called in order of
+ * {@link FilterScope#priority()} until one returns false, and
+ * {@link FilterScope @FilterScope} can limit a filter to API or static file
+ * requests, paths and methods, so that e.g. an authentication check doesn't
+ * run for every image.
  * <p>
  * The intention is to minimise the convenience of filtering in order to
  * discourage design leakage away from {@link Api} classes (thereby removing a
@@ -27,7 +30,8 @@ public interface Filter {
     /**
      * @param req The request.
      * @param res The response.
-     * @return If restolino should continue processing this request, true.
+     * @return If restolino should continue processing this request, true. If
+     * false, no further filters are called.
      */
     boolean filter(HttpServletRequest req, HttpServletResponse res);
 }
@@ -0,0 +1,59 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put this on a {@link Filter} to say when it runs. For example, to only
+ * check authentication for API requests that change something under
+ * <code>/admin</code>:
+ * <pre>
+ * &#64;FilterScope(priority = 10, requests = FilterScope.Requests.API,
+ *         paths = "/admin", methods = {"POST", "PUT", "DELETE"})
+ * public class AdminAuth implements Filter {
+ *     ...
+ * }
+ * </pre>
+ * Filters run in order of {@link #priority()}, lowest first. Filters
+ * without this annotation have priority 0 and run on every request.
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FilterScope {
+
+    /**
+     * The kinds of request a filter can apply to.
+     */
+    enum Requests {
+        ALL, API, FILES
+    }
+
+    /**
+     * @return Where this filter comes in the chain. Lower numbers run first;
+     * filters with the same priority run in order of class name.
+     */
+    int priority() default 0;
+
+    /**
+     * @return Whether this filter runs on API requests, static file requests, or both.
+     */
+    Requests requests() default Requests.ALL;
+
+    /**
+     * @return Path prefixes this filter is limited to. A prefix matches whole
+     * path segments, so <code>/admin</code> matches <code>/admin</code> and
+     * <code>/admin/users</code>, but not <code>/administrator</code>. If
+     * empty, the filter runs on every path.
+     */
+    String[] paths() default {};
+
+    /**
+     * @return HTTP methods this filter is limited to. If empty, the filter
+     * runs on every method.
+     */
+    String[] methods() default {};
+}
@@ -0,0 +1,36 @@
+package com.github.davidcarboni.restolino.framework;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets how long to wait for a handler method that returns a
+ * {@link java.util.concurrent.CompletionStage CompletionStage} (such as a
+ * {@link java.util.concurrent.CompletableFuture CompletableFuture}) to
+ * complete. If it doesn't complete in time, the request is passed to your
+ * {@link ServerError} handler with a
+ * {@link java.util.concurrent.TimeoutException TimeoutException} and a 503
+ * status.
+ * <p>
+ * This can go on a method or on the endpoint class, to apply to all of its
+ * methods. Without it, the container default applies (30 seconds for Jetty).
+ *
+ * @author david
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Timeout {
+
+    /**
+     * @return The timeout, in {@link #unit()}s.
+     */
+    long value();
+
+    /**
+     * @return The unit of {@link #value()}. Defaults to seconds.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,220 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.eclipse.jetty.http.DateParser;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Helps with conditional <code>GET</code> requests, so that a client that
+ * already has the current version of a response gets a
+ * <code>304 Not Modified</code> rather than the whole thing again. If your
+ * handler method can work out a version cheaply, check it before building
+ * the response:
+ * <pre>
+ * &#64;GET
+ * public Report get(HttpServletRequest request, HttpServletResponse response) {
+ *     if (Conditional.notModified(request, response, reports.version())) {
+ *         return null;
+ *     }
+ *     return reports.build();
+ * }
+ * </pre>
+ * See also {@link com.github.davidcarboni.restolino.framework.ETag @ETag},
+ * which computes an <code>ETag</code> from the serialised response.
+ *
+ * @author david
+ */
+public class Conditional {
+
+    public static final String ETAG = "ETag";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * Added to the tag for the gzipped copy of a response, so that it isn't
+     * mistaken for the uncompressed one, e.g. <code>"3f9a1c0e-gz"</code>.
+     */
+    public static final String GZIP_SUFFIX = "-gz";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Sets the <code>ETag</code> for the given version and, if the client
+     * already has it, sets a 304 status.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @param version  The version of the response, e.g. a revision number or
+     *                 a hash. This is quoted to make the <code>ETag</code> if
+     *                 it isn't already.
+     * @return If the client has the current version, in which case there's
+     * no need to send a response message.
+     */
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response, String version) {
+        String etag = version.startsWith("\"") || version.startsWith("W/\"") ? version : "\"" + version + "\"";
+        response.setHeader(ETAG, etag);
+        return notModified(request, response);
+    }
+
+    /**
+     * Sets the <code>Last-Modified</code> date and, if the client's copy is
+     * at least that recent, sets a 304 status.
+     *
+     * @param request      The request.
+     * @param response     The response.
+     * @param lastModified When the response last changed, in milliseconds
+     *                     since the epoch.
+     * @return If the client has the current version, in which case there's
+     * no need to send a response message.
+     */
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response, long lastModified) {
+        response.setDateHeader(LAST_MODIFIED, lastModified);
+        return notModified(request, response);
+    }
+
+    /**
+     * Checks the request against an <code>ETag</code> or
+     * <code>Last-Modified</code> header that has already been set on the
+     * response and, if the client has the current version, sets a 304
+     * status. As per RFC 7232, <code>If-Modified-Since</code> is only
+     * considered if there's no <code>If-None-Match</code>.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @return If the client has the current version.
+     */
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch, response.getHeader(ETAG));
+        } else {
+            notModified = modifiedSince(request, response.getHeader(LAST_MODIFIED));
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * Compares an <code>If-None-Match</code> header with an
+     * <code>ETag</code>. This is the weak comparison RFC 7232 specifies for
+     * <code>If-None-Match</code>, so <code>W/</code> prefixes are ignored.
+     *
+     * @param ifNoneMatch The <code>If-None-Match</code> header value: a list of ETags, or *.
+     * @param etag        The current <code>ETag</code>, if any.
+     * @return If the client's copy matches.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        int tagStart = etag.startsWith("W/") ? 2 : 0;
+        int tagLength = etag.length() - tagStart;
+        int length = ifNoneMatch.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && (ifNoneMatch.charAt(i) == ' ' || ifNoneMatch.charAt(i) == ',')) {
+                i++;
+            }
+            int end = ifNoneMatch.indexOf(',', i);
+            if (end < 0) {
+                end = length;
+            }
+            int start = i;
+            int stop = end;
+            while (stop > start && ifNoneMatch.charAt(stop - 1) == ' ') {
+                stop--;
+            }
+            if (ifNoneMatch.startsWith("W/", start)) {
+                start += 2;
+            }
+            if (stop - start == 1 && ifNoneMatch.charAt(start) == '*') {
+                return true;
+            }
+            if (stop - start == tagLength && ifNoneMatch.regionMatches(start, etag, tagStart, tagLength)) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
+    }
+
+    private static boolean modifiedSince(HttpServletRequest request, String lastModified) {
+        if (lastModified == null) {
+            return false;
+        }
+        long modified = DateParser.parseDate(lastModified);
+        try {
+            long since = request.getDateHeader(IF_MODIFIED_SINCE);
+            // Dates only have a resolution of seconds:
+            return since >= 0 && modified >= 0 && since / 1000 >= modified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes a strong <code>ETag</code> from the bytes of a response. This
+     * uses a fast 64-bit non-cryptographic hash, which is plenty to tell
+     * versions of a response apart.
+     *
+     * @param bytes  The response.
+     * @param offset The start of the response.
+     * @param length The length of the response.
+     * @return A quoted <code>ETag</code> value.
+     */
+    public static String etag(byte[] bytes, int offset, int length) {
+        long hash = hash(bytes, offset, length);
+        char[] result = new char[18];
+        result[0] = '"';
+        for (int i = 16; i > 0; i--) {
+            result[i] = HEX[(int) (hash & 0xF)];
+            hash >>>= 4;
+        }
+        result[17] = '"';
+        return new String(result);
+    }
+
+    /**
+     * @param etag A quoted <code>ETag</code>, e.g. from {@link #etag(byte[], int, int)}.
+     * @return The <code>ETag</code> for a gzipped copy of the same response.
+     */
+    public static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + '"';
+    }
+
+    /**
+     * A multiply-and-rotate hash that works through the input eight bytes
+     * at a time, finished with the MurmurHash3 64-bit mix.
+     */
+    static long hash(byte[] bytes, int offset, int length) {
+        long hash = PRIME ^ length;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long k = (bytes[i] & 0xFFL)
+                    | (bytes[i + 1] & 0xFFL) << 8
+                    | (bytes[i + 2] & 0xFFL) << 16
+                    | (bytes[i + 3] & 0xFFL) << 24
+                    | (bytes[i + 4] & 0xFFL) << 32
+                    | (bytes[i + 5] & 0xFFL) << 40
+                    | (bytes[i + 6] & 0xFFL) << 48
+                    | (bytes[i + 7] & 0xFFL) << 56;
+            hash = Long.rotateLeft(hash ^ k * PRIME, 31) * PRIME;
+        }
+        for (; i < end; i++) {
+            hash = Long.rotateLeft(hash ^ (bytes[i] & 0xFFL) * PRIME, 11) * PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
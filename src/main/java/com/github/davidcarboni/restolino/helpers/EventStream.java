@@ -0,0 +1,305 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.slf4j.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A Server-Sent Events connection. Return one from a
+ * {@link javax.ws.rs.GET @GET} method to keep the connection open and send
+ * it the events published to some topics:
+ * <pre>
+ * &#64;GET
+ * public EventStream prices(&#64;QueryParam("symbol") String symbol) {
+ *     return Events.subscribe("prices/" + symbol);
+ * }
+ * </pre>
+ * Then call {@link Events#publish(String, String, Object)} whenever there's
+ * something new. Connections don't hold a thread while they're open: the
+ * request is put into asynchronous mode and events are written as the
+ * client is ready for them.
+ * <p>
+ * Each connection queues up to {@link #queueSize(int)} events for a client
+ * that isn't keeping up, then applies its {@link Overflow} policy. An
+ * EventStream has to be returned directly, rather than via a
+ * {@link java.util.concurrent.CompletionStage}.
+ */
+public class EventStream implements WriteListener, AsyncListener {
+
+    private static final Logger log = getLogger(EventStream.class);
+
+    public static final String MIME_TYPE = "text/event-stream";
+    public static final String CONTENT_TYPE = MIME_TYPE + ";charset=utf-8";
+
+    /**
+     * The default number of events that can be queued for a client.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /**
+     * What to do when a client falls too far behind.
+     */
+    public enum Overflow {
+        /**
+         * Discard the oldest queued event to make room, so the client skips ahead.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new event.
+         */
+        DROP_NEWEST,
+        /**
+         * Close the connection. A browser will reconnect and, if the
+         * handler sends a snapshot when it's opened, catch up that way.
+         */
+        DISCONNECT
+    }
+
+    final List<String> topics;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private Overflow overflow = Overflow.DROP_OLDEST;
+
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private AsyncContext asyncContext;
+    private ServletOutputStream output;
+    private boolean flushPending;
+    private boolean closed;
+
+    /**
+     * @param topics The topics to receive events from. See also {@link Events#subscribe(String...)}.
+     */
+    public EventStream(String... topics) {
+        this.topics = Collections.unmodifiableList(Arrays.asList(topics));
+    }
+
+    /**
+     * @param queueSize The number of events that can be queued for a slow client.
+     * @return This, for chaining.
+     */
+    public EventStream queueSize(int queueSize) {
+        this.queueSize = Math.max(queueSize, 1);
+        return this;
+    }
+
+    /**
+     * @param overflow What to do when the queue is full.
+     * @return This, for chaining.
+     */
+    public EventStream overflow(Overflow overflow) {
+        this.overflow = overflow;
+        return this;
+    }
+
+    /**
+     * @return The topics this connection receives events from.
+     */
+    public List<String> topics() {
+        return topics;
+    }
+
+    /**
+     * Sends an event to this connection only, e.g. a snapshot of the current
+     * state before any updates arrive.
+     *
+     * @param event The event name, or null for the default (<code>message</code>).
+     * @param data  The event data, as per {@link Events#publish(String, String, Object)}.
+     * @return If the event was queued.
+     */
+    public boolean send(String event, Object data) {
+        return offer(Events.encode(event, data));
+    }
+
+    /**
+     * Starts sending events. This is called by the framework once the
+     * handler method has returned.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @throws IOException If an error occurs in starting the response.
+     */
+    public void open(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader(HttpHeader.CACHE_CONTROL.asString(), "no-cache");
+        // Stop reverse proxies (e.g. nginx) buffering events:
+        response.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(0);
+        asyncContext.addListener(this);
+        synchronized (this) {
+            this.asyncContext = asyncContext;
+            // A comment, so that the client knows it's connected:
+            queue.addFirst(Events.OPENED);
+        }
+        Events.hub.register(this);
+        ServletOutputStream output = response.getOutputStream();
+        synchronized (this) {
+            // Nothing can be written until the container calls onWritePossible():
+            this.output = output;
+            output.setWriteListener(this);
+        }
+    }
+
+    /**
+     * Queues an encoded event, applying the {@link Overflow} policy if the
+     * queue is full.
+     *
+     * @param event The encoded event.
+     * @return If the event was queued.
+     */
+    boolean offer(byte[] event) {
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (queue.size() >= queueSize) {
+                switch (overflow) {
+                    case DROP_OLDEST:
+                        queue.poll();
+                        Events.hub.dropped.increment();
+                        break;
+                    case DROP_NEWEST:
+                        Events.hub.dropped.increment();
+                        return false;
+                    default:
+                        disconnect = true;
+                }
+            }
+            if (!disconnect) {
+                queue.add(event);
+                write();
+                return true;
+            }
+        }
+        log.debug("Disconnecting slow client from {}", topics);
+        Events.hub.disconnected.increment();
+        close();
+        return false;
+    }
+
+    /**
+     * Queues a heartbeat if nothing else is waiting to be sent.
+     */
+    synchronized void heartbeat() {
+        if (!closed && queue.isEmpty()) {
+            queue.add(Events.HEARTBEAT);
+            write();
+        }
+    }
+
+    /**
+     * Writes queued events for as long as the client can take them, then
+     * flushes. If the client isn't ready, the container calls
+     * {@link #onWritePossible()} when it is.
+     */
+    private void write() {
+        if (closed || output == null) {
+            return;
+        }
+        try {
+            while (output.isReady()) {
+                byte[] next = queue.poll();
+                if (next != null) {
+                    output.write(next);
+                    flushPending = true;
+                } else if (flushPending) {
+                    output.flush();
+                    flushPending = false;
+                } else {
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Error writing events to {}: {}", topics, e.toString());
+            closed = true;
+            queue.clear();
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() {
+        AsyncContext asyncContext;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+            asyncContext = this.asyncContext;
+        }
+        Events.hub.unregister(this);
+        if (asyncContext != null) {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // Already completed
+            }
+        }
+    }
+
+    /**
+     * @return If this connection has been closed.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+        write();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.debug("Event stream error for {}: {}", topics, t.toString());
+        close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+        }
+        Events.hub.unregister(this);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Nothing to do
+    }
+
+    @Override
+    public String toString() {
+        return "EventStream" + topics;
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import com.github.davidcarboni.restolino.json.Serialiser;
+import org.slf4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Publishes Server-Sent Events to the {@link EventStream}s subscribed to a
+ * topic:
+ * <pre>
+ * Events.publish("prices/ACME", "price", new Price("ACME", 42.5));
+ * </pre>
+ * Events are encoded once, when they're published, then handed to every
+ * subscriber on a single event-loop thread, so publishing never waits for
+ * a client. Every connection is also sent a heartbeat comment now and then
+ * (see {@link #setHeartbeat(long)}), unless it has events waiting, which
+ * keeps proxies from closing it and finds clients that have gone away.
+ * <p>
+ * Use {@link #metrics()} to see how many clients are connected.
+ */
+public class Events {
+
+    private static final Logger log = getLogger(Events.class);
+
+    /**
+     * The default heartbeat interval: 15 seconds.
+     */
+    public static final long DEFAULT_HEARTBEAT = 15000;
+
+    static final byte[] OPENED = ":ok\n\n".getBytes(StandardCharsets.UTF_8);
+    static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    static final Events hub = new Events();
+
+    private final Map<String, Set<EventStream>> topics = new ConcurrentHashMap<>();
+    private final Set<EventStream> connections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService loop;
+    private ScheduledFuture<?> heartbeat;
+
+    final LongAdder published = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder disconnected = new LongAdder();
+
+    Events() {
+        ScheduledThreadPoolExecutor loop = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loop.setRemoveOnCancelPolicy(true);
+        this.loop = loop;
+        heartbeat(DEFAULT_HEARTBEAT);
+    }
+
+    /**
+     * @param topics The topics to receive events from.
+     * @return A new connection, to be returned from a handler method.
+     */
+    public static EventStream subscribe(String... topics) {
+        return new EventStream(topics);
+    }
+
+    /**
+     * Publishes an unnamed event, which browsers pass to
+     * <code>EventSource.onmessage</code>.
+     *
+     * @param topic The topic.
+     * @param data  The event data, as per {@link #publish(String, String, Object)}.
+     * @return The number of subscribers the event is being sent to.
+     */
+    public static int publish(String topic, Object data) {
+        return publish(topic, null, data);
+    }
+
+    /**
+     * Publishes an event to the subscribers of a topic.
+     *
+     * @param topic The topic.
+     * @param event The event name, or null for an unnamed event.
+     * @param data  The event data. A {@link CharSequence} is sent as-is,
+     *              anything else is serialised to Json.
+     * @return The number of subscribers the event is being sent to.
+     */
+    public static int publish(String topic, String event, Object data) {
+        return hub.send(topic, event, data);
+    }
+
+    /**
+     * Sets how often quiet connections are sent a heartbeat.
+     *
+     * @param millis The interval in milliseconds. Zero disables heartbeats.
+     */
+    public static void setHeartbeat(long millis) {
+        hub.heartbeat(millis);
+    }
+
+    /**
+     * @return The current connection counts.
+     */
+    public static Metrics metrics() {
+        return hub.snapshot();
+    }
+
+    int send(String topic, String event, Object data) {
+        Set<EventStream> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return 0;
+        }
+        byte[] encoded = encode(event, data);
+        published.increment();
+        loop.execute(() -> {
+            for (EventStream subscriber : subscribers) {
+                subscriber.offer(encoded);
+            }
+        });
+        return subscribers.size();
+    }
+
+    synchronized void heartbeat(long millis) {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+        if (millis > 0) {
+            heartbeat = loop.scheduleAtFixedRate(() -> {
+                for (EventStream connection : connections) {
+                    connection.heartbeat();
+                }
+            }, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void register(EventStream stream) {
+        if (connections.add(stream)) {
+            for (String topic : stream.topics) {
+                topics.compute(topic, (key, subscribers) -> {
+                    Set<EventStream> result = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+                    result.add(stream);
+                    return result;
+                });
+            }
+            log.debug("Opened {}", stream);
+        }
+    }
+
+    void unregister(EventStream stream) {
+        if (connections.remove(stream)) {
+            for (String topic : stream.topics) {
+                topics.computeIfPresent(topic, (key, subscribers) -> {
+                    subscribers.remove(stream);
+                    return subscribers.isEmpty() ? null : subscribers;
+                });
+            }
+            log.debug("Closed {}", stream);
+        }
+    }
+
+    Metrics snapshot() {
+        Metrics metrics = new Metrics();
+        metrics.connections = connections.size();
+        for (Map.Entry<String, Set<EventStream>> topic : topics.entrySet()) {
+            metrics.topics.put(topic.getKey(), topic.getValue().size());
+        }
+        metrics.published = published.sum();
+        metrics.dropped = dropped.sum();
+        metrics.disconnected = disconnected.sum();
+        return metrics;
+    }
+
+    /**
+     * Encodes an event in the <code>text/event-stream</code> format.
+     *
+     * @param event The event name, or null.
+     * @param data  The event data.
+     * @return The encoded event.
+     */
+    static byte[] encode(String event, Object data) {
+        StringBuilder result = new StringBuilder();
+        if (event != null) {
+            result.append("event: ").append(event.replaceAll("[\r\n]", "")).append('\n');
+        }
+        String text = data instanceof CharSequence ? data.toString() : Serialiser.serialise(data);
+        // Each line of the data needs its own field:
+        for (String line : text.split("\r\n|\r|\n", -1)) {
+            result.append("data: ").append(line).append('\n');
+        }
+        result.append('\n');
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A snapshot of the connection counts, e.g. to return from a
+     * monitoring endpoint.
+     */
+    public static class Metrics {
+
+        /**
+         * The number of open connections.
+         */
+        public int connections;
+
+        /**
+         * The number of connections subscribed to each topic.
+         */
+        public Map<String, Integer> topics = new TreeMap<>();
+
+        /**
+         * The number of events published to at least one subscriber.
+         */
+        public long published;
+
+        /**
+         * The number of events dropped because a client wasn't keeping up.
+         */
+        public long dropped;
+
+        /**
+         * The number of connections closed because a client wasn't keeping up.
+         */
+        public long disconnected;
+    }
+}
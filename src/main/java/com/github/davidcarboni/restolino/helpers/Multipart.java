@@ -0,0 +1,699 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.slf4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A streaming <code>multipart/form-data</code> parser. Declare a parameter of
+ * this type on a handler method to receive an upload:
+ * <pre>
+ * &#64;POST
+ * public void upload(Multipart multipart) throws IOException {
+ *     Multipart.Part part;
+ *     while ((part = multipart.next()) != null) {
+ *         if (part.filename != null) {
+ *             part.moveTo(uploads.resolve(UUID.randomUUID().toString()));
+ *         } else {
+ *             fields.put(part.name, part.getString());
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Parts are read from the request as you ask for them. Each part's
+ * {@link Part#getInputStream() stream} reads straight from the request body,
+ * so a file can be processed without being held anywhere. Moving on to the
+ * next part skips whatever is left of the current one, unless you've
+ * {@link Part#spool() spooled} it: then small parts are kept in pooled
+ * memory and bigger ones are written to a temp file.
+ * <p>
+ * Limits are checked as early as possible: an upload with a
+ * <code>Content-Length</code> over the limit is rejected before anything is
+ * read, and a part (or upload) is rejected as soon as it goes over,
+ * rather than once it has all been read. Either way a
+ * {@link MultipartException} is thrown with a 413 status.
+ * <p>
+ * Temp files and pooled memory are released when the request has been
+ * handled, so move or copy anything you want to keep before then.
+ */
+public class Multipart implements Closeable {
+
+    private static final Logger log = getLogger(Multipart.class);
+
+    /**
+     * The default for the largest part, in bytes.
+     */
+    public static final long DEFAULT_MAX_PART_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * The default for the largest upload (the whole request body), in bytes.
+     */
+    public static final long DEFAULT_MAX_UPLOAD_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * Spooled parts up to this size are kept in memory.
+     */
+    public static final int MEMORY_THRESHOLD = 16 * 1024;
+
+    /**
+     * Once this much of an upload is being held in memory, any more parts
+     * that are spooled go to disk.
+     */
+    static final int MEMORY_LIMIT = 1024 * 1024;
+
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    private static final String ATTRIBUTE = Multipart.class.getName();
+    private static final ByteBufferPool pool = new ArrayByteBufferPool();
+
+    private static volatile long maxPartSize = DEFAULT_MAX_PART_SIZE;
+    private static volatile long maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
+
+    private final InputStream input;
+    private final long partLimit;
+    private final long uploadLimit;
+
+    /**
+     * <code>CRLF--boundary</code>.
+     */
+    private final byte[] delimiter;
+
+    private final ByteBuffer buffer;
+    private final byte[] buf;
+    private int pos;
+    private int end;
+    private boolean eof;
+    private long uploaded;
+
+    /**
+     * <code>buf[pos..dataEnd)</code> is known to be part of the current
+     * part, so it doesn't need to be searched again.
+     */
+    private int dataEnd;
+
+    /**
+     * If a delimiter starts at {@link #dataEnd}.
+     */
+    private boolean atDelimiter;
+
+    private boolean finished;
+    private boolean closed;
+    private int memoryUsed;
+    private Part current;
+    private final List<Part> parts = new ArrayList<>();
+
+    /**
+     * @param input       The request body.
+     * @param boundary    The boundary from the <code>Content-Type</code>.
+     * @param partLimit   The largest part, in bytes.
+     * @param uploadLimit The largest upload, in bytes.
+     */
+    public Multipart(InputStream input, String boundary, long partLimit, long uploadLimit) {
+        this.input = input;
+        this.partLimit = partLimit;
+        this.uploadLimit = uploadLimit;
+        delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        buffer = pool.acquire(BUFFER_SIZE, false);
+        buf = buffer.array();
+        // Start with a line break so the first delimiter looks like the others:
+        buf[0] = '\r';
+        buf[1] = '\n';
+        end = 2;
+    }
+
+    /**
+     * Gets the {@link Multipart} for a request, using the limits set with
+     * {@link #setLimits(long, long)}. It will be closed when the request
+     * has been handled.
+     *
+     * @param request The request.
+     * @return The multipart body of the request, or null if the request
+     * isn't <code>multipart/...</code>.
+     * @throws IOException If the upload is too big, according to its
+     *                     <code>Content-Length</code>, or the request body
+     *                     can't be read.
+     */
+    public static Multipart of(HttpServletRequest request) throws IOException {
+        Object existing = request.getAttribute(ATTRIBUTE);
+        if (existing instanceof Multipart) {
+            return (Multipart) existing;
+        }
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.regionMatches(true, 0, "multipart/", 0, "multipart/".length())) {
+            return null;
+        }
+        String boundary = parameters(contentType).get("boundary");
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new MultipartException("Missing or invalid multipart boundary");
+        }
+        long maxUploadSize = Multipart.maxUploadSize;
+        long length = request.getContentLengthLong();
+        if (length > maxUploadSize) {
+            throw new MultipartException(413, "Upload of " + length + " bytes is over the limit of " + maxUploadSize);
+        }
+        Multipart result = new Multipart(request.getInputStream(), boundary, maxPartSize, maxUploadSize);
+        request.setAttribute(ATTRIBUTE, result);
+        return result;
+    }
+
+    /**
+     * Closes the {@link Multipart} for a request, if there is one. This is
+     * called once the request has been handled.
+     *
+     * @param request The request.
+     */
+    public static void release(HttpServletRequest request) {
+        Object multipart = request.getAttribute(ATTRIBUTE);
+        if (multipart instanceof Multipart) {
+            request.removeAttribute(ATTRIBUTE);
+            ((Multipart) multipart).close();
+        }
+    }
+
+    /**
+     * Sets the size limits used by {@link #of(HttpServletRequest)}.
+     *
+     * @param maxPartSize   The largest part, in bytes.
+     * @param maxUploadSize The largest upload, in bytes.
+     */
+    public static void setLimits(long maxPartSize, long maxUploadSize) {
+        Multipart.maxPartSize = maxPartSize;
+        Multipart.maxUploadSize = maxUploadSize;
+    }
+
+    /**
+     * Moves on to the next part, skipping the rest of the current part
+     * unless it's been spooled.
+     *
+     * @return The next part, or null if there are no more.
+     * @throws IOException If the upload is malformed, goes over a limit or
+     *                     can't be read.
+     */
+    public Part next() throws IOException {
+        if (closed) {
+            throw new IOException("Multipart has been closed");
+        }
+        if (current != null && !current.done) {
+            current.skip();
+        }
+        current = null;
+        if (finished) {
+            return null;
+        }
+
+        // Skip to the delimiter (this is only the preamble, before the first part):
+        int length;
+        while ((length = dataLength()) > 0) {
+            pos += length;
+        }
+        pos += delimiter.length;
+        atDelimiter = false;
+
+        // The last delimiter is followed by "--":
+        ensure(2);
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        readLine(MAX_HEADER_SIZE);
+
+        // Headers:
+        Map<String, String> headers = new LinkedHashMap<>();
+        int headerSize = 0;
+        String line;
+        while (!(line = readLine(MAX_HEADER_SIZE - headerSize)).isEmpty()) {
+            headerSize += line.length() + 2;
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        dataEnd = pos;
+
+        current = new Part(headers);
+        parts.add(current);
+        return current;
+    }
+
+    /**
+     * Reads all the remaining parts, spooling each one.
+     *
+     * @return The parts.
+     * @throws IOException If the upload is malformed, goes over a limit or
+     *                     can't be read.
+     */
+    public List<Part> parts() throws IOException {
+        List<Part> result = new ArrayList<>();
+        Part part;
+        while ((part = next()) != null) {
+            result.add(part.spool());
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of bytes read from the request body so far.
+     */
+    public long uploaded() {
+        return uploaded;
+    }
+
+    /**
+     * Deletes temp files and returns memory to the pool. This is done for
+     * you once the request has been handled.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Part part : parts) {
+            part.discard();
+        }
+        pool.release(buffer);
+    }
+
+    /**
+     * @return The number of bytes available at {@link #pos} that belong to
+     * the current part, reading more if necessary, or 0 if the part ends at
+     * {@link #pos}.
+     */
+    private int dataLength() throws IOException {
+        while (true) {
+            if (pos < dataEnd) {
+                return dataEnd - pos;
+            }
+            if (atDelimiter) {
+                return 0;
+            }
+            int found = indexOfDelimiter(pos, end);
+            if (found >= 0) {
+                dataEnd = found;
+                atDelimiter = true;
+            } else {
+                // The last few bytes could be the start of a delimiter:
+                dataEnd = Math.max(pos, end - delimiter.length + 1);
+                if (dataEnd == pos) {
+                    if (eof) {
+                        throw new MultipartException("Unexpected end of multipart body");
+                    }
+                    fill();
+                }
+            }
+        }
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        byte first = delimiter[0];
+        int last = to - delimiter.length;
+        for (int i = from; i <= last; i++) {
+            if (buf[i] == first) {
+                int j = 1;
+                while (j < delimiter.length && buf[i + j] == delimiter[j]) {
+                    j++;
+                }
+                if (j == delimiter.length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a header line, without its line break.
+     */
+    private String readLine(int limit) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = pos + scanned; i < end - 1; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n' && i - pos <= limit) {
+                    String line = new String(buf, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + 2;
+                    return line;
+                }
+            }
+            scanned = Math.max(end - 1 - pos, 0);
+            if (scanned > limit) {
+                throw new MultipartException("Multipart headers are too long");
+            }
+            if (eof) {
+                throw new MultipartException("Unexpected end of multipart body");
+            }
+            fill();
+        }
+    }
+
+    private void ensure(int length) throws IOException {
+        while (end - pos < length) {
+            if (eof) {
+                throw new MultipartException("Unexpected end of multipart body");
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Moves any unread bytes to the start of the buffer and reads more.
+     */
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, end - pos);
+            end -= pos;
+            dataEnd = Math.max(dataEnd - pos, 0);
+            pos = 0;
+        }
+        int read = input.read(buf, end, buf.length - end);
+        if (read < 0) {
+            eof = true;
+        } else {
+            end += read;
+            uploaded += read;
+            if (uploaded > uploadLimit) {
+                throw new MultipartException(413, "Upload is over the limit of " + uploadLimit + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Parses parameters such as <code>name="file"; filename="a.txt"</code>
+     * from a header value.
+     *
+     * @param value A header value.
+     * @return The parameters, with lowercase names.
+     */
+    static Map<String, String> parameters(String value) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int i = value.indexOf(';');
+        int length = value.length();
+        while (i >= 0 && i < length) {
+            i++;
+            int equals = value.indexOf('=', i);
+            if (equals < 0) {
+                break;
+            }
+            String name = value.substring(i, equals).trim().toLowerCase(Locale.ROOT);
+            int start = equals + 1;
+            while (start < length && value.charAt(start) == ' ') {
+                start++;
+            }
+            String parameter;
+            if (start < length && value.charAt(start) == '"') {
+                int close = value.indexOf('"', start + 1);
+                if (close < 0) {
+                    close = length;
+                }
+                parameter = value.substring(start + 1, close);
+                i = value.indexOf(';', close);
+            } else {
+                i = value.indexOf(';', start);
+                parameter = value.substring(start, i < 0 ? length : i).trim();
+            }
+            result.put(name, parameter);
+        }
+        return result;
+    }
+
+    /**
+     * One part of a multipart upload.
+     */
+    public class Part {
+
+        /**
+         * The part headers, with lowercase names.
+         */
+        public final Map<String, String> headers;
+
+        /**
+         * The form field name, from the <code>Content-Disposition</code> header.
+         */
+        public final String name;
+
+        /**
+         * The name of the uploaded file, if this part is a file.
+         */
+        public final String filename;
+
+        /**
+         * The <code>Content-Type</code> of the part, if given.
+         */
+        public final String contentType;
+
+        private long size;
+        private boolean done;
+        private boolean read;
+        private boolean spooled;
+        private ByteBuffer memory;
+        private int memoryLength;
+        private java.nio.file.Path file;
+        private boolean moved;
+
+        Part(Map<String, String> headers) {
+            this.headers = Collections.unmodifiableMap(headers);
+            String disposition = headers.get("content-disposition");
+            Map<String, String> parameters = disposition == null ? Collections.<String, String>emptyMap() : parameters(disposition);
+            name = parameters.get("name");
+            filename = filename(parameters);
+            contentType = headers.get("content-type");
+        }
+
+        private String filename(Map<String, String> parameters) {
+            String extended = parameters.get("filename*");
+            if (extended != null) {
+                // RFC 5987, e.g. UTF-8''na%C3%AFve.txt
+                int quote = extended.indexOf("''");
+                try {
+                    return URLDecoder.decode(extended.substring(quote + 2).replace("+", "%2B"), StandardCharsets.UTF_8.name());
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    log.debug("Unable to decode filename {}", extended);
+                }
+            }
+            return parameters.get("filename");
+        }
+
+        /**
+         * Gets the content of the part. Unless the part has been
+         * {@link #spool() spooled}, this reads straight from the request,
+         * so it can only be read once and only until you move on to the
+         * next part.
+         *
+         * @return A stream of the part content.
+         * @throws IOException If the part has been skipped or its temp file can't be opened.
+         */
+        public InputStream getInputStream() throws IOException {
+            if (spooled) {
+                if (file != null) {
+                    return Files.newInputStream(file);
+                }
+                return new ByteArrayInputStream(memory == null ? new byte[0] : memory.array(), 0, memoryLength);
+            }
+            if (current != this || read) {
+                throw new IOException("Part " + name + " has already been read or skipped. Use spool() to keep a part.");
+            }
+            read = true;
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (done || closed) {
+                        return -1;
+                    }
+                    if (len == 0) {
+                        return 0;
+                    }
+                    int length = Math.min(next(), len);
+                    if (length == 0) {
+                        return -1;
+                    }
+                    System.arraycopy(buf, pos, b, off, length);
+                    pos += length;
+                    return length;
+                }
+            };
+        }
+
+        /**
+         * Reads the rest of the part so that it's kept after you move on to
+         * the next part. Parts up to {@value #MEMORY_THRESHOLD} bytes are kept
+         * in memory, bigger ones in a temp file.
+         *
+         * @return This part.
+         * @throws IOException If the part has already been read or skipped,
+         *                     or it can't be spooled.
+         */
+        public Part spool() throws IOException {
+            if (spooled) {
+                return this;
+            }
+            if (current != this || read) {
+                throw new IOException("Part " + name + " has already been read or skipped.");
+            }
+            read = true;
+            if (memoryUsed + MEMORY_THRESHOLD <= MEMORY_LIMIT) {
+                memory = pool.acquire(MEMORY_THRESHOLD, false);
+                memoryUsed += memory.capacity();
+            }
+            FileChannel channel = null;
+            try {
+                int length;
+                while ((length = next()) > 0) {
+                    if (channel == null && memory != null && memoryLength + length <= memory.capacity()) {
+                        System.arraycopy(buf, pos, memory.array(), memoryLength, length);
+                        memoryLength += length;
+                    } else {
+                        if (channel == null) {
+                            channel = spoolToFile();
+                        }
+                        write(channel, ByteBuffer.wrap(buf, pos, length));
+                    }
+                    pos += length;
+                }
+            } finally {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            spooled = true;
+            return this;
+        }
+
+        private FileChannel spoolToFile() throws IOException {
+            file = Files.createTempFile("restolino-", ".part");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            if (memory != null) {
+                write(channel, ByteBuffer.wrap(memory.array(), 0, memoryLength));
+                releaseMemory();
+            }
+            return channel;
+        }
+
+        private void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        /**
+         * @return The content of the part as a String (e.g. a form field),
+         * spooling it if necessary. This is decoded as UTF-8.
+         * @throws IOException If the part can't be spooled.
+         */
+        public String getString() throws IOException {
+            spool();
+            if (file != null) {
+                return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            }
+            return memory == null ? "" : new String(memory.array(), 0, memoryLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Saves the part to the given file, spooling it if necessary. A
+         * part that was spooled to a temp file is moved rather than copied.
+         *
+         * @param target Where to save the part.
+         * @throws IOException If the part can't be saved.
+         */
+        public void moveTo(java.nio.file.Path target) throws IOException {
+            spool();
+            if (file != null) {
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (InputStream content = getInputStream()) {
+                    Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                releaseMemory();
+            }
+            file = target;
+            moved = true;
+        }
+
+        /**
+         * @return The size of the part. This is only the full size once the
+         * part has been read to the end or spooled.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return If the part has been spooled to a temp file, the file. Otherwise null.
+         */
+        public java.nio.file.Path getFile() {
+            return moved ? null : file;
+        }
+
+        /**
+         * @return How many bytes of the part are available at
+         * {@link Multipart#pos}, or 0 at the end of the part.
+         */
+        private int next() throws IOException {
+            int length = dataLength();
+            if (length == 0) {
+                done = true;
+            } else {
+                size += length;
+                if (size > partLimit) {
+                    throw new MultipartException(413, "Part " + name + " is over the limit of " + partLimit + " bytes");
+                }
+            }
+            return length;
+        }
+
+        private void skip() throws IOException {
+            int length;
+            while ((length = next()) > 0) {
+                pos += length;
+            }
+        }
+
+        private void releaseMemory() {
+            if (memory != null) {
+                memoryUsed -= memory.capacity();
+                pool.release(memory);
+                memory = null;
+                memoryLength = 0;
+            }
+        }
+
+        void discard() {
+            releaseMemory();
+            if (file != null && !moved) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Unable to delete temp file {}: {}", file, e.toString());
+                }
+            }
+            file = null;
+        }
+    }
+}
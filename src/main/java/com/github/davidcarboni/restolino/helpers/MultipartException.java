@@ -0,0 +1,28 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Thrown by {@link Multipart} when an upload is malformed (400) or goes over
+ * one of the size limits (413). If you let it propagate out of your handler
+ * method, the response is sent with {@link #status} and the message.
+ */
+public class MultipartException extends IOException {
+
+    private static final long serialVersionUID = -7055725356559038397L;
+
+    /**
+     * The response status this exception maps to.
+     */
+    public final int status;
+
+    MultipartException(String message) {
+        this(HttpServletResponse.SC_BAD_REQUEST, message);
+    }
+
+    MultipartException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
@@ -60,6 +60,16 @@ public class Parameter {
      * @return If the parameter is not null and contains only 0-9, true.
      */
     public static boolean isDigits(String value) {
-        return StringUtils.isNotBlank(value) && value.matches("\\d+");
+        // Equivalent to value.matches("\\d+"), without compiling a regex on every call:
+        if (StringUtils.isEmpty(value)) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 }
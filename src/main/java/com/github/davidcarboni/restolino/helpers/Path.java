@@ -1,10 +1,6 @@
 package com.github.davidcarboni.restolino.helpers;
 
-import org.apache.commons.lang3.StringUtils;
-
 import javax.servlet.http.HttpServletRequest;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -15,16 +11,22 @@ import java.util.List;
  */
 public class Path {
 
+    /**
+     * @param request The request.
+     * @return The path of the request, as parsed by its {@link RequestContext}.
+     */
     public static Path newInstance(HttpServletRequest request) {
-        return new Path(request);
+        return RequestContext.of(request).pathHelper();
     }
 
-    private List<String> segments = new ArrayList<String>();
+    private final List<String> segments;
 
     Path(HttpServletRequest request) {
-        String path = request.getPathInfo();
-        String[] segments = StringUtils.split(path, '/');
-        this.segments = Arrays.asList(segments);
+        this(RequestContext.of(request).segments());
+    }
+
+    Path(List<String> segments) {
+        this.segments = segments;
     }
 
     /**
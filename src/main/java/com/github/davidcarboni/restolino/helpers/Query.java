@@ -0,0 +1,205 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of a raw (still encoded) URL query string.
+ * <p>
+ * Creating a view makes one pass over the query to note where each parameter
+ * starts and ends. Nothing is decoded at that point: names and values are
+ * only decoded when they're asked for, and only if they contain escapes, so
+ * reading one parameter from a long query string doesn't cost the price of
+ * parsing all of them.
+ * <p>
+ * Unlike {@link QueryString}, repeated parameters are all kept, in the order
+ * they appear. A parameter without an <code>=</code> has an empty value.
+ */
+public class Query {
+
+    private final String raw;
+
+    /**
+     * For each parameter: the start of the name, the end of the name (the
+     * position of the <code>=</code>, if there is one) and the end of the value.
+     */
+    private final int[] offsets;
+    private final int size;
+
+    /**
+     * Decoded names, filled in as they're needed.
+     */
+    private String[] names;
+
+    /**
+     * @param rawQuery The raw query string, e.g. from {@link java.net.URI#getRawQuery()}
+     *                 or {@link javax.servlet.http.HttpServletRequest#getQueryString()}.
+     *                 May be null.
+     */
+    public Query(String rawQuery) {
+        raw = rawQuery == null ? "" : rawQuery;
+
+        int[] offsets = new int[12];
+        int size = 0;
+        int length = raw.length();
+        int start = 0;
+        while (start < length) {
+            int end = raw.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                int equals = raw.indexOf('=', start);
+                if (equals < 0 || equals > end) {
+                    equals = end;
+                }
+                if (size * 3 == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[size * 3] = start;
+                offsets[size * 3 + 1] = equals;
+                offsets[size * 3 + 2] = end;
+                size++;
+            }
+            start = end + 1;
+        }
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * @return The raw query string this is a view of.
+     */
+    public String raw() {
+        return raw;
+    }
+
+    /**
+     * @return The number of parameters, counting repeated names separately.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The parameter index.
+     * @return The decoded name of the parameter.
+     */
+    public String name(int index) {
+        if (names == null) {
+            names = new String[size];
+        }
+        String name = names[index];
+        if (name == null) {
+            name = names[index] = decode(offsets[index * 3], offsets[index * 3 + 1]);
+        }
+        return name;
+    }
+
+    /**
+     * @param index The parameter index.
+     * @return The decoded value of the parameter.
+     */
+    public String value(int index) {
+        int equals = offsets[index * 3 + 1];
+        int end = offsets[index * 3 + 2];
+        return decode(Math.min(equals + 1, end), end);
+    }
+
+    /**
+     * Checks the name of a parameter without decoding it, unless it contains escapes.
+     *
+     * @param index The parameter index.
+     * @param name  The decoded name to check for.
+     * @return If the parameter has the given name, true.
+     */
+    public boolean isName(int index, String name) {
+        if (names != null && names[index] != null) {
+            return names[index].equals(name);
+        }
+        int start = offsets[index * 3];
+        int end = offsets[index * 3 + 1];
+        if (escaped(start, end)) {
+            return name(index).equals(name);
+        }
+        return end - start == name.length() && raw.startsWith(name, start);
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return The index of the first parameter with the name, or -1.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (isName(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return If there's at least one parameter with the name, true.
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return The value of the first parameter with the name, or null.
+     */
+    public String get(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : value(index);
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return The values of every parameter with the name, in order. Empty if there are none.
+     */
+    public List<String> getAll(String name) {
+        List<String> result = null;
+        for (int i = 0; i < size; i++) {
+            if (isName(i, name)) {
+                if (result == null) {
+                    result = new ArrayList<>(2);
+                }
+                result.add(value(i));
+            }
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    @Override
+    public String toString() {
+        return raw;
+    }
+
+    private boolean escaped(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c == '%' || c == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String decode(int start, int end) {
+        if (!escaped(start, end)) {
+            return raw.substring(start, end);
+        }
+        try {
+            return URLDecoder.decode(raw.substring(start, end), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("URL does not appear to be UTF8 encoded", e);
+        }
+    }
+}
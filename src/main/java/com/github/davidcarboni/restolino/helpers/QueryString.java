@@ -4,20 +4,31 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * This class enables you to work with a URL query string.
  * <p>
  * Whilst technically a query string can contain multiple values for a single
  * parameter name, in practice this rarely happens so, for expedience, this
- * class is a Map.
+ * class is a Map. If a name is repeated, the last value is the one in the map,
+ * but you can get all of them with {@link #getAll(String)}.
+ * <p>
+ * When created from a {@link URI}, this is an adapter over a {@link Query}
+ * view: {@link #get(Object)} and {@link #containsKey(Object)} only decode
+ * what they need to. Anything else (including iterating or changing the map)
+ * fills in the map from the query string first.
  *
  * @author david
  */
@@ -28,39 +39,242 @@ public class QueryString extends HashMap<String, String> {
      */
     private static final long serialVersionUID = -3070809403310976231L;
 
+    /**
+     * The query string, until the map is filled in from it.
+     */
+    private transient Query query;
+
     public QueryString() {
         // Default constructor.
     }
 
     public QueryString(URI uri) {
-        String rawQuery = uri.getRawQuery();
-        String[] parameters = StringUtils.split(rawQuery, "&");
-        if (parameters != null) {
-            for (String parameter : parameters) {
-                String[] pair = StringUtils.split(parameter, "=");
-                if (pair != null && pair.length == 2) {
-                    String key = pair[0];
-                    String value = pair[1];
-                    if (StringUtils.isNotBlank(key) && StringUtils.isNotBlank(value)) {
-
-                        String decodedKey;
-                        String decodedValue;
-                        try {
-                            decodedKey = URLDecoder.decode(key, StandardCharsets.UTF_8.name());
-                            decodedValue = URLDecoder.decode(value, StandardCharsets.UTF_8.name());
-                        } catch (UnsupportedEncodingException e) {
-                            throw new IllegalArgumentException("URL does not appear to be UTF8 encoded", e);
-                        }
-
-                        // These are Jetty classes, but they *appear* to need Java 8?
-                        //String decodedKey = UrlEncoded.decodeString(key, 0, key.length(), Charset.forName("UTF8"));
-                        //String decodedValue = UrlEncoded.decodeString(value, 0, value.length(), Charset.forName("UTF8"));
-
-                        put(decodedKey, decodedValue);
+        this(new Query(uri.getRawQuery()));
+    }
+
+    /**
+     * @param query A query string view, e.g. of {@link javax.servlet.http.HttpServletRequest#getQueryString()}.
+     */
+    public QueryString(Query query) {
+        this.query = query.size() > 0 ? query : null;
+    }
+
+    /**
+     * @param name The parameter name.
+     * @return Every value given for the name, in the order they appear in
+     * the query string. Once the map has been filled in (see above) or
+     * changed, this is at most the single value in the map.
+     */
+    public List<String> getAll(String name) {
+        Query query = this.query;
+        if (query == null) {
+            String value = super.get(name);
+            return value == null ? Collections.<String>emptyList() : Collections.singletonList(value);
+        }
+        List<String> result = new ArrayList<>();
+        if (StringUtils.isNotBlank(name)) {
+            for (int i = 0; i < query.size(); i++) {
+                if (query.isName(i, name)) {
+                    String value = query.value(i);
+                    if (StringUtils.isNotBlank(value)) {
+                        result.add(value);
                     }
                 }
             }
         }
+        return result;
+    }
+
+    @Override
+    public String get(Object key) {
+        Query query = this.query;
+        if (query == null) {
+            return super.get(key);
+        }
+        if (key instanceof String && StringUtils.isNotBlank((String) key)) {
+            // The last value wins, as it would in the map:
+            for (int i = query.size() - 1; i >= 0; i--) {
+                if (query.isName(i, (String) key)) {
+                    String value = query.value(i);
+                    if (StringUtils.isNotBlank(value)) {
+                        return value;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return query == null ? super.containsKey(key) : get(key) != null;
+    }
+
+    @Override
+    public String getOrDefault(Object key, String defaultValue) {
+        String value = get(key);
+        return value != null || containsKey(key) ? value : defaultValue;
+    }
+
+    /**
+     * Fills in the map from the query string, if that hasn't been done yet.
+     * Blank names and values are skipped.
+     */
+    private void materialise() {
+        Query query = this.query;
+        if (query != null) {
+            this.query = null;
+            for (int i = 0; i < query.size(); i++) {
+                String key = query.name(i);
+                String value = query.value(i);
+                if (StringUtils.isNotBlank(key) && StringUtils.isNotBlank(value)) {
+                    super.put(key, value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        materialise();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        materialise();
+        return super.isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        materialise();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        materialise();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        materialise();
+        super.putAll(m);
+    }
+
+    @Override
+    public String remove(Object key) {
+        materialise();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        query = null;
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        materialise();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<String> values() {
+        materialise();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        materialise();
+        return super.entrySet();
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        materialise();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        materialise();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, String oldValue, String newValue) {
+        materialise();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public String replace(String key, String value) {
+        materialise();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction) {
+        materialise();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public String computeIfPresent(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        materialise();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        materialise();
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public String merge(String key, String value, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        materialise();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        materialise();
+        super.forEach(action);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super String, ? extends String> function) {
+        materialise();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Object clone() {
+        materialise();
+        return super.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        materialise();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        materialise();
+        return super.hashCode();
+    }
+
+    private Object writeReplace() {
+        materialise();
+        return this;
     }
 
     /**
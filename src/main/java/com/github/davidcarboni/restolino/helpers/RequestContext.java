@@ -0,0 +1,184 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * What the framework knows about a request: whether it's for the root
+ * resource, a static file or the API, its path segments, query string and
+ * (once it's been routed) the route it matched.
+ * <p>
+ * A context is created the first time {@link #of(HttpServletRequest)} is
+ * called for a request and kept as a request attribute, so the filters, the
+ * router and your handler all share the same one. Each part is worked out
+ * the first time it's asked for, so nothing is parsed that isn't used. You
+ * can also add a <code>RequestContext</code> parameter to a handler method.
+ * <p>
+ * Like the request itself, a context isn't safe to use from more than one
+ * thread at a time.
+ */
+public final class RequestContext {
+
+    /**
+     * The name of the request attribute the context is kept in.
+     */
+    public static final String ATTRIBUTE = RequestContext.class.getName();
+
+    private final HttpServletRequest request;
+    private final String path;
+
+    private Boolean api;
+    private List<String> segments;
+    private Path pathHelper;
+    private Query query;
+    private QueryString queryString;
+    private Map<Class<?>, Object> values;
+
+    private RequestContext(HttpServletRequest request) {
+        this.request = request;
+        String path = request.getPathInfo();
+        this.path = StringUtils.isEmpty(path) ? "/" : path;
+    }
+
+    /**
+     * @param request The request.
+     * @return The context for the request, created if this is the first time
+     * it's been asked for.
+     */
+    public static RequestContext of(HttpServletRequest request) {
+        Object attribute = request.getAttribute(ATTRIBUTE);
+        if (attribute instanceof RequestContext) {
+            return (RequestContext) attribute;
+        }
+        RequestContext result = new RequestContext(request);
+        request.setAttribute(ATTRIBUTE, result);
+        return result;
+    }
+
+    /**
+     * @return The request.
+     */
+    public HttpServletRequest request() {
+        return request;
+    }
+
+    /**
+     * @return The request path, i.e. {@link HttpServletRequest#getPathInfo()},
+     * or "/" if that's null or empty.
+     */
+    public String path() {
+        return path;
+    }
+
+    /**
+     * @return If this is a request for the root resource (ie /).
+     */
+    public boolean isRoot() {
+        return path.length() == 1 && path.charAt(0) == '/';
+    }
+
+    /**
+     * @return If this is an API request, rather than a request for a static
+     * file. API paths don't have a file extension.
+     */
+    public boolean isApi() {
+        if (api == null) {
+            api = StringUtils.isBlank(FilenameUtils.getExtension(path));
+        }
+        return api;
+    }
+
+    /**
+     * @return The path segments, e.g. <code>[users, 42]</code> for
+     * <code>/users/42</code>.
+     */
+    public List<String> segments() {
+        if (segments == null) {
+            segments = Collections.unmodifiableList(Arrays.asList(StringUtils.split(path, '/')));
+        }
+        return segments;
+    }
+
+    /**
+     * @return The first path segment, or null for the root resource.
+     */
+    public String firstSegment() {
+        List<String> segments = segments();
+        return segments.isEmpty() ? null : segments.get(0);
+    }
+
+    /**
+     * @return The last path segment, or null for the root resource.
+     */
+    public String lastSegment() {
+        List<String> segments = segments();
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * @return A {@link Path} helper for the request.
+     */
+    public Path pathHelper() {
+        if (pathHelper == null) {
+            pathHelper = new Path(segments());
+        }
+        return pathHelper;
+    }
+
+    /**
+     * @return A view of the query string. This is never null.
+     */
+    public Query query() {
+        if (query == null) {
+            query = new Query(request.getQueryString());
+        }
+        return query;
+    }
+
+    /**
+     * @return The query string as a map. This is shared by everything that
+     * handles the request, so make a copy if you need to change it.
+     */
+    public QueryString queryString() {
+        if (queryString == null) {
+            queryString = new QueryString(query());
+        }
+        return queryString;
+    }
+
+    /**
+     * Gets a value derived from the request, working it out the first time
+     * it's asked for. The framework uses this to keep the route match; you
+     * can use it for things like the authenticated user, so that a filter
+     * and a handler don't each have to look it up.
+     *
+     * @param type    The type of the value, which is also its key.
+     * @param compute Works out the value. Null results are kept too.
+     * @param <T>     The type of the value.
+     * @return The value.
+     */
+    public <T> T computeIfAbsent(Class<T> type, Function<RequestContext, ? extends T> compute) {
+        if (values == null) {
+            values = new HashMap<>(4);
+        }
+        if (values.containsKey(type)) {
+            return type.cast(values.get(type));
+        }
+        T result = compute.apply(this);
+        values.put(type, result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return request.getMethod() + " " + path;
+    }
+}
@@ -29,7 +29,12 @@ public class ApiHandler extends AbstractHandler {
     }
 
     public static void setupApi(Reflections reflections) {
+        Router previous = api;
         api = new Router(reflections);
+        if (previous != null) {
+            // Free the old responses now, rather than once the last request on the old router is done:
+            previous.cache.clear();
+        }
     }
 
     @Override
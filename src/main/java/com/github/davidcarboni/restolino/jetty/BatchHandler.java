@@ -0,0 +1,394 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.github.davidcarboni.restolino.json.Serialiser;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.MimeTypes;
+import org.slf4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Handles <code>POST /_batch</code>, which makes several API calls in one
+ * round trip. The request is a Json array of calls:
+ * <pre>
+ * [
+ *   {"path": "/users/123"},
+ *   {"path": "/orders?user=123&amp;status=open"},
+ *   {"method": "POST", "path": "/basket", "body": {"item": 42}}
+ * ]
+ * </pre>
+ * Each call is dispatched in-process, through the {@link
+ * com.github.davidcarboni.restolino.framework.Filter Filter}s and the API
+ * route table, with the headers of the batch request (e.g. for
+ * authentication) plus any <code>headers</code> given for the call.
+ * <p>
+ * <code>GET</code> calls run in parallel. A call with any other method runs
+ * once all the calls before it have finished, and the calls after it wait
+ * for it, so that a batch can write something and then read it back.
+ * <p>
+ * The response is a Json array with an element for each call, sent as each
+ * call finishes, so they may not be in the order they were requested:
+ * <pre>
+ * [
+ *   {"index": 1, "status": 200, "body": [...]},
+ *   {"index": 0, "status": 200, "body": {...}},
+ *   {"index": 2, "status": 201, "body": null}
+ * ]
+ * </pre>
+ * A Json response body is included as-is. Any other body is included as a
+ * string, and an empty body as null.
+ * <p>
+ * A batch has {@link #DEFAULT_TIMEOUT} to finish (see
+ * {@link #setTimeout(long)}). Any calls that haven't finished by then get a
+ * <code>504</code> result and calls that haven't started aren't made.
+ */
+public class BatchHandler {
+
+    private static final Logger log = getLogger(BatchHandler.class);
+
+    public static final String PATH = "/_batch";
+
+    /**
+     * The default number of calls that can run at once, across all batches.
+     */
+    public static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The default maximum number of calls in a batch.
+     */
+    public static final int DEFAULT_MAX_CALLS = 50;
+
+    /**
+     * The default time a batch has to finish, in milliseconds: 30 seconds,
+     * the same as an asynchronous request gets by default.
+     */
+    public static final long DEFAULT_TIMEOUT = 30_000;
+
+    /**
+     * The number of calls that can be queued for a thread before calls run
+     * on the thread that submits them.
+     */
+    static final int QUEUE_SIZE = 1024;
+
+    private static volatile int threads = DEFAULT_THREADS;
+    private static volatile int maxCalls = DEFAULT_MAX_CALLS;
+    private static volatile long timeout = DEFAULT_TIMEOUT;
+
+    private final ApiHandler apiHandler;
+    private final BiPredicate<HttpServletRequest, HttpServletResponse> filter;
+    private final ExecutorService executor;
+
+    /**
+     * @param apiHandler Handles the calls.
+     * @param filter     Filters each call.
+     */
+    BatchHandler(ApiHandler apiHandler, BiPredicate<HttpServletRequest, HttpServletResponse> filter) {
+        this.apiHandler = apiHandler;
+        this.filter = filter;
+        this.executor = newExecutor(threads);
+    }
+
+    /**
+     * Sets the limits for batches. The number of threads applies to
+     * handlers created after it's set.
+     *
+     * @param threads  The number of calls that can run at once, across all batches.
+     * @param maxCalls The maximum number of calls in a batch.
+     */
+    public static void setLimits(int threads, int maxCalls) {
+        BatchHandler.threads = Math.max(threads, 1);
+        BatchHandler.maxCalls = maxCalls;
+    }
+
+    /**
+     * Sets the time a batch has to finish.
+     *
+     * @param timeout The timeout in milliseconds.
+     */
+    public static void setTimeout(long timeout) {
+        BatchHandler.timeout = timeout;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "batch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // If the queue is full, slow down whoever's adding calls:
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs the calls in a batch and sends their responses.
+     *
+     * @param request  The batch request.
+     * @param response The batch response.
+     * @throws IOException If an error occurs in sending the response.
+     */
+    public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        if (!StringUtils.equals("POST", request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        List<Call> calls;
+        try {
+            calls = read(request);
+        } catch (JsonParseException | IOException | IllegalStateException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            Serialiser.serialise(response, "Unable to read batch: " + e.getMessage());
+            return;
+        }
+        if (calls == null) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            Serialiser.serialise(response, "A batch can contain at most " + maxCalls + " calls");
+            return;
+        }
+
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        AtomicBoolean expired = new AtomicBoolean();
+        // Calls may still be running after the response is sent, so they mustn't use the request:
+        submit(calls, BatchSnapshot.of(request), results, expired);
+        write(calls.size(), results, response, expired);
+    }
+
+    /**
+     * @return The calls, or null if there are too many.
+     */
+    private static List<Call> read(HttpServletRequest request) throws IOException {
+        List<Call> calls = new ArrayList<>();
+        int maxCalls = BatchHandler.maxCalls;
+        JsonReader reader = new JsonReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (calls.size() == maxCalls) {
+                return null;
+            }
+            Call call = Serialiser.getGson().fromJson(reader, Call.class);
+            calls.add(call == null ? new Call() : call);
+        }
+        reader.endArray();
+        return calls;
+    }
+
+    /**
+     * Queues the calls, making each call that isn't a <code>GET</code> wait
+     * for the calls before it, and the calls after it wait for it. Calls
+     * that are due to start after the batch has expired are skipped.
+     */
+    private void submit(List<Call> calls, BatchSnapshot batch, BlockingQueue<Result> results, AtomicBoolean expired) {
+        CompletableFuture<Void> barrier = CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Void>> running = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            int index = i;
+            Call call = calls.get(i);
+            Runnable task = () -> {
+                if (!expired.get()) {
+                    results.add(execute(index, call, batch));
+                }
+            };
+            if (call.isGet()) {
+                running.add(barrier.thenRunAsync(task, executor));
+            } else {
+                running.add(barrier);
+                barrier = CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).thenRunAsync(task, executor);
+                running.clear();
+            }
+        }
+    }
+
+    /**
+     * Runs one call. This never throws, so that every call has a result.
+     */
+    Result execute(int index, Call call, BatchSnapshot batch) {
+        if (call.path == null || !call.path.startsWith("/")) {
+            return new Result(index, HttpServletResponse.SC_BAD_REQUEST, null,
+                    ("Call " + index + " needs a path that starts with /").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] body = call.body == null || call.body.isJsonNull() ? null : call.body.toString().getBytes(StandardCharsets.UTF_8);
+        BatchResponse callResponse = new BatchResponse();
+        try {
+            BatchRequest callRequest = new BatchRequest(batch, call.method(), call.path, call.headers, body);
+            if (filter.test(callRequest, callResponse)) {
+                apiHandler.handle(callRequest.getPathInfo(), null, callRequest, callResponse);
+            }
+        } catch (Throwable t) {
+            log.error("Error in batched call to {} {}", call.method(), call.path, t);
+            callResponse.reset();
+            callResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        return new Result(index, callResponse.getStatus(), callResponse.getContentType(), callResponse.getBody());
+    }
+
+    /**
+     * Sends each result as it arrives, until the batch times out. Calls that
+     * haven't finished by then get a <code>504</code> result. They may go on
+     * running, but only with a {@link BatchSnapshot} of the batch request.
+     */
+    private static void write(int count, BlockingQueue<Result> results, HttpServletResponse response, AtomicBoolean expired) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MimeTypes.Type.APPLICATION_JSON_UTF_8.asString());
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        IOException error = null;
+        try {
+            writer.beginArray();
+        } catch (IOException e) {
+            error = e;
+        }
+        long timeout = BatchHandler.timeout;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean[] finished = new boolean[count];
+        boolean interrupted = false;
+        for (int received = 0; received < count; ) {
+            Result result;
+            try {
+                result = results.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                continue;
+            }
+            if (result == null) {
+                break;
+            }
+            finished[result.index] = true;
+            received++;
+            error = write(result, writer, error);
+        }
+        expired.set(true);
+        for (int i = 0; i < count; i++) {
+            if (!finished[i]) {
+                log.info("Batched call {} didn't finish within {}ms", i, timeout);
+                error = write(new Result(i, HttpServletResponse.SC_GATEWAY_TIMEOUT, null,
+                        ("Call " + i + " didn't finish within " + timeout + "ms").getBytes(StandardCharsets.UTF_8)), writer, error);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Writes a result, unless there's already been an error in writing.
+     *
+     * @return The error, if there has been one.
+     */
+    private static IOException write(Result result, JsonWriter writer, IOException error) {
+        if (error == null) {
+            try {
+                write(result, writer);
+            } catch (IOException e) {
+                return e;
+            }
+        }
+        return error;
+    }
+
+    private static void write(Result result, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("index").value(result.index);
+        writer.name("status").value(result.status);
+        writer.name("body");
+        if (result.body.length == 0) {
+            writer.nullValue();
+        } else if (isJson(result.contentType) && isJson(result.body)) {
+            writer.jsonValue(new String(result.body, StandardCharsets.UTF_8));
+        } else {
+            writer.value(new String(result.body, StandardCharsets.UTF_8));
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    static boolean isJson(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int end = contentType.indexOf(';');
+        String type = (end < 0 ? contentType : contentType.substring(0, end)).trim().toLowerCase();
+        return type.equals("application/json") || type.endsWith("+json");
+    }
+
+    /**
+     * Checks that a body is a single, complete Json value, so that it can
+     * be included as-is (e.g. not a response that failed part way through).
+     */
+    static boolean isJson(byte[] body) {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+            reader.skipValue();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A call in a batch.
+     */
+    public static class Call {
+
+        public String method;
+        public String path;
+        public Map<String, String> headers;
+        public JsonElement body;
+
+        String method() {
+            return method == null ? "GET" : method.toUpperCase();
+        }
+
+        boolean isGet() {
+            return method().equals("GET");
+        }
+    }
+
+    /**
+     * The response to a call.
+     */
+    static class Result {
+
+        final int index;
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Result(int index, int status, String contentType, byte[] body) {
+            this.index = index;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
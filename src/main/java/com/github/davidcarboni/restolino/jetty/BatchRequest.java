@@ -0,0 +1,454 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import org.eclipse.jetty.http.DateParser;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.UrlEncoded;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One request from a batch. This takes its method, path, query string and
+ * body from the batch, and its headers from the batch request (e.g. for
+ * authentication) plus any headers given for it in the batch. Headers that
+ * describe the batch request's own body or encoding aren't passed on.
+ * <p>
+ * Everything else (e.g. the remote address) comes from a
+ * {@link BatchSnapshot} of the batch request, never from the request
+ * itself, which may have been recycled by the time a call runs. Anything
+ * that isn't in the snapshot (e.g. a request dispatcher) isn't available.
+ * Attributes are kept separately, so that requests don't see each other's.
+ */
+class BatchRequest extends HttpServletRequestWrapper {
+
+    private static final HttpServletRequest DETACHED = BatchSnapshot.detached(HttpServletRequest.class);
+
+    private final BatchSnapshot batch;
+    private final String method;
+    private final String path;
+    private final String query;
+    private final byte[] body;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Object> attributes = new HashMap<>();
+    private MultiMap<String> parameters;
+
+    /**
+     * @param batch   A snapshot of the batch request.
+     * @param method  The method of this request.
+     * @param path    The path of this request, optionally with a query string.
+     * @param headers Any headers for this request, or null.
+     * @param body    The body of this request (Json), or null.
+     */
+    BatchRequest(BatchSnapshot batch, String method, String path, Map<String, String> headers, byte[] body) {
+        super(DETACHED);
+        this.batch = batch;
+        this.method = method;
+        int question = path.indexOf('?');
+        this.path = question < 0 ? path : path.substring(0, question);
+        this.query = question < 0 ? null : path.substring(question + 1);
+        this.body = body == null ? new byte[0] : body;
+
+        this.headers.putAll(batch.headers);
+        if (body != null) {
+            this.headers.put(HttpHeader.CONTENT_TYPE.asString(),
+                    Collections.singletonList(MimeTypes.Type.APPLICATION_JSON_UTF_8.asString()));
+            this.headers.put(HttpHeader.CONTENT_LENGTH.asString(), Collections.singletonList(String.valueOf(body.length)));
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                this.headers.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return path;
+    }
+
+    @Override
+    public String getServletPath() {
+        return "";
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return null;
+    }
+
+    @Override
+    public String getContextPath() {
+        return batch.contextPath;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return path;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        StringBuffer url = new StringBuffer();
+        url.append(getScheme()).append("://").append(getServerName()).append(':').append(getServerPort()).append(path);
+        return url;
+    }
+
+    @Override
+    public String getQueryString() {
+        return query;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        long date = DateParser.parseDate(value);
+        if (date == -1) {
+            throw new IllegalArgumentException("Cannot convert date: " + value);
+        }
+        return date;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return batch.cookies();
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader(HttpHeader.CONTENT_TYPE.asString());
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return body.length == 0 ? null : StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) {
+        // The body is always UTF-8 Json
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        final ByteArrayInputStream input = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new IllegalStateException("Batched requests are read synchronously");
+            }
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return input.read(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String getParameter(String name) {
+        List<String> values = parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        Map<String, String[]> result = new HashMap<>();
+        for (Map.Entry<String, List<String>> parameter : parameters().entrySet()) {
+            result.put(parameter.getKey(), parameter.getValue().toArray(new String[0]));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters().keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        List<String> values = parameters().get(name);
+        return values == null ? null : values.toArray(new String[0]);
+    }
+
+    private MultiMap<String> parameters() {
+        if (parameters == null) {
+            parameters = new MultiMap<>();
+            if (query != null) {
+                UrlEncoded.decodeUtf8To(query, parameters);
+            }
+        }
+        return parameters;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        if (o == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getScheme() {
+        return batch.scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return batch.serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return batch.serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return batch.secure;
+    }
+
+    @Override
+    public String getProtocol() {
+        return batch.protocol;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return batch.remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return batch.remoteHost;
+    }
+
+    @Override
+    public int getRemotePort() {
+        return batch.remotePort;
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return batch.localAddr;
+    }
+
+    @Override
+    public String getLocalName() {
+        return batch.localName;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return batch.localPort;
+    }
+
+    @Override
+    public Locale getLocale() {
+        return batch.locales.isEmpty() ? Locale.getDefault() : batch.locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(batch.locales);
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return batch.servletContext;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public String getAuthType() {
+        return batch.authType;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return batch.remoteUser;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return batch.userPrincipal;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return batch.isUserInRole(role);
+    }
+
+    /**
+     * @return The batch request's session. A batched call can't create one,
+     * because the batch response may already have been sent.
+     */
+    @Override
+    public HttpSession getSession(boolean create) {
+        if (batch.session == null && create) {
+            throw new IllegalStateException("A batched call can't create a session");
+        }
+        return batch.session;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return batch.requestedSessionId;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return batch.requestedSessionIdValid;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return batch.requestedSessionIdFromCookie;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return batch.requestedSessionIdFromURL;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isRequestedSessionIdFromUrl() {
+        return batch.requestedSessionIdFromURL;
+    }
+
+    /**
+     * Batched requests are already off the container thread, so handlers
+     * that return a {@link java.util.concurrent.CompletionStage} are waited
+     * for rather than put into asynchronous mode.
+     */
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        throw new IllegalStateException("Batched requests don't support asynchronous mode");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        throw new IllegalStateException("Batched requests don't support asynchronous mode");
+    }
+}
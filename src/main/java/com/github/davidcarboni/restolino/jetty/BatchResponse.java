@@ -0,0 +1,322 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import org.eclipse.jetty.http.DateGenerator;
+import org.eclipse.jetty.http.HttpHeader;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the response to one request from a batch in memory, so that it
+ * can be added to the batch response. Nothing is passed through to the
+ * batch response.
+ */
+class BatchResponse extends HttpServletResponseWrapper {
+
+    /**
+     * The largest response body that can be collected: 1MB.
+     */
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final HttpServletResponse DETACHED = BatchSnapshot.detached(HttpServletResponse.class);
+
+    private int status = SC_OK;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Body body = new Body();
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+    private Locale locale = Locale.getDefault();
+
+    /**
+     * Nothing is delegated to the batch response, which may have been sent
+     * (and recycled) before a call finishes.
+     */
+    BatchResponse() {
+        super(DETACHED);
+    }
+
+    /**
+     * @return The response body.
+     */
+    byte[] getBody() {
+        if (writer != null) {
+            writer.flush();
+        }
+        return body.toByteArray();
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        sendError(sc, null);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        resetBuffer();
+        status = sc;
+        if (msg != null) {
+            byte[] message = msg.getBytes(StandardCharsets.UTF_8);
+            body.write(message, 0, Math.min(message.length, MAX_BODY_SIZE));
+        }
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        status = SC_FOUND;
+        setHeader(HttpHeader.LOCATION.asString(), location);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (value == null) {
+            headers.remove(name);
+        } else {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        setHeader(name, DateGenerator.formatDate(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        addHeader(name, DateGenerator.formatDate(date));
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return values == null ? Collections.<String>emptyList() : new ArrayList<>(values);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(headers.keySet());
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        // Only the status and body of a batched response are sent
+    }
+
+    @Override
+    public void setContentType(String type) {
+        setHeader(HttpHeader.CONTENT_TYPE.asString(), type);
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader(HttpHeader.CONTENT_TYPE.asString());
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        // The body is always sent as UTF-8
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // Not needed
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        // Not needed
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (outputStream == null) {
+            outputStream = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    throw new IllegalStateException("Batched responses are written synchronously");
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    body.check(1);
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    body.check(len);
+                    body.write(b, off, len);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (outputStream != null && writer == null) {
+            throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        if (writer == null) {
+            outputStream = getOutputStream();
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return MAX_BODY_SIZE;
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        // The whole body is buffered
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+    @Override
+    public void setLocale(Locale locale) {
+        this.locale = locale;
+    }
+
+    /**
+     * Session IDs aren't added to URLs: the batch request decides how its
+     * session is tracked.
+     */
+    @Override
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        body.reset();
+    }
+
+    /**
+     * A bounded buffer for the response body.
+     */
+    private static class Body extends ByteArrayOutputStream {
+
+        void check(int length) throws IOException {
+            if (count + length > MAX_BODY_SIZE) {
+                throw new IOException("Response is too large for a batch (limit " + MAX_BODY_SIZE + " bytes)");
+            }
+        }
+    }
+}
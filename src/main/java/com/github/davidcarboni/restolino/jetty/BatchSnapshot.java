@@ -0,0 +1,170 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the calls in a batch need from the batch request, copied on the
+ * container thread before any call runs. Once the batch response has been
+ * sent, the container recycles the batch request for another exchange, so
+ * calls that are still running mustn't read from it: each
+ * {@link BatchRequest} reads from this instead.
+ * <p>
+ * Headers that describe the batch request's own body or encoding aren't
+ * copied.
+ */
+final class BatchSnapshot {
+
+    private static final String[] NOT_INHERITED = {
+            "Content-", "If-", HttpHeader.ACCEPT_ENCODING.asString(),
+            HttpHeader.TRANSFER_ENCODING.asString(), HttpHeader.EXPECT.asString()};
+
+    final Map<String, List<String>> headers;
+    final String scheme;
+    final String serverName;
+    final int serverPort;
+    final boolean secure;
+    final String protocol;
+    final String remoteAddr;
+    final String remoteHost;
+    final int remotePort;
+    final String localAddr;
+    final String localName;
+    final int localPort;
+    final String contextPath;
+    final List<Locale> locales;
+    final ServletContext servletContext;
+    final String authType;
+    final String remoteUser;
+    final Principal userPrincipal;
+    final HttpSession session;
+    final String requestedSessionId;
+    final boolean requestedSessionIdValid;
+    final boolean requestedSessionIdFromCookie;
+    final boolean requestedSessionIdFromURL;
+    private final Cookie[] cookies;
+    private final Authentication.User user;
+
+    private BatchSnapshot(HttpServletRequest request) {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (inherited(name)) {
+                headers.put(name, Collections.unmodifiableList(Collections.list(request.getHeaders(name))));
+            }
+        }
+        this.headers = Collections.unmodifiableMap(headers);
+        scheme = request.getScheme();
+        serverName = request.getServerName();
+        serverPort = request.getServerPort();
+        secure = request.isSecure();
+        protocol = request.getProtocol();
+        remoteAddr = request.getRemoteAddr();
+        remoteHost = request.getRemoteHost();
+        remotePort = request.getRemotePort();
+        localAddr = request.getLocalAddr();
+        localName = request.getLocalName();
+        localPort = request.getLocalPort();
+        contextPath = request.getContextPath();
+        Enumeration<Locale> locales = request.getLocales();
+        this.locales = locales == null ? Collections.singletonList(Locale.getDefault())
+                : Collections.unmodifiableList(Collections.list(locales));
+        servletContext = request.getServletContext();
+        authType = request.getAuthType();
+        remoteUser = request.getRemoteUser();
+        userPrincipal = request.getUserPrincipal();
+        session = request.getSession(false);
+        requestedSessionId = request.getRequestedSessionId();
+        requestedSessionIdValid = request.isRequestedSessionIdValid();
+        requestedSessionIdFromCookie = request.isRequestedSessionIdFromCookie();
+        requestedSessionIdFromURL = request.isRequestedSessionIdFromURL();
+        cookies = copy(request.getCookies());
+        Request base = Request.getBaseRequest(request);
+        Authentication authentication = base == null ? null : base.getAuthentication();
+        user = authentication instanceof Authentication.User ? (Authentication.User) authentication : null;
+    }
+
+    /**
+     * @param request The batch request.
+     * @return A copy of what the calls in the batch need from the request.
+     */
+    static BatchSnapshot of(HttpServletRequest request) {
+        return new BatchSnapshot(request);
+    }
+
+    private static boolean inherited(String name) {
+        for (String prefix : NOT_INHERITED) {
+            if (name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A copy of the cookies, so that a call can't change another's.
+     */
+    Cookie[] cookies() {
+        return copy(cookies);
+    }
+
+    /**
+     * @param role A role name.
+     * @return If the authenticated user, if any, has the role.
+     */
+    boolean isUserInRole(String role) {
+        return user != null && user.isUserInRole(null, role);
+    }
+
+    private static Cookie[] copy(Cookie[] cookies) {
+        if (cookies == null) {
+            return null;
+        }
+        List<Cookie> result = new ArrayList<>(cookies.length);
+        for (Cookie cookie : cookies) {
+            result.add((Cookie) cookie.clone());
+        }
+        return result.toArray(new Cookie[0]);
+    }
+
+    /**
+     * Stands in for the request or response a wrapper would otherwise
+     * delegate to, so that anything the wrapper doesn't provide fails,
+     * rather than reaching the (possibly recycled) batch request.
+     *
+     * @param type The interface to implement.
+     * @param <T>  The interface.
+     * @return An instance whose methods throw {@link IllegalStateException}.
+     */
+    static <T> T detached(Class<T> type) {
+        Object proxy = Proxy.newProxyInstance(BatchSnapshot.class.getClassLoader(), new Class<?>[]{type}, (instance, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return instance == args[0];
+                case "hashCode":
+                    return System.identityHashCode(instance);
+                case "toString":
+                    return "Detached " + type.getSimpleName();
+                default:
+                    throw new IllegalStateException(method.getName() + " isn't available to a batched call");
+            }
+        });
+        return type.cast(proxy);
+    }
+}
@@ -0,0 +1,316 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.github.davidcarboni.restolino.api.ResponseCache;
+import com.github.davidcarboni.restolino.helpers.Conditional;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.resource.Resource;
+import org.slf4j.Logger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Holds static files in memory, so that serving one doesn't mean reading
+ * (and, in a jar, decompressing) it again. Each file gets a strong
+ * <code>ETag</code> computed from its content, so clients that already have
+ * it get a 304. Fingerprinted files (e.g. <code>app.3f9a1c0e.js</code>)
+ * never change, so they're sent with an <code>immutable</code>
+ * <code>Cache-Control</code> and browsers don't ask again.
+ * <p>
+ * Files that are worth compressing are also held gzipped, so that
+ * {@link GzipHandler} doesn't compress them again for every request. If
+ * there's a <code>.gz</code> file next to the original (e.g. from your
+ * build) that's used, otherwise the file is gzipped once, at maximum
+ * compression, when it's loaded. The gzipped copy is sent to clients that
+ * accept it, with <code>Vary: Accept-Encoding</code> and its own
+ * <code>ETag</code> (see {@link Conditional#gzipEtag(String)}). Either tag
+ * gets a 304.
+ * <p>
+ * Files larger than {@link #DEFAULT_MAX_FILE_SIZE}, or that don't fit in
+ * {@link #DEFAULT_MAX_SIZE} in total, are left to the
+ * {@link org.eclipse.jetty.server.handler.ResourceHandler}, as are range
+ * requests. See {@link #setLimits(long, long)}.
+ */
+public final class FilesCache {
+
+    private static final Logger log = getLogger(FilesCache.class);
+
+    /**
+     * The default largest file to keep in memory: 1MB.
+     */
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The default total size of the files kept in memory: 64MB.
+     */
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * For fingerprinted files: cache for a year and don't revalidate.
+     */
+    static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * A file name with a hash before the extension, e.g.
+     * <code>app.3f9a1c0e.js</code> or <code>main-3f9a1c0e.css</code>: at
+     * least 8 lowercase hex digits, with both letters and digits, so that
+     * names like <code>logo-retina2x.png</code> or
+     * <code>changelog-20240101.html</code> aren't mistaken for one. A hash
+     * that happens to be all digits just misses out on being immutable.
+     */
+    static final Pattern FINGERPRINT = Pattern.compile(".*[.-](?=[a-f]*[0-9])(?=[0-9]*[a-f])[0-9a-f]{8,}\\.[^./]+");
+
+    /**
+     * A gzipped copy is only kept if it's at most this proportion of the size of the original.
+     */
+    static final double GZIP_MAX_RATIO = 0.9;
+
+    static final FilesCache EMPTY = new FilesCache(Collections.emptyMap(), 0);
+
+    private static final MimeTypes mimeTypes = new MimeTypes();
+
+    /**
+     * Jetty's defaults for what's worth compressing.
+     */
+    private static final GzipHandler compressible = new GzipHandler();
+    private static final int CHUNK_SIZE = 8192;
+
+    private static volatile long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    private static volatile long maxSize = DEFAULT_MAX_SIZE;
+
+    private final Map<String, Entry> entries;
+    private final long size;
+
+    private FilesCache(Map<String, Entry> entries, long size) {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * Sets how much is kept in memory. This applies the next time the cache
+     * is loaded.
+     *
+     * @param maxFileSize The largest file, in bytes. Zero turns the cache off.
+     * @param maxSize     The total size of the files, in bytes.
+     */
+    public static void setLimits(long maxFileSize, long maxSize) {
+        FilesCache.maxFileSize = maxFileSize;
+        FilesCache.maxSize = maxSize;
+    }
+
+    /**
+     * Reads files into memory, as far as the limits allow.
+     *
+     * @param base  The static files.
+     * @param files The paths of the files, e.g. <code>/js/app.js</code>.
+     * @return The cache.
+     */
+    static FilesCache load(Resource base, List<String> files) {
+        if (maxFileSize <= 0) {
+            return EMPTY;
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        Set<String> available = new HashSet<>(files);
+        long size = 0;
+        for (String path : files) {
+            if (path.endsWith(".gz") && available.contains(path.substring(0, path.length() - 3))) {
+                // Held with the original
+                continue;
+            }
+            try {
+                Resource resource = base.addPath(path);
+                long length = resource.length();
+                if (length < 0 || length > maxFileSize || size + length > maxSize) {
+                    continue;
+                }
+                byte[] bytes = read(resource);
+                byte[] gzip = gzip(base, path, bytes, available);
+                long total = bytes.length + (gzip == null ? 0 : gzip.length);
+                if (size + total > maxSize) {
+                    continue;
+                }
+                entries.put(path, new Entry(path, bytes, gzip, resource.lastModified()));
+                size += total;
+            } catch (IOException e) {
+                log.info("Unable to cache static file {}: {}", path, e.toString());
+            }
+        }
+        if (!entries.isEmpty()) {
+            log.info("Cached {} of {} static files ({} bytes)", entries.size(), files.size(), size);
+        }
+        return new FilesCache(entries, size);
+    }
+
+    /**
+     * Gets a gzipped copy of a file, if it's worth having one.
+     *
+     * @param base      The static files.
+     * @param path      The path of the file.
+     * @param bytes     The file.
+     * @param available The paths of all the files, to look for a <code>.gz</code>.
+     * @return The gzipped file, or null.
+     * @throws IOException If an error occurs in reading a <code>.gz</code> file.
+     */
+    static byte[] gzip(Resource base, String path, byte[] bytes, Set<String> available) throws IOException {
+        if (available.contains(path + ".gz")) {
+            return read(base.addPath(path + ".gz"));
+        }
+        String contentType = mimeTypes.getMimeByExtension(path);
+        if (bytes.length < compressible.getMinGzipSize() || contentType == null || !compressible.isMimeTypeGzipable(contentType)) {
+            return null;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        }
+        return output.size() <= bytes.length * GZIP_MAX_RATIO ? output.toByteArray() : null;
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream input = resource.getInputStream()) {
+            return IOUtils.toByteArray(input);
+        }
+    }
+
+    /**
+     * @return The number of files in memory.
+     */
+    int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return The total size of the files in memory, in bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Sends a file from memory, if it's there.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @param path     The request path.
+     * @return False if the request needs to go to the
+     * {@link org.eclipse.jetty.server.handler.ResourceHandler} instead.
+     * @throws IOException If an error occurs in sending the file.
+     */
+    boolean serve(HttpServletRequest request, HttpServletResponse response, String path) throws IOException {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return false;
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+        if (!head && !"GET".equals(request.getMethod()) || request.getHeader(HttpHeader.RANGE.asString()) != null) {
+            return false;
+        }
+
+        if (entry.immutable) {
+            response.setHeader(HttpHeader.CACHE_CONTROL.asString(), IMMUTABLE);
+        }
+        if (entry.lastModified > 0) {
+            response.setDateHeader(Conditional.LAST_MODIFIED, entry.lastModified);
+        }
+        boolean gzip = false;
+        if (entry.gzip != null) {
+            response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+            gzip = ResponseCache.acceptsGzip(request.getHeader(HttpHeader.ACCEPT_ENCODING.asString()));
+        }
+        response.setHeader(Conditional.ETAG, gzip ? entry.gzipEtag : entry.etag);
+        if (Conditional.notModified(request, response)) {
+            return true;
+        }
+        if (entry.gzipEtag != null && Conditional.matches(request.getHeader(Conditional.IF_NONE_MATCH), gzip ? entry.etag : entry.gzipEtag)) {
+            // The client has the other encoding, which is the same file:
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        if (entry.contentType != null) {
+            response.setContentType(entry.contentType);
+        }
+        ByteBuffer content = entry.content;
+        if (gzip) {
+            // Setting Content-Encoding also stops GzipHandler compressing it again:
+            response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+            content = entry.gzip;
+        }
+        response.setContentLength(content.remaining());
+        if (!head) {
+            write(content.duplicate(), response.getOutputStream());
+        }
+        return true;
+    }
+
+    /**
+     * Writes straight from the buffer if the container lets us, otherwise
+     * a chunk at a time.
+     */
+    static void write(ByteBuffer content, ServletOutputStream output) throws IOException {
+        if (output instanceof HttpOutput) {
+            ((HttpOutput) output).sendContent(content);
+        } else {
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, content.remaining())];
+            while (content.hasRemaining()) {
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                output.write(chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * A file held in memory.
+     */
+    static final class Entry {
+
+        final ByteBuffer content;
+        final ByteBuffer gzip;
+        final String etag;
+        final String gzipEtag;
+        final long lastModified;
+        final String contentType;
+        final boolean immutable;
+
+        Entry(String path, byte[] bytes, byte[] gzip, long lastModified) {
+            this.content = direct(bytes);
+            this.gzip = gzip == null ? null : direct(gzip);
+            this.etag = Conditional.etag(bytes, 0, bytes.length);
+            this.gzipEtag = gzip == null ? null : Conditional.gzipEtag(etag);
+            this.lastModified = lastModified;
+            this.contentType = mimeTypes.getMimeByExtension(path);
+            this.immutable = FINGERPRINT.matcher(path).matches();
+        }
+
+        private static ByteBuffer direct(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+}
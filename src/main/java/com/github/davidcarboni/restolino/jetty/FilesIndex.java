@@ -0,0 +1,299 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import org.eclipse.jetty.util.resource.Resource;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An index of the static files that can be served, so that requests for
+ * files that don't exist (scanners, old asset URLs, favicon variants) get a
+ * 404 without a lookup in the jar or on disk.
+ * <p>
+ * The index holds the sorted paths of every file and directory. Trees of
+ * more than {@link #MAX_EXACT} entries are held in a Bloom filter instead,
+ * which can't say for sure that a file exists, but can say for sure that it
+ * doesn't. Either way, a request the index lets through is still served (or
+ * not) from the {@link FilesCache} or by the
+ * {@link org.eclipse.jetty.server.handler.ResourceHandler}.
+ * <p>
+ * If the files are in a local directory, rather than a jar, the index is
+ * rebuilt whenever something under it changes.
+ */
+final class FilesIndex {
+
+    private static final Logger log = getLogger(FilesIndex.class);
+
+    /**
+     * The most paths to keep exactly, before switching to a Bloom filter.
+     */
+    static final int MAX_EXACT = 50000;
+
+    /**
+     * Bits per entry in a Bloom filter: about 1% false positives.
+     */
+    static final int BLOOM_BITS = 10;
+    static final int BLOOM_HASHES = 7;
+
+    private final Resource base;
+    private volatile Lookup lookup;
+    private volatile FilesCache cache = FilesCache.EMPTY;
+
+    FilesIndex(Resource base) throws IOException {
+        this.base = base;
+        rebuild();
+    }
+
+    /**
+     * @param path A request path, e.g. <code>/js/app.js</code>.
+     * @return False if there's definitely no such file.
+     */
+    boolean mightExist(String path) {
+        return lookup.mightContain(path);
+    }
+
+    /**
+     * @return The files held in memory.
+     */
+    FilesCache cache() {
+        return cache;
+    }
+
+    /**
+     * @return The number of files and directories in the index.
+     */
+    int size() {
+        return lookup.size();
+    }
+
+    /**
+     * Lists the files and directories under the base resource again, and
+     * reloads the {@link FilesCache}. If this fails, the current index and
+     * cache are kept.
+     *
+     * @throws IOException If an error occurs in listing the files.
+     */
+    void rebuild() throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        list(base, "", paths, files);
+        String[] sorted = paths.toArray(new String[0]);
+        Arrays.sort(sorted);
+        Lookup lookup = sorted.length > MAX_EXACT ? new Bloom(sorted) : new Exact(sorted);
+        FilesCache cache = FilesCache.load(base, files);
+        this.lookup = lookup;
+        this.cache = cache;
+        log.info("Indexed {} static files and directories{}", sorted.length, sorted.length > MAX_EXACT ? " (approximately)" : "");
+    }
+
+    private static void list(Resource directory, String prefix, List<String> paths, List<String> files) throws IOException {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            boolean isDirectory = name.endsWith("/");
+            String entry = isDirectory ? name.substring(0, name.length() - 1) : name;
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String path = prefix + "/" + entry;
+            paths.add(path);
+            if (isDirectory) {
+                list(directory.addPath(name), path, paths, files);
+            } else {
+                files.add(path);
+            }
+        }
+    }
+
+    /**
+     * Starts a daemon thread that rebuilds the index when anything under the
+     * base directory changes. This does nothing if the files aren't in a
+     * local directory.
+     *
+     * @return If the files are being watched.
+     */
+    boolean watch() {
+        File directory;
+        try {
+            directory = base.getFile();
+        } catch (IOException e) {
+            directory = null;
+        }
+        if (directory == null || !directory.isDirectory()) {
+            return false;
+        }
+        Path root = directory.toPath();
+        Thread thread = new Thread(() -> watch(root), "files-index");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void watch(Path root) {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            update(root, watcher, false);
+            while (true) {
+                WatchKey key = watcher.take();
+                key.pollEvents();
+                key.reset();
+                // Let a burst of changes (e.g. a rebuild) settle first:
+                while ((key = watcher.poll(100, TimeUnit.MILLISECONDS)) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                update(root, watcher, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Stopped watching {} for changes to static files", root, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watches any new directories and, optionally, rebuilds the index. A
+     * failure (e.g. a directory deleted part-way through) is logged and the
+     * last good index is kept: the next change gets another try.
+     */
+    private void update(Path root, WatchService watcher, boolean rebuild) {
+        try {
+            register(root, watcher);
+            if (rebuild) {
+                rebuild();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Error updating the index of static files in {}. Keeping the previous index.", root, e);
+        }
+    }
+
+    private static void register(Path root, WatchService watcher) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted since it was listed: nothing to watch.
+                log.debug("Not watching {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    interface Lookup {
+
+        boolean mightContain(String path);
+
+        int size();
+    }
+
+    /**
+     * The sorted paths, searched with a binary search.
+     */
+    static final class Exact implements Lookup {
+
+        private final String[] paths;
+
+        Exact(String[] sorted) {
+            paths = sorted;
+        }
+
+        @Override
+        public boolean mightContain(String path) {
+            return Arrays.binarySearch(paths, path) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return paths.length;
+        }
+    }
+
+    /**
+     * A Bloom filter of the paths. Each path sets {@link #BLOOM_HASHES} bits,
+     * derived from two independent hashes.
+     */
+    static final class Bloom implements Lookup {
+
+        private final long[] bits;
+        private final int size;
+
+        Bloom(String[] paths) {
+            long bitCount = Math.max(64L, (long) paths.length * BLOOM_BITS);
+            bits = new long[(int) Math.min((bitCount + 63) / 64, Integer.MAX_VALUE / 64)];
+            size = paths.length;
+            for (String path : paths) {
+                long hash = hash(path);
+                int h1 = (int) hash;
+                int h2 = (int) (hash >>> 32);
+                for (int i = 0; i < BLOOM_HASHES; i++) {
+                    int bit = index(h1 + i * h2);
+                    bits[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+
+        @Override
+        public boolean mightContain(String path) {
+            long hash = hash(path);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = index(h1 + i * h2);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private int index(int hash) {
+            return (int) ((hash & 0xffffffffL) % ((long) bits.length * 64));
+        }
+
+        /**
+         * 64-bit FNV-1a of the UTF-8 bytes, finished with a mixing step so
+         * that both halves are usable as hashes.
+         */
+        static long hash(String path) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
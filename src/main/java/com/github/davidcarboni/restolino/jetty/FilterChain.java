@@ -0,0 +1,143 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.github.davidcarboni.restolino.framework.Filter;
+import com.github.davidcarboni.restolino.framework.FilterScope;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@link Filter}s that apply to one kind of request (API or static
+ * files), in order. This is built once when the filters are set up, so
+ * each request only checks the paths and methods of the filters that can
+ * apply to it.
+ */
+final class FilterChain {
+
+    static final FilterChain EMPTY = new FilterChain(new Link[0]);
+
+    private final Link[] links;
+
+    private FilterChain(Link[] links) {
+        this.links = links;
+    }
+
+    /**
+     * @param filters  All the filters.
+     * @param requests The kind of request the chain is for: {@link FilterScope.Requests#API} or {@link FilterScope.Requests#FILES}.
+     * @return The filters that apply to that kind of request, in order of priority.
+     */
+    static FilterChain of(Collection<Filter> filters, FilterScope.Requests requests) {
+        List<Link> links = new ArrayList<>();
+        for (Filter filter : filters) {
+            FilterScope scope = filter.getClass().getAnnotation(FilterScope.class);
+            if (scope == null || scope.requests() == FilterScope.Requests.ALL || scope.requests() == requests) {
+                links.add(new Link(filter, scope));
+            }
+        }
+        links.sort(Comparator.comparingInt((Link link) -> link.priority)
+                .thenComparing(link -> link.filter.getClass().getName()));
+        return new FilterChain(links.toArray(new Link[0]));
+    }
+
+    /**
+     * Runs the filters that apply to the request, stopping at the first one
+     * that returns false.
+     *
+     * @param request  The request.
+     * @param response The response.
+     * @return If the request should be handled.
+     */
+    boolean filter(HttpServletRequest request, HttpServletResponse response) {
+        if (links.length == 0) {
+            return true;
+        }
+        List<String> segments = RequestContext.of(request).segments();
+        String method = request.getMethod();
+        for (Link link : links) {
+            if (link.applies(segments, method) && !link.filter.filter(request, response)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of filters in the chain.
+     */
+    int size() {
+        return links.length;
+    }
+
+    /**
+     * A filter and the paths and methods it's limited to. Paths are compared
+     * a segment at a time, ignoring case and empty segments, the same way
+     * requests are routed, so that <code>/ADMIN/users</code> or
+     * <code>//admin/users</code> can't get past a filter scoped to
+     * <code>/admin</code>.
+     */
+    private static final class Link {
+
+        final Filter filter;
+        final int priority;
+        final String[][] paths;
+        final String[] methods;
+
+        Link(Filter filter, FilterScope scope) {
+            this.filter = filter;
+            this.priority = scope == null ? 0 : scope.priority();
+            String[] paths = scope == null ? new String[0] : scope.paths();
+            this.paths = new String[paths.length][];
+            for (int i = 0; i < paths.length; i++) {
+                this.paths[i] = StringUtils.split(paths[i], '/');
+            }
+            this.methods = scope == null ? new String[0] : scope.methods();
+        }
+
+        boolean applies(List<String> segments, String method) {
+            return matchesMethod(method) && matchesPath(segments);
+        }
+
+        private boolean matchesMethod(String method) {
+            if (methods.length == 0) {
+                return true;
+            }
+            for (String candidate : methods) {
+                if (candidate.equalsIgnoreCase(method)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesPath(List<String> segments) {
+            if (paths.length == 0) {
+                return true;
+            }
+            for (String[] prefix : paths) {
+                if (startsWith(segments, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean startsWith(List<String> segments, String[] prefix) {
+            if (prefix.length > segments.size()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (!prefix[i].equalsIgnoreCase(segments.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.github.davidcarboni.restolino.jetty;
 
 import com.github.davidcarboni.restolino.Main;
+import com.github.davidcarboni.restolino.api.Router;
 import com.github.davidcarboni.restolino.framework.Filter;
+import com.github.davidcarboni.restolino.framework.FilterScope;
 import com.github.davidcarboni.restolino.framework.Startup;
+import com.github.davidcarboni.restolino.helpers.RequestContext;
 import com.github.davidcarboni.restolino.reload.ClassFinder;
 import com.github.davidcarboni.restolino.reload.ClassReloader;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.server.Handler;
@@ -39,8 +41,12 @@ public class MainHandler extends HandlerCollection {
     public static String filesResourceName = "/web";
 
     ResourceHandler filesHandler;
+    FilesIndex filesIndex;
     ApiHandler apiHandler;
+    BatchHandler batchHandler;
     Collection<Filter> filters;
+    volatile FilterChain apiFilters = FilterChain.EMPTY;
+    volatile FilterChain filesFilters = FilterChain.EMPTY;
     Collection<Startup> startups;
 
     public MainHandler() throws IOException {
@@ -82,7 +88,14 @@ public class MainHandler extends HandlerCollection {
             Resource resource = Resource.newResource(url);
             filesHandler.setBaseResource(resource);
 
+            // Know what's there, so that misses don't have to be looked up:
+            FilesIndex filesIndex = new FilesIndex(resource);
+            if (filesIndex.watch()) {
+                log.info("Watching {} for changes to static files", url);
+            }
+
             this.filesHandler = filesHandler;
+            this.filesIndex = filesIndex;
 
             log.info("Set up static file handler for URL: " + url);
         } else {
@@ -113,6 +126,8 @@ public class MainHandler extends HandlerCollection {
     private void setupApiHandler(Reflections reflections) {
         apiHandler = new ApiHandler();
         ApiHandler.setupApi(reflections);
+        // Batched calls are API requests:
+        batchHandler = new BatchHandler(apiHandler, (req, res) -> apiFilters.filter(req, res));
     }
 
     public void reload() throws IOException {
@@ -127,14 +142,17 @@ public class MainHandler extends HandlerCollection {
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 
-        // Should we try redirecting to index.html?
-        boolean isRootRequest = isRootRequest(request);
-        boolean isApiRequest = isApiRequest(target);
-        if (filter(request, response)) {
-            if (isApiRequest) {
+        // Classified once here, then shared with filters and handlers:
+        RequestContext context = RequestContext.of(request);
+        if (filter(request, response, context.isApi())) {
+            if (StringUtils.equals(BatchHandler.PATH, target)) {
+                batchHandler.handle(request, response);
+            } else if (context.isApi()) {
                 apiHandler.handle(target, baseRequest, request, response);
-            } else if (filesHandler != null) {
-                filesHandler.handle(target, baseRequest, request, response);
+            } else if (filesHandler != null && filesIndex.mightExist(context.path())) {
+                if (!filesIndex.cache().serve(request, response, context.path())) {
+                    filesHandler.handle(target, baseRequest, request, response);
+                }
             } else {
                 notFound(target, response);
             }
@@ -144,33 +162,16 @@ public class MainHandler extends HandlerCollection {
     }
 
     /**
-     * Determines if the given request is for the root resource (ie /).
+     * Runs the filters that apply to the request, in order, until one of
+     * them returns false.
      *
-     * @param request The {@link HttpServletRequest}
-     * @return If {@link HttpServletRequest#getPathInfo()} is null, empty string
-     * or "/", then true.
+     * @param req          The request.
+     * @param res          The response.
+     * @param isApiRequest If this is an API request, rather than for a static file.
+     * @return If the request should be handled.
      */
-    boolean isRootRequest(HttpServletRequest request) {
-        String path = request.getPathInfo();
-        if (StringUtils.isBlank(path)) {
-            return true;
-        } else if (StringUtils.equals("/", path)) {
-            return true;
-        }
-        return false;
-    }
-
-    static boolean isApiRequest(String target) {
-        String extension = FilenameUtils.getExtension(target);
-        return StringUtils.isBlank(extension);
-    }
-
-    boolean filter(HttpServletRequest req, HttpServletResponse res) {
-        boolean result = true;
-        for (Filter filter : filters) {
-            result &= filter.filter(req, res);
-        }
-        return result;
+    boolean filter(HttpServletRequest req, HttpServletResponse res, boolean isApiRequest) {
+        return (isApiRequest ? apiFilters : filesFilters).filter(req, res);
     }
 
     static void notFound(String target, HttpServletResponse response) throws IOException {
@@ -193,7 +194,9 @@ public class MainHandler extends HandlerCollection {
             }
         }
         filters = result;
-        log.info("Found {} filter classes.", filters.size());
+        apiFilters = FilterChain.of(result, FilterScope.Requests.API);
+        filesFilters = FilterChain.of(result, FilterScope.Requests.FILES);
+        log.info("Found {} filter classes ({} for API requests, {} for files).", filters.size(), apiFilters.size(), filesFilters.size());
     }
 
     public void runStartups(Reflections reflections) {
@@ -212,5 +215,11 @@ public class MainHandler extends HandlerCollection {
             startup.init();
         }
         this.startups = startups;
+
+        // Startups may have configured Json serialisation:
+        Router api = ApiHandler.api;
+        if (api != null) {
+            api.warmUp();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+
+/**
+ * Support for the adapters generated by <code>restolino-codegen</code>. The
+ * generated code reads and writes <code>String</code>, <code>int</code>,
+ * <code>long</code> and <code>boolean</code> fields itself and uses these
+ * methods for the rest, so that the results are the same as Gson's
+ * reflective adapters. You shouldn't need to call these directly.
+ */
+public final class Generated {
+
+    private Generated() {
+        // Static methods only.
+    }
+
+    /**
+     * @param gson The Gson instance.
+     * @param type The declared type of a field.
+     * @return The adapter for the type.
+     */
+    @SuppressWarnings("unchecked")
+    public static TypeAdapter<Object> adapter(Gson gson, Type type) {
+        return (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(type));
+    }
+
+    /**
+     * Writes a field value with the adapter for its runtime type, if that
+     * differs from the declared type. Gson makes much the same choice, but
+     * keeps a custom adapter registered for the declared type if the
+     * runtime type would otherwise be written by reflection. Generated
+     * adapters hand subclasses on to Gson themselves, so this only differs
+     * from Gson for a custom adapter that's registered for a base class
+     * only, rather than with
+     * {@link Serialiser#registerTypeHierarchyAdapter(Class, Object)}.
+     *
+     * @param gson         The Gson instance.
+     * @param declared     The adapter for the declared type of the field.
+     * @param declaredType The declared type of the field.
+     * @param out          The writer.
+     * @param value        The field value.
+     * @throws IOException If an error occurs in writing.
+     */
+    public static void write(Gson gson, TypeAdapter<Object> declared, Type declaredType, JsonWriter out, Object value) throws IOException {
+        TypeAdapter<Object> adapter = declared;
+        if (value != null && (declaredType instanceof Class || declaredType instanceof TypeVariable)
+                && value.getClass() != declaredType) {
+            adapter = adapter(gson, value.getClass());
+        }
+        adapter.write(out, value);
+    }
+
+    /**
+     * @param in The reader.
+     * @return The value, read as Gson's <code>String</code> adapter would.
+     * @throws IOException If an error occurs in reading.
+     */
+    public static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        } else if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    /**
+     * @param in      The reader.
+     * @param current The current value of the field, which is kept if the Json value is null.
+     * @return The value.
+     * @throws IOException If an error occurs in reading.
+     */
+    public static int readInt(JsonReader in, int current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * @param in      The reader.
+     * @param current The current value of the field, which is kept if the Json value is null.
+     * @return The value.
+     * @throws IOException If an error occurs in reading.
+     */
+    public static long readLong(JsonReader in, long current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * @param in      The reader.
+     * @param current The current value of the field, which is kept if the Json value is null.
+     * @return The value.
+     * @throws IOException If an error occurs in reading.
+     */
+    public static boolean readBoolean(JsonReader in, boolean current) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        } else if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+}
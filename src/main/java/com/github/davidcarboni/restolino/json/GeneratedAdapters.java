@@ -0,0 +1,89 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+
+import java.util.*;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Delegates to whichever {@link GeneratedTypeAdapterFactory} services were
+ * found by the last call to {@link #load(Collection)}. This is registered
+ * with Gson once, so the generated factories can be swapped when classes
+ * are reloaded.
+ * <p>
+ * Generated adapters follow Gson's default field naming and exclusion
+ * rules, so they stand aside once {@link Serialiser} has been asked to
+ * configure Gson otherwise (see {@link #standAside()}).
+ */
+final class GeneratedAdapters implements TypeAdapterFactory {
+
+    private static final Logger log = getLogger(GeneratedAdapters.class);
+
+    private volatile List<GeneratedTypeAdapterFactory> factories = Collections.emptyList();
+    private volatile boolean standAside;
+
+    /**
+     * Leaves all classes to Gson from now on, because its field naming or
+     * exclusion settings have been changed.
+     */
+    void standAside() {
+        if (!standAside) {
+            standAside = true;
+            if (!factories.isEmpty()) {
+                log.info("Gson field naming or exclusion has been customised, so generated Json adapters won't be used");
+            }
+        }
+    }
+
+    /**
+     * Finds the generated factories visible to the given class loaders.
+     *
+     * @param classLoaders The class loaders of the API classes.
+     * @return If the factories found differ from the ones already in use, true.
+     */
+    boolean load(Collection<ClassLoader> classLoaders) {
+        Map<Class<?>, GeneratedTypeAdapterFactory> found = new LinkedHashMap<>();
+        for (ClassLoader classLoader : classLoaders) {
+            try {
+                for (GeneratedTypeAdapterFactory factory : ServiceLoader.load(GeneratedTypeAdapterFactory.class, classLoader)) {
+                    if (!found.containsKey(factory.getClass())) {
+                        found.put(factory.getClass(), factory);
+                        log.info("Using generated Json adapters: {}", factory.getClass().getName());
+                    }
+                }
+            } catch (ServiceConfigurationError e) {
+                log.warn("Unable to load generated Json adapters: {}", e.getMessage());
+            }
+        }
+
+        List<Class<?>> current = new ArrayList<>();
+        for (GeneratedTypeAdapterFactory factory : factories) {
+            current.add(factory.getClass());
+        }
+        if (current.equals(new ArrayList<>(found.keySet()))) {
+            return false;
+        }
+        factories = Collections.unmodifiableList(new ArrayList<>(found.values()));
+        return true;
+    }
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        List<GeneratedTypeAdapterFactory> factories = this.factories;
+        if (factories.isEmpty() || standAside) {
+            return null;
+        }
+        for (GeneratedTypeAdapterFactory factory : factories) {
+            TypeAdapter<T> adapter = factory.create(gson, type);
+            if (adapter != null) {
+                return adapter;
+            }
+        }
+        return null;
+    }
+}
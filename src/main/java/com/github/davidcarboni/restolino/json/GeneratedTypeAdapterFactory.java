@@ -0,0 +1,17 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.TypeAdapterFactory;
+
+/**
+ * Implemented by the factory that the <code>restolino-codegen</code>
+ * annotation processor generates for the message types of your
+ * {@link com.github.davidcarboni.restolino.framework.Api @Api} classes. The
+ * processor registers it as a {@link java.util.ServiceLoader service} and
+ * {@link Serialiser} picks it up when the API is configured, so there's
+ * nothing else to set up.
+ * <p>
+ * Types the factory doesn't know about (it returns null) are handled by
+ * Gson as usual.
+ */
+public interface GeneratedTypeAdapterFactory extends TypeAdapterFactory {
+}
@@ -0,0 +1,117 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a sequence of messages from a Json array or from newline-delimited
+ * (or any whitespace-separated) Json. Each message is parsed when it's asked
+ * for, so only one needs to be in memory at a time and reading the body
+ * keeps pace with the code consuming it.
+ * <p>
+ * Errors are reported as Gson would report them:
+ * {@link JsonSyntaxException} for bad Json and {@link JsonIOException}
+ * for problems reading the input.
+ */
+final class MessageIterator<T> implements Iterator<T>, Closeable {
+
+    private enum State {START, ARRAY, DOCUMENT, DONE}
+
+    private final JsonReader reader;
+    private final TypeAdapter<T> adapter;
+    private final boolean newlineDelimited;
+    private State state = State.START;
+
+    /**
+     * @param reader           The input. This will be set to lenient.
+     * @param adapter          The adapter for the message type.
+     * @param newlineDelimited If true, the input is read as a sequence of
+     *                         messages even if it starts with an array.
+     *                         Otherwise an array at the start of the input is
+     *                         taken to contain the messages.
+     */
+    MessageIterator(JsonReader reader, TypeAdapter<T> adapter, boolean newlineDelimited) {
+        this.reader = reader;
+        this.adapter = adapter;
+        this.newlineDelimited = newlineDelimited;
+        reader.setLenient(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            if (state == State.START) {
+                start();
+            }
+            if (state == State.DONE) {
+                return false;
+            }
+            boolean result = state == State.ARRAY ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT;
+            if (!result) {
+                finish();
+            }
+            return result;
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return adapter.read(reader);
+        } catch (EOFException | MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        state = State.DONE;
+        reader.close();
+    }
+
+    private void start() throws IOException {
+        JsonToken token;
+        try {
+            token = reader.peek();
+        } catch (EOFException e) {
+            // Empty input, so no messages:
+            close();
+            return;
+        }
+        if (token == JsonToken.BEGIN_ARRAY && !newlineDelimited) {
+            reader.beginArray();
+            state = State.ARRAY;
+        } else {
+            state = State.DOCUMENT;
+        }
+    }
+
+    private void finish() throws IOException {
+        if (state == State.ARRAY) {
+            reader.endArray();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+        }
+        close();
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.github.davidcarboni.restolino.helpers.Conditional;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that encodes UTF-8 straight into a byte buffer, which is
+ * kept and reused by the thread. If the whole response fits within the
+ * limit, it's sent with a <code>Content-Length</code> header. If not, the
+ * buffer is written out as soon as it fills up and the rest of the response
+ * is streamed (chunked) as it's encoded.
+ * <p>
+ * This replaces wrapping the response stream in an
+ * {@link java.io.OutputStreamWriter}, which allocates an encoder and its
+ * buffers for every response.
+ */
+final class ResponseWriter extends Writer {
+
+    static final int INITIAL_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ResponseWriter> pool = new ThreadLocal<ResponseWriter>() {
+        @Override
+        protected ResponseWriter initialValue() {
+            return new ResponseWriter();
+        }
+    };
+
+    private byte[] bytes = new byte[INITIAL_SIZE];
+    private int count;
+    private char highSurrogate;
+    private boolean inUse;
+
+    private HttpServletResponse response;
+    private int limit;
+
+    /**
+     * Set once the response is being streamed.
+     */
+    private OutputStream output;
+
+    /**
+     * @param response The response to write to.
+     * @param limit    The largest response, in bytes, that will be buffered
+     *                 and sent with a <code>Content-Length</code>.
+     * @return The writer for this thread, or a new one if this thread's
+     * writer is already in use.
+     */
+    static ResponseWriter acquire(HttpServletResponse response, int limit) {
+        ResponseWriter writer = pool.get();
+        if (writer.inUse) {
+            writer = new ResponseWriter();
+        }
+        writer.inUse = true;
+        writer.response = response;
+        writer.limit = Math.max(limit, 0);
+        return writer;
+    }
+
+    /**
+     * Sends whatever is left in the buffer, with a <code>Content-Length</code>
+     * if nothing has been sent yet.
+     *
+     * @throws IOException If an error occurs in writing to the response.
+     */
+    void finish() throws IOException {
+        endSurrogate();
+        if (output == null) {
+            if (count <= limit) {
+                response.setContentLength(count);
+            }
+            output = response.getOutputStream();
+        }
+        output.write(bytes, 0, count);
+        count = 0;
+    }
+
+    /**
+     * As {@link #finish()}, but if the whole response has been buffered it's
+     * sent with a strong <code>ETag</code> computed from the bytes or, if
+     * that matches the given <code>If-None-Match</code>, not sent at all and
+     * the status is set to 304.
+     *
+     * @param ifNoneMatch The <code>If-None-Match</code> request header, if any.
+     * @return If the client already has the response, so a 304 has been set.
+     * @throws IOException If an error occurs in writing to the response.
+     */
+    boolean finish(String ifNoneMatch) throws IOException {
+        endSurrogate();
+        if (output == null && count <= limit) {
+            String etag = Conditional.etag(bytes, 0, count);
+            response.setHeader(Conditional.ETAG, etag);
+            if (Conditional.matches(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                count = 0;
+                return true;
+            }
+        }
+        finish();
+        return false;
+    }
+
+    /**
+     * Sends what's been buffered so far and flushes the response, so that
+     * the client gets it now rather than when the buffer fills up.
+     *
+     * @throws IOException If an error occurs in writing to the response.
+     */
+    void send() throws IOException {
+        if (output == null) {
+            output = response.getOutputStream();
+        }
+        output.write(bytes, 0, count);
+        count = 0;
+        output.flush();
+    }
+
+    /**
+     * Makes this writer available for reuse by the thread. This must be
+     * called whether or not the response was written successfully.
+     */
+    void release() {
+        count = 0;
+        highSurrogate = 0;
+        response = null;
+        output = null;
+        inUse = false;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = cbuf[i];
+            if (c < 0x80 && highSurrogate == 0 && count < bytes.length) {
+                bytes[count++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && highSurrogate == 0 && count < bytes.length) {
+                bytes[count++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is sent until finish(), so that Content-Length can be set.
+    }
+
+    @Override
+    public void close() {
+        // The response stream is left open for the container to complete.
+    }
+
+    private void encode(char c) throws IOException {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                ensure(4);
+                bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            // Unpaired, as OutputStreamWriter would do:
+            put('?');
+        }
+
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            ensure(2);
+            bytes[count++] = (byte) (0xC0 | (c >> 6));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put('?');
+        } else {
+            ensure(3);
+            bytes[count++] = (byte) (0xE0 | (c >> 12));
+            bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void endSurrogate() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put('?');
+        }
+    }
+
+    private void put(int b) throws IOException {
+        ensure(1);
+        bytes[count++] = (byte) b;
+    }
+
+    /**
+     * Makes room in the buffer, by growing it while the response could still
+     * fit within the limit, or by sending what's been buffered so far.
+     */
+    private void ensure(int space) throws IOException {
+        if (count + space <= bytes.length) {
+            return;
+        }
+        if (output == null && count + space <= limit) {
+            bytes = Arrays.copyOf(bytes, Math.min(Math.max(bytes.length * 2, count + space), limit));
+            return;
+        }
+        if (output == null) {
+            output = response.getOutputStream();
+        }
+        output.write(bytes, 0, count);
+        count = 0;
+    }
+}
@@ -4,15 +4,25 @@ import com.github.davidcarboni.restolino.framework.*;
 import com.github.davidcarboni.restolino.json.typeadapters.ClassSerialiser;
 import com.github.davidcarboni.restolino.json.typeadapters.MethodSerialiser;
 import com.github.davidcarboni.restolino.json.typeadapters.ObjectClassSerialser;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.FieldNamingStrategy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.eclipse.jetty.http.MimeTypes;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
@@ -21,11 +31,50 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
 
 public class Serialiser {
 
     private static GsonBuilder builder;
 
+    /**
+     * The {@link Gson} instance shared by all (de)serialisation calls. This is
+     * built lazily from {@link #builder} and discarded whenever the builder is
+     * changed, so that Gson's per-type adapter cache survives between requests.
+     */
+    private static volatile Gson gson;
+
+    /**
+     * The default for {@link #setContentLengthLimit(int)}.
+     */
+    public static final int DEFAULT_CONTENT_LENGTH_LIMIT = 64 * 1024;
+
+    /**
+     * The <code>Content-Type</code> of Json responses. Jetty recognises this
+     * value and uses its pre-encoded header for it.
+     */
+    static final String CONTENT_TYPE = MimeTypes.Type.APPLICATION_JSON_UTF_8.asString();
+
+    /**
+     * The default for {@link #setFlushInterval(int)}.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 100;
+
+    /**
+     * The <code>Content-Type</code> of newline-delimited Json responses.
+     */
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static volatile int contentLengthLimit = DEFAULT_CONTENT_LENGTH_LIMIT;
+
+    private static volatile int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /**
+     * Adapters generated at compile time by <code>restolino-codegen</code>, if any.
+     */
+    private static final GeneratedAdapters generatedAdapters = new GeneratedAdapters();
+
     // Pattern for Javascript dates that are serialised using .toUTCString:
     public static final String toUTCStringDateFormat = "EEE, dd MMM yyyy HH:mm:ss z";
 
@@ -34,17 +83,20 @@ public class Serialiser {
 
     static {
 
+        // Generated adapters go first so that anything registered later takes precedence:
+        registerTypeAdapterFactory(generatedAdapters);
+
         // Add some useful default handlers - these are useful if you use DefaultApiDocumentation:
-        getBuilder().registerTypeAdapter(Class.class, new ClassSerialiser());
-        getBuilder().registerTypeAdapter(Method.class, new MethodSerialiser());
-        getBuilder().registerTypeAdapter(Home.class, new ObjectClassSerialser());
-        getBuilder().registerTypeAdapter(NotFound.class, new ObjectClassSerialser());
-        getBuilder().registerTypeAdapter(ServerError.class, new ObjectClassSerialser());
-        getBuilder().registerTypeAdapter(Startup.class, new ObjectClassSerialser());
-        getBuilder().registerTypeAdapter(Filter.class, new ObjectClassSerialser());
+        registerTypeAdapter(Class.class, new ClassSerialiser());
+        registerTypeAdapter(Method.class, new MethodSerialiser());
+        registerTypeAdapter(Home.class, new ObjectClassSerialser());
+        registerTypeAdapter(NotFound.class, new ObjectClassSerialser());
+        registerTypeAdapter(ServerError.class, new ObjectClassSerialser());
+        registerTypeAdapter(Startup.class, new ObjectClassSerialser());
+        registerTypeAdapter(Filter.class, new ObjectClassSerialser());
 
         // Set a reasonable default for date formatting:
-        getBuilder().setDateFormat(toUTCStringDateFormat);
+        setDateFormat(toUTCStringDateFormat);
     }
 
     /**
@@ -54,7 +106,7 @@ public class Serialiser {
      * @return The Json as a String.
      */
     public static String serialise(Object object) {
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         return gson.toJson(object);
     }
 
@@ -67,7 +119,7 @@ public class Serialiser {
      * @return A new instance of the given type.
      */
     public static <O> O deserialise(String json, Class<O> type) {
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         return gson.fromJson(json, type);
     }
 
@@ -82,12 +134,40 @@ public class Serialiser {
     public static void serialise(OutputStream output, Object responseMessage)
             throws IOException {
 
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         try (OutputStreamWriter writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
             gson.toJson(responseMessage, writer);
         }
     }
 
+    /**
+     * Serialises the given object to Json as UTF-8 bytes, e.g. to be cached.
+     *
+     * @param message The message to be serialised.
+     * @param adapter The adapter to use. If null, the adapter for the
+     *                runtime type of the message is looked up.
+     * @param <T>     The message type.
+     * @return The Json.
+     */
+    public static <T> byte[] toBytes(T message, TypeAdapter<T> adapter) {
+
+        Gson gson = getGson();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            if (adapter == null) {
+                gson.toJson(message, writer);
+            } else {
+                JsonWriter jsonWriter = gson.newJsonWriter(writer);
+                jsonWriter.setLenient(true);
+                adapter.write(jsonWriter, message);
+                jsonWriter.flush();
+            }
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return output.toByteArray();
+    }
+
     /**
      * Deserialises the given {@link InputStream} to a JSON String.
      *
@@ -100,7 +180,7 @@ public class Serialiser {
     public static <O> O deserialise(InputStream input,
                                     Class<O> requestMessageType) throws IOException {
 
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         try (InputStreamReader streamReader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
             return gson.fromJson(streamReader, requestMessageType);
         }
@@ -119,7 +199,7 @@ public class Serialiser {
     public static void serialise(Path output, Object json) throws IOException {
 
         // First serialise to a temp file:
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         Path temp = Files.createTempFile(json.getClass().getSimpleName(), ".json");
         try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
             gson.toJson(json, writer);
@@ -165,7 +245,7 @@ public class Serialiser {
         //if (attempt > 0)
         //    System.out.println("Retrying deserialisation.. (" + attempt + ")");
 
-        Gson gson = getBuilder().create();
+        Gson gson = getGson();
         try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ)) {
             // NB the lock will be released when the channel is closed:
             readLock(inputChannel);
@@ -189,7 +269,8 @@ public class Serialiser {
 
     /**
      * Serialises the given object to Json and writes it to the given
-     * {@link HttpServletResponse}.
+     * {@link HttpServletResponse}. Small responses are sent with a
+     * <code>Content-Length</code> - see {@link #setContentLengthLimit(int)}.
      *
      * @param response        The http response to serialise to.
      * @param responseMessage The message to be serialised.
@@ -197,10 +278,157 @@ public class Serialiser {
      */
     public static void serialise(HttpServletResponse response,
                                  Object responseMessage) throws IOException {
+        serialise(response, responseMessage, null);
+    }
 
-        response.setContentType("application/json");
-        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
-        serialise(response.getOutputStream(), responseMessage);
+    /**
+     * Serialises the given object to Json using an adapter that has already
+     * been resolved, e.g. at startup, and writes it to the given
+     * {@link HttpServletResponse}.
+     *
+     * @param response        The http response to serialise to.
+     * @param responseMessage The message to be serialised.
+     * @param adapter         The adapter to use. If null, the adapter for
+     *                        the runtime type of the message is looked up.
+     * @param <T>             The message type.
+     * @throws IOException If an error occurs in writing the output.
+     */
+    public static <T> void serialise(HttpServletResponse response,
+                                     T responseMessage, TypeAdapter<T> adapter) throws IOException {
+        serialise(response, responseMessage, adapter, false, null);
+    }
+
+    /**
+     * Serialises the given object to Json as
+     * {@link #serialise(HttpServletResponse, Object, TypeAdapter)} does, but
+     * conditionally: if the Json fits within the content length limit it's
+     * sent with a strong <code>ETag</code> computed from its bytes and, if
+     * that matches <code>ifNoneMatch</code>, a 304 is sent with no body.
+     *
+     * @param response        The http response to serialise to.
+     * @param responseMessage The message to be serialised.
+     * @param adapter         The adapter to use. If null, the adapter for
+     *                        the runtime type of the message is looked up.
+     * @param ifNoneMatch     The <code>If-None-Match</code> request header, if any.
+     * @param <T>             The message type.
+     * @return If the client already has the response, so a 304 was sent.
+     * @throws IOException If an error occurs in writing the output.
+     */
+    public static <T> boolean serialise(HttpServletResponse response,
+                                        T responseMessage, TypeAdapter<T> adapter, String ifNoneMatch) throws IOException {
+        return serialise(response, responseMessage, adapter, true, ifNoneMatch);
+    }
+
+    private static <T> boolean serialise(HttpServletResponse response, T responseMessage, TypeAdapter<T> adapter,
+                                         boolean conditional, String ifNoneMatch) throws IOException {
+
+        Gson gson = getGson();
+        response.setContentType(CONTENT_TYPE);
+        ResponseWriter writer = ResponseWriter.acquire(response, contentLengthLimit);
+        try {
+            if (adapter == null) {
+                gson.toJson(responseMessage, writer);
+            } else {
+                // As Gson.toJson(Object, Type, JsonWriter) does:
+                JsonWriter jsonWriter = gson.newJsonWriter(writer);
+                jsonWriter.setLenient(true);
+                adapter.write(jsonWriter, responseMessage);
+            }
+            if (conditional) {
+                return writer.finish(ifNoneMatch);
+            }
+            writer.finish();
+            return false;
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Streams a sequence of messages to the given {@link HttpServletResponse}
+     * as a Json array or, if <code>newlineDelimited</code>, as one Json
+     * message per line. Each message is serialised as it's taken from the
+     * iterator, so memory use is bounded by the response buffer rather than
+     * by the number of messages. The response is flushed every
+     * {@link #setFlushInterval(int)} messages so that the client sees
+     * progress.
+     *
+     * @param response         The http response to serialise to.
+     * @param messages         The messages to be serialised.
+     * @param adapter          An adapter that has already been resolved,
+     *                         or null to look one up for each message.
+     * @param adapterType      The class <code>adapter</code> is for. Other
+     *                         messages are serialised by their runtime type.
+     * @param newlineDelimited If true, newline-delimited Json
+     *                         ({@value #NDJSON_CONTENT_TYPE}), otherwise a
+     *                         Json array.
+     * @throws IOException If an error occurs in writing the output.
+     */
+    public static void stream(HttpServletResponse response, Iterator<?> messages,
+                              TypeAdapter<Object> adapter, Class<?> adapterType,
+                              boolean newlineDelimited) throws IOException {
+
+        Gson gson = getGson();
+        int flushInterval = Math.max(Serialiser.flushInterval, 1);
+        response.setContentType(newlineDelimited ? NDJSON_CONTENT_TYPE : CONTENT_TYPE);
+        ResponseWriter writer = ResponseWriter.acquire(response, 0);
+        try {
+            JsonWriter jsonWriter = gson.newJsonWriter(writer);
+            jsonWriter.setLenient(true);
+            if (newlineDelimited) {
+                // One message per line, even if pretty printing is on:
+                jsonWriter.setIndent("");
+            } else {
+                jsonWriter.beginArray();
+            }
+            int count = 0;
+            while (messages.hasNext()) {
+                Object message = messages.next();
+                if (message == null) {
+                    jsonWriter.nullValue();
+                } else if (adapter != null && message.getClass() == adapterType) {
+                    adapter.write(jsonWriter, message);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    TypeAdapter<Object> runtime = (TypeAdapter<Object>) gson.getAdapter(message.getClass());
+                    runtime.write(jsonWriter, message);
+                }
+                if (newlineDelimited) {
+                    writer.write('\n');
+                }
+                if (++count % flushInterval == 0) {
+                    writer.send();
+                }
+            }
+            if (!newlineDelimited) {
+                jsonWriter.endArray();
+            }
+            writer.finish();
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Sets the size of the largest Json response that will be buffered and
+     * sent with a <code>Content-Length</code> header. Anything larger is
+     * streamed as it's serialised. The default is
+     * {@value #DEFAULT_CONTENT_LENGTH_LIMIT} bytes.
+     *
+     * @param bytes The limit, in bytes. Zero means always stream.
+     */
+    public static void setContentLengthLimit(int bytes) {
+        contentLengthLimit = bytes;
+    }
+
+    /**
+     * Sets how often a streamed response is flushed to the client. The
+     * default is every {@value #DEFAULT_FLUSH_INTERVAL} messages.
+     *
+     * @param messages The number of messages between flushes.
+     */
+    public static void setFlushInterval(int messages) {
+        flushInterval = messages;
     }
 
     /**
@@ -219,9 +447,220 @@ public class Serialiser {
     }
 
     /**
+     * Deserialises the given {@link HttpServletRequest} using an adapter
+     * that has already been resolved, e.g. at startup. As with
+     * {@link Gson#fromJson(Reader, Type)}, an empty body gives null.
+     *
+     * @param request The request to deserialise.
+     * @param adapter The adapter for the message type.
+     * @param <O>     The type to deserialise to.
+     * @return A new instance of the given type.
+     * @throws IOException If an error occurs in reading from the request input stream.
+     */
+    public static <O> O deserialise(HttpServletRequest request,
+                                    TypeAdapter<O> adapter) throws IOException {
+
+        Gson gson = getGson();
+        try (Reader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            JsonReader jsonReader = gson.newJsonReader(reader);
+            jsonReader.setLenient(true);
+            boolean empty = true;
+            O result;
+            try {
+                jsonReader.peek();
+                empty = false;
+                result = adapter.read(jsonReader);
+            } catch (EOFException e) {
+                if (empty) {
+                    return null;
+                }
+                throw new JsonSyntaxException(e);
+            } catch (IllegalStateException | IOException e) {
+                throw new JsonSyntaxException(e);
+            }
+            if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Deserialises the messages in the given {@link HttpServletRequest} one
+     * at a time, as they're asked for. The body can be a Json array of
+     * messages or newline-delimited Json. Because the body is only read as
+     * fast as you take messages from the iterator, a large upload needs
+     * neither much memory nor buffering and the client is slowed down to
+     * match.
+     * <p>
+     * The iterator throws {@link JsonSyntaxException} or
+     * {@link JsonIOException} if there's a problem with the body.
+     *
+     * @param request          The request to deserialise.
+     * @param adapter          The adapter for the message type.
+     * @param newlineDelimited If true, the body is read as newline-delimited
+     *                         Json even if it starts with an array (i.e. the
+     *                         messages are themselves arrays).
+     * @param <O>              The message type.
+     * @return An iterator over the messages.
+     * @throws IOException If an error occurs in opening the request input stream.
+     */
+    public static <O> Iterator<O> iterate(HttpServletRequest request,
+                                          TypeAdapter<O> adapter, boolean newlineDelimited) throws IOException {
+
+        Gson gson = getGson();
+        Reader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8);
+        return new MessageIterator<>(gson.newJsonReader(reader), adapter, newlineDelimited);
+    }
+
+    /**
+     * Registers a custom serialiser, deserialiser, {@link com.google.gson.TypeAdapter TypeAdapter} or
+     * {@link com.google.gson.InstanceCreator InstanceCreator} for the given type.
+     *
+     * @param type        The type to register the adapter for.
+     * @param typeAdapter The adapter, as accepted by {@link GsonBuilder#registerTypeAdapter(Type, Object)}.
+     */
+    public static synchronized void registerTypeAdapter(Type type, Object typeAdapter) {
+        builder().registerTypeAdapter(type, typeAdapter);
+        gson = null;
+    }
+
+    /**
+     * Registers a custom serialiser, deserialiser or {@link com.google.gson.TypeAdapter TypeAdapter}
+     * for the given type and all of its subtypes.
+     *
+     * @param baseType    The type to register the adapter for.
+     * @param typeAdapter The adapter, as accepted by {@link GsonBuilder#registerTypeHierarchyAdapter(Class, Object)}.
+     */
+    public static synchronized void registerTypeHierarchyAdapter(Class<?> baseType, Object typeAdapter) {
+        builder().registerTypeHierarchyAdapter(baseType, typeAdapter);
+        gson = null;
+    }
+
+    /**
+     * Registers a {@link TypeAdapterFactory}.
+     *
+     * @param factory The factory to register.
+     */
+    public static synchronized void registerTypeAdapterFactory(TypeAdapterFactory factory) {
+        builder().registerTypeAdapterFactory(factory);
+        gson = null;
+    }
+
+    /**
+     * Looks for {@link GeneratedTypeAdapterFactory} services (generated by
+     * <code>restolino-codegen</code>) and uses them in place of any found
+     * previously. This is called when the API is configured, with the class
+     * loaders of the API classes, so that it follows class reloading.
+     *
+     * @param classLoaders The class loaders to look in.
+     */
+    public static synchronized void loadGeneratedAdapters(Collection<ClassLoader> classLoaders) {
+        if (generatedAdapters.load(classLoaders)) {
+            gson = null;
+        }
+    }
+
+    /**
+     * Sets the pattern used to format and parse {@link java.util.Date Date} values.
+     *
+     * @param pattern A {@link java.text.SimpleDateFormat SimpleDateFormat} pattern.
+     */
+    public static synchronized void setDateFormat(String pattern) {
+        builder().setDateFormat(pattern);
+        gson = null;
+    }
+
+    /**
+     * Sets how field names are written in Json. Generated adapters (from
+     * <code>restolino-codegen</code>) only use the field names as they
+     * are, so this switches them off.
+     *
+     * @param strategy The strategy, e.g. a {@link FieldNamingPolicy}.
+     */
+    public static synchronized void setFieldNamingStrategy(FieldNamingStrategy strategy) {
+        builder().setFieldNamingStrategy(strategy);
+        generatedAdapters.standAside();
+        gson = null;
+    }
+
+    /**
+     * Sets strategies for leaving out fields and classes. Generated
+     * adapters (from <code>restolino-codegen</code>) don't know about
+     * these, so this switches them off.
+     *
+     * @param strategies The strategies, as accepted by {@link GsonBuilder#setExclusionStrategies(ExclusionStrategy...)}.
+     */
+    public static synchronized void setExclusionStrategies(ExclusionStrategy... strategies) {
+        builder().setExclusionStrategies(strategies);
+        generatedAdapters.standAside();
+        gson = null;
+    }
+
+    /**
+     * Leaves out fields that aren't annotated with
+     * {@link com.google.gson.annotations.Expose @Expose}. Generated adapters
+     * (from <code>restolino-codegen</code>) don't look at annotations, so
+     * this switches them off.
+     */
+    public static synchronized void excludeFieldsWithoutExposeAnnotation() {
+        builder().excludeFieldsWithoutExposeAnnotation();
+        generatedAdapters.standAside();
+        gson = null;
+    }
+
+    /**
+     * Switches on pretty-printing of Json output.
+     */
+    public static synchronized void setPrettyPrinting() {
+        builder().setPrettyPrinting();
+        gson = null;
+    }
+
+    /**
+     * @return The shared {@link Gson} instance. This is created on first use and
+     * re-created only after the configuration has been changed through one of the
+     * <code>register...</code>/<code>set...</code> methods of this class.
+     */
+    public static Gson getGson() {
+        Gson result = gson;
+        if (result == null) {
+            synchronized (Serialiser.class) {
+                result = gson;
+                if (result == null) {
+                    result = builder().create();
+                    gson = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gives direct access to the underlying {@link GsonBuilder}. Because the
+     * caller may go on to change the builder, calling this discards the shared
+     * {@link Gson} instance so that it will be rebuilt on next use. It also
+     * switches off generated adapters, because there's no telling whether
+     * the caller will change field naming or exclusion.
+     *
      * @return A lazily instantiated and cached {@link GsonBuilder}.
+     * @deprecated Changes made to the builder after the next (de)serialisation
+     * won't be seen. Use {@link #registerTypeAdapter(Type, Object)},
+     * {@link #registerTypeHierarchyAdapter(Class, Object)},
+     * {@link #registerTypeAdapterFactory(TypeAdapterFactory)},
+     * {@link #setDateFormat(String)}, {@link #setPrettyPrinting()},
+     * {@link #setFieldNamingStrategy(FieldNamingStrategy)},
+     * {@link #setExclusionStrategies(ExclusionStrategy...)} or
+     * {@link #excludeFieldsWithoutExposeAnnotation()} instead.
      */
-    public static GsonBuilder getBuilder() {
+    @Deprecated
+    public static synchronized GsonBuilder getBuilder() {
+        generatedAdapters.standAside();
+        gson = null;
+        return builder();
+    }
+
+    private static synchronized GsonBuilder builder() {
         if (builder == null) {
             builder = new GsonBuilder();
         }
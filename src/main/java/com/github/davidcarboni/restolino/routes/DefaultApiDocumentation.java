@@ -14,7 +14,7 @@ import java.io.IOException;
 public class DefaultApiDocumentation implements Home {
     @Override
     public Router get(HttpServletRequest req, HttpServletResponse res) throws IOException {
-        //Serialiser.getBuilder().setPrettyPrinting();
+        //Serialiser.setPrettyPrinting();
         return ApiHandler.api;
     }
 }
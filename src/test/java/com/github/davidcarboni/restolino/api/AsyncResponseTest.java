@@ -0,0 +1,213 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.framework.Timeout;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncResponseTest {
+
+    @Mock
+    Router router;
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Mock
+    AsyncContext asyncContext;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    public static class Endpoint {
+
+        @Timeout(value = 250, unit = TimeUnit.MILLISECONDS)
+        public CompletableFuture<String> slow() {
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getTimeout()).thenReturn(250L);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void shouldRespondStraightAwayIfAlreadyComplete() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+
+        // When
+        AsyncResponse.send(router, requestHandler, request, response, CompletableFuture.completedFuture("done"));
+
+        // Then
+        verify(request, never()).startAsync(any(HttpServletRequest.class), any(HttpServletResponse.class));
+        assertEquals("\"done\"", body());
+    }
+
+    @Test
+    public void shouldWaitIfAsyncNotSupported() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        when(request.isAsyncSupported()).thenReturn(false);
+        CompletableFuture.runAsync(() -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            future.complete("done");
+        });
+
+        // When
+        AsyncResponse.send(router, requestHandler, request, response, future);
+
+        // Then
+        verify(request, never()).startAsync(any(HttpServletRequest.class), any(HttpServletResponse.class));
+        assertEquals("\"done\"", body());
+    }
+
+    @Test
+    public void shouldTimeOutWaitingIfAsyncNotSupported() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+        when(request.isAsyncSupported()).thenReturn(false);
+
+        // When
+        AsyncResponse.send(router, requestHandler, request, response, new CompletableFuture<String>());
+
+        // Then
+        verify(router).handleError(eq(request), eq(response), eq(requestHandler), any(TimeoutException.class),
+                eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+    }
+
+    @Test
+    public void shouldRespondWhenComplete() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        // When
+        AsyncResponse.send(router, requestHandler, request, response, future);
+        String before = body();
+        future.complete("later");
+
+        // Then
+        verify(asyncContext).setTimeout(250);
+        assertEquals("", before);
+        assertEquals("\"later\"", body());
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void shouldPassFailureToServerError() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        IllegalStateException error = new IllegalStateException("Downstream error");
+
+        // When
+        AsyncResponse.send(router, requestHandler, request, response, future.thenApply(String::trim));
+        future.completeExceptionally(error);
+
+        // Then
+        verify(router).handleError(request, response, requestHandler, error);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void shouldRespondWithErrorOnTimeout() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        AsyncResponse.send(router, requestHandler, request, response, future);
+        ArgumentCaptor<AsyncResponse> listener = ArgumentCaptor.forClass(AsyncResponse.class);
+        verify(asyncContext).addListener(listener.capture());
+
+        // When
+        listener.getValue().onTimeout(new AsyncEvent(asyncContext));
+        future.complete("too late");
+
+        // Then
+        verify(router).handleError(eq(request), eq(response), eq(requestHandler), any(TimeoutException.class), eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        verify(asyncContext, times(1)).complete();
+        assertEquals("", body());
+    }
+
+    @Test
+    public void shouldUnwrapCompletionExceptions() {
+
+        // Given
+        IOException cause = new IOException();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        CompletionStage<Object> stage = future.thenApply(o -> o);
+
+        // When
+        Throwable[] error = new Throwable[1];
+        stage.whenComplete((result, t) -> error[0] = t);
+
+        // Then
+        assertNotSame(cause, error[0]);
+        assertSame(cause, AsyncResponse.cause(error[0]));
+    }
+
+    private RequestHandler handler() throws NoSuchMethodException, IllegalAccessException {
+        RequestHandler requestHandler = new RequestHandler();
+        requestHandler.handlerMethod = Endpoint.class.getMethod("slow");
+        requestHandler.responseMessageType = RequestHandler.responseMessageType(requestHandler.handlerMethod);
+        requestHandler.compile(RouteTemplate.endpoint("endpoint"));
+        return requestHandler;
+    }
+
+    private String body() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
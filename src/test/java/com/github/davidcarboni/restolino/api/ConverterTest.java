@@ -0,0 +1,98 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ConverterTest {
+
+    public enum Colour {
+        RED, GREEN
+    }
+
+    @Test
+    public void shouldParseNumbersInPlace() {
+
+        // Given
+        String value = "a=-123&b=9223372036854775807&c=-9223372036854775808";
+
+        // When
+        Object a = Converter.INT.convert(value, 2, 6);
+        Object b = Converter.LONG.convert(value, 9, 28);
+        Object c = Converter.LONG.convert(value, 31, value.length());
+
+        // Then
+        assertEquals(-123, a);
+        assertEquals(Long.MAX_VALUE, b);
+        assertEquals(Long.MIN_VALUE, c);
+    }
+
+    @Test
+    public void shouldRejectInvalidNumbers() {
+        for (String value : new String[]{"", "-", "1a", "9223372036854775808", "2147483648"}) {
+            try {
+                Converter.INT.convert(value);
+                fail("Expected " + value + " to be rejected");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldConvertBooleans() {
+        assertEquals(true, Converter.BOOLEAN.convert("TRUE"));
+        assertEquals(false, Converter.BOOLEAN.convert("yes"));
+        assertEquals(true, Converter.BOOLEAN.convert("?x=true&", 3, 7));
+    }
+
+    @Test
+    public void shouldConvertEnumsIgnoringCase() {
+
+        // Given
+        Converter converter = Converter.forType(Colour.class);
+
+        // When
+        Object exact = converter.convert("GREEN");
+        Object lower = converter.convert("red");
+
+        // Then
+        assertEquals(Colour.GREEN, exact);
+        assertEquals(Colour.RED, lower);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownEnum() {
+        Converter.forType(Colour.class).convert("BLUE");
+    }
+
+    @Test
+    public void shouldUseFactoryMethodsAndConstructors() {
+
+        // Given
+        UUID uuid = UUID.randomUUID();
+
+        // When
+        Object fromString = Converter.forType(UUID.class).convert(uuid.toString());
+        Object constructed = Converter.forType(BigDecimal.class).convert("1.50");
+
+        // Then
+        assertEquals(uuid, fromString);
+        assertEquals(new BigDecimal("1.50"), constructed);
+    }
+
+    @Test
+    public void shouldNotSupportUnconvertibleTypes() {
+        assertNull(Converter.forType(Runnable.class));
+    }
+
+    @Test
+    public void shouldUseZeroForAbsentPrimitives() {
+        assertEquals(0, Converter.absent(int.class));
+        assertEquals(false, Converter.absent(boolean.class));
+        assertNull(Converter.absent(Integer.class));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Flight}.
+ */
+public class FlightTest {
+
+    @Test
+    public void shouldShareResponseWithWaitingRequest() throws Exception {
+
+        // Given
+        Flight flight = new Flight();
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", "[]".getBytes(StandardCharsets.UTF_8), false, 0);
+        CompletableFuture<ResponseCache.Entry> waiting = CompletableFuture.supplyAsync(() -> flight.await(TimeUnit.SECONDS.toNanos(10)));
+
+        // When
+        flight.complete(entry);
+
+        // Then
+        assertSame(entry, waiting.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldGiveUpWaitingAfterTimeout() {
+
+        // Given
+        Flight flight = new Flight();
+
+        // When
+        long start = System.nanoTime();
+        ResponseCache.Entry entry = flight.await(TimeUnit.MILLISECONDS.toNanos(50));
+
+        // Then
+        assertNull(entry);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void shouldReleaseWaitingRequestIfResponseCantBeShared() {
+
+        // Given
+        Flight flight = new Flight();
+
+        // When
+        flight.complete(null);
+        ResponseCache.Entry entry = flight.await(TimeUnit.SECONDS.toNanos(10));
+
+        // Then
+        assertNull(entry);
+    }
+
+    @Test
+    public void shouldKeepFirstResponse() {
+
+        // Given
+        Flight flight = new Flight();
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", "[]".getBytes(StandardCharsets.UTF_8), false, 0);
+
+        // When
+        flight.complete(entry);
+        flight.complete(null);
+
+        // Then
+        assertSame(entry, flight.await(0));
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.google.gson.annotations.SerializedName;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link FormReader}.
+ */
+public class FormReaderTest {
+
+    public static class Form {
+        String name;
+        int age;
+        Long id;
+        boolean subscribe;
+        double score;
+        Size size;
+        List<String> tags;
+        @SerializedName("e-mail")
+        String email;
+        transient String ignored;
+    }
+
+    public static class Signup extends Form {
+        short code;
+    }
+
+    public static class NoDefaultConstructor {
+        String name;
+
+        NoDefaultConstructor(String name) {
+            this.name = name;
+        }
+    }
+
+    public enum Size {
+        small, large
+    }
+
+    @Test
+    public void shouldBindFields() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Form.class);
+
+        // When
+        Form form = read(formReader, "name=Jo+Bloggs&age=42&id=-7&subscribe=on&score=1.5&size=LARGE&e-mail=jo%40example.com&ignored=x");
+
+        // Then
+        assertEquals("Jo Bloggs", form.name);
+        assertEquals(42, form.age);
+        assertEquals(Long.valueOf(-7), form.id);
+        assertTrue(form.subscribe);
+        assertEquals(1.5, form.score, 0);
+        assertEquals(Size.large, form.size);
+        assertEquals("jo@example.com", form.email);
+        assertNull(form.ignored);
+    }
+
+    @Test
+    public void shouldCollectRepeatedParameters() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Form.class);
+
+        // When
+        Form form = read(formReader, "tags=a&name=x&tags=b%20c&tags=");
+
+        // Then
+        assertEquals(Arrays.asList("a", "b c"), form.tags);
+    }
+
+    @Test
+    public void shouldSkipUnknownAndEmptyParameters() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Form.class);
+
+        // When
+        Form form = read(formReader, "&unknown=%ZZ&age=&name=&subscribe&%6eame2=x&");
+
+        // Then
+        assertEquals("", form.name);
+        assertEquals(0, form.age);
+        assertFalse(form.subscribe);
+    }
+
+    @Test
+    public void shouldDecodeEscapedNames() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Form.class);
+
+        // When
+        Form form = read(formReader, "%6E%61me=%C3%A9t%C3%A9");
+
+        // Then
+        assertEquals("été", form.name);
+    }
+
+    @Test
+    public void shouldBindSuperclassFields() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Signup.class);
+
+        // When
+        Signup signup = read(formReader, "code=12&name=Jo");
+
+        // Then
+        assertEquals(12, signup.code);
+        assertEquals("Jo", signup.name);
+    }
+
+    @Test
+    public void shouldConstructWithoutDefaultConstructor() {
+
+        // Given
+        FormReader formReader = FormReader.forType(NoDefaultConstructor.class);
+
+        // When
+        NoDefaultConstructor result = read(formReader, "name=Jo");
+
+        // Then
+        assertEquals("Jo", result.name);
+    }
+
+    @Test
+    public void shouldRejectInvalidValues() {
+
+        // Given
+        FormReader formReader = FormReader.forType(Form.class);
+
+        for (String body : new String[]{"age=x", "age=99999999999", "name=%E", "size=medium"}) {
+            try {
+
+                // When
+                read(formReader, body);
+                fail("Expected a BindingException for " + body);
+            } catch (BindingException e) {
+
+                // Then
+                assertEquals(400, e.status);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectUnknownCharsets() {
+
+        for (String encoding : new String[]{"no-such-charset", "not a name!"}) {
+            try {
+
+                // When
+                FormReader.charset(encoding);
+                fail("Expected a BindingException for " + encoding);
+            } catch (BindingException e) {
+
+                // Then
+                assertEquals(415, e.status);
+            }
+        }
+        assertEquals(StandardCharsets.UTF_8, FormReader.charset(null));
+        assertEquals(StandardCharsets.ISO_8859_1, FormReader.charset("ISO-8859-1"));
+    }
+
+    @Test
+    public void shouldOnlyBindClasses() {
+
+        // When
+        FormReader string = FormReader.forType(String.class);
+        FormReader list = FormReader.forType(List.class);
+        FormReader array = FormReader.forType(Form[].class);
+
+        // Then
+        assertNull(string);
+        assertNull(list);
+        assertNull(array);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T read(FormReader formReader, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return (T) formReader.read(bytes, bytes.length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,641 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.framework.Batch;
+import com.github.davidcarboni.restolino.framework.ETag;
+import com.github.davidcarboni.restolino.json.Serialiser;
+import com.google.gson.reflect.TypeToken;
+import org.eclipse.jetty.http.MimeTypes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequestHandlerTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    public static class Message {
+        String text;
+    }
+
+    public static class LoudMessage extends Message {
+        int volume;
+    }
+
+    public static class Endpoint {
+
+        HttpServletRequest request;
+        HttpServletResponse response;
+        boolean called;
+
+        public String both(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+            return "both";
+        }
+
+        public Message echo(HttpServletResponse response, Message message, HttpServletRequest request) {
+            return message;
+        }
+
+        public void nothing() {
+            called = true;
+        }
+
+        public static int count(HttpServletRequest request) {
+            return 7;
+        }
+
+        public String item(@PathParam("id") int id, @PathParam("name") String name) {
+            return id + ":" + name;
+        }
+
+        public String search(@QueryParam("q") String q, @QueryParam("page") @DefaultValue("1") int page,
+                             @QueryParam("exact") boolean exact, @QueryParam("sort") Sort sort) {
+            return q + ":" + page + ":" + exact + ":" + sort;
+        }
+
+        public List<String> ingest(Iterator<Message> messages) {
+            List<String> result = new ArrayList<>();
+            while (messages.hasNext()) {
+                result.add(messages.next().text);
+            }
+            return result;
+        }
+
+        public List<Integer> batches(@Batch(2) Iterator<List<Message>> batches) {
+            List<Integer> result = new ArrayList<>();
+            while (batches.hasNext()) {
+                result.add(batches.next().size());
+            }
+            return result;
+        }
+
+        public Iterator<Message> rows() {
+            return null;
+        }
+
+        public Stream<Message> lines() {
+            return null;
+        }
+
+        public Iterable<String> names() {
+            return null;
+        }
+
+        public InputStream download() {
+            return null;
+        }
+
+        public List<Message> list() {
+            return null;
+        }
+
+        public CompletableFuture<List<Message>> later() {
+            return new CompletableFuture<>();
+        }
+
+        public long version(@HeaderParam("X-Version") long version) {
+            return version;
+        }
+
+        public List<Message> batch(List<Message> messages) {
+            return messages;
+        }
+
+        @GET
+        @ETag
+        public Message tagged() {
+            return null;
+        }
+    }
+
+    public enum Sort {
+        name, date
+    }
+
+    @Test
+    public void shouldBindRequestAndResponse() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("both", null, HttpServletRequest.class, HttpServletResponse.class);
+        Endpoint endpoint = new Endpoint();
+
+        // When
+        Object result = requestHandler.invoke(endpoint, request, response, null);
+
+        // Then
+        assertEquals("both", result);
+        assertSame(request, endpoint.request);
+        assertSame(response, endpoint.response);
+    }
+
+    @Test
+    public void shouldBindMessageInAnyPosition() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("echo", Message.class, HttpServletResponse.class, Message.class, HttpServletRequest.class);
+        when(request.getInputStream()).thenReturn(body("{\"text\":\"hello\"}"));
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals("hello", ((Message) result).text);
+    }
+
+    @Test
+    public void shouldReturnNullForVoid() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("nothing", null);
+        Endpoint endpoint = new Endpoint();
+
+        // When
+        Object result = requestHandler.invoke(endpoint, request, response, null);
+
+        // Then
+        assertNull(result);
+        assertTrue(endpoint.called);
+    }
+
+    @Test
+    public void shouldInvokeStaticMethod() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("count", null, HttpServletRequest.class);
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals(7, result);
+    }
+
+    @Test
+    public void shouldBindPathVariables() throws Throwable {
+
+        // Given
+        RouteTemplate template = RouteTemplate.parse("/items/{id}/{name}");
+        RequestHandler requestHandler = handler(template, "item", null, int.class, String.class);
+        RouteMatch match = match(template, "/items/12/twelve");
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, match);
+
+        // Then
+        assertEquals("12:twelve", result);
+    }
+
+    @Test(expected = BindingException.class)
+    public void shouldNotMatchPathVariableOfWrongType() throws Throwable {
+
+        // Given
+        RouteTemplate template = RouteTemplate.parse("/items/{id}/{name}");
+        RequestHandler requestHandler = handler(template, "item", null, int.class, String.class);
+        RouteMatch match = match(template, "/items/twelve/twelve");
+
+        // When
+        requestHandler.invoke(new Endpoint(), request, response, match);
+
+        // Then
+        // Exception
+    }
+
+    @Test
+    public void shouldBindQueryParameters() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("search", null, String.class, int.class, boolean.class, Sort.class);
+        when(request.getQueryString()).thenReturn("other=x&q=green+eggs%26ham&sort=DATE&exact=true&page=3");
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals("green eggs&ham:3:true:date", result);
+    }
+
+    @Test
+    public void shouldBindFirstValueOfRepeatedQueryParameter() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("search", null, String.class, int.class, boolean.class, Sort.class);
+        when(request.getQueryString()).thenReturn("page=2&q=first&%71=second&page=5&q=third");
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals("first:2:false:null", result);
+    }
+
+    @Test
+    public void shouldUseDefaultsForMissingQueryParameters() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("search", null, String.class, int.class, boolean.class, Sort.class);
+        when(request.getQueryString()).thenReturn("qq=1&exact");
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals("null:1:false:null", result);
+    }
+
+    @Test
+    public void shouldNotMatchQueryParameterOfWrongType() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("search", null, String.class, int.class, boolean.class, Sort.class);
+        when(request.getQueryString()).thenReturn("sort=size");
+
+        // When
+        try {
+            requestHandler.invoke(new Endpoint(), request, response, null);
+            fail("Expected a binding exception");
+        } catch (BindingException e) {
+
+            // Then
+            assertEquals(HttpServletResponse.SC_NOT_FOUND, e.status);
+        }
+    }
+
+    @Test
+    public void shouldBindHeader() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("version", null, long.class);
+        when(request.getHeader("X-Version")).thenReturn("-42");
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals(-42L, result);
+    }
+
+    @Test
+    public void shouldRejectHeaderOfWrongType() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("version", null, long.class);
+        when(request.getHeader("X-Version")).thenReturn("latest");
+
+        // When
+        try {
+            requestHandler.invoke(new Endpoint(), request, response, null);
+            fail("Expected a binding exception");
+        } catch (BindingException e) {
+
+            // Then
+            assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.status);
+        }
+    }
+
+    @Test
+    public void shouldDeserialiseGenericMessageType() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("batch", List.class, List.class);
+        when(request.getInputStream()).thenReturn(body("[{\"text\":\"green\"},{\"text\":\"eggs\"}]"));
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        List<?> messages = (List<?>) result;
+        assertEquals(2, messages.size());
+        assertEquals("eggs", ((Message) messages.get(1)).text);
+    }
+
+    @Test
+    public void shouldBindFormToMessage() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("echo", Message.class, HttpServletResponse.class, Message.class, HttpServletRequest.class);
+        when(request.getContentType()).thenReturn("application/x-www-form-urlencoded; charset=UTF-8");
+        when(request.getInputStream()).thenReturn(body("other=1&text=green+eggs+%26+ham"));
+
+        // When
+        Object message = requestHandler.readRequest(request);
+
+        // Then
+        assertNotNull(requestHandler.formReader);
+        assertEquals("green eggs & ham", ((Message) message).text);
+    }
+
+    @Test
+    public void shouldSendETagForTaggedMethod() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("tagged", null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        Message message = new Message();
+        message.text = "ham";
+
+        // When
+        requestHandler.writeResponse(request, response, message);
+
+        // Then
+        assertTrue(requestHandler.etag);
+        assertFalse(handler("echo", Message.class, HttpServletResponse.class, Message.class, HttpServletRequest.class).etag);
+        verify(response).setHeader(eq("ETag"), anyString());
+        assertEquals("{\"text\":\"ham\"}", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldNotSerialiseIfHandlerVersionMatches() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("tagged", null);
+        when(response.containsHeader("ETag")).thenReturn(true);
+        when(response.getHeader("ETag")).thenReturn("\"v7\"");
+        when(request.getHeader("If-None-Match")).thenReturn("\"v7\"");
+
+        // When
+        requestHandler.writeResponse(request, response, new Message());
+
+        // Then
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void shouldSerialiseSubclassByRuntimeType() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("echo", Message.class, HttpServletResponse.class, Message.class, HttpServletRequest.class);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        LoudMessage message = new LoudMessage();
+        message.text = "ham";
+        message.volume = 11;
+
+        // When
+        requestHandler.writeResponse(request, response, message);
+
+        // Then
+        assertEquals("{\"volume\":11,\"text\":\"ham\"}", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldResolveAdaptersAgainWhenGsonIsRebuilt() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("echo", Message.class, HttpServletResponse.class, Message.class, HttpServletRequest.class);
+        RequestHandler.MessageAdapters warm = requestHandler.adapters();
+
+        // When
+        RequestHandler.MessageAdapters same = requestHandler.adapters();
+        Serialiser.setDateFormat(Serialiser.toUTCStringDateFormat);
+        RequestHandler.MessageAdapters rebuilt = requestHandler.adapters();
+
+        // Then
+        assertNotNull(warm.request);
+        assertNotNull(warm.response);
+        assertSame(warm, same);
+        assertNotSame(warm, rebuilt);
+        assertSame(Serialiser.getGson(), rebuilt.gson);
+    }
+
+    @Test
+    public void shouldStreamRequestMessages() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("ingest", Iterator.class, Iterator.class);
+        when(request.getContentType()).thenReturn("application/x-ndjson");
+        when(request.getInputStream()).thenReturn(body("{\"text\":\"green\"}\n{\"text\":\"eggs\"}\n"));
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertTrue(requestHandler.requestStreamed);
+        assertEquals(Message.class, requestHandler.requestMessageGenericType);
+        assertEquals(Arrays.asList("green", "eggs"), result);
+    }
+
+    @Test
+    public void shouldBatchRequestMessages() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("batches", Iterator.class, Iterator.class);
+        when(request.getInputStream()).thenReturn(body("[{\"text\":\"a\"},{\"text\":\"b\"},{\"text\":\"c\"},{\"text\":\"d\"},{\"text\":\"e\"}]"));
+
+        // When
+        Object result = requestHandler.invoke(new Endpoint(), request, response, null);
+
+        // Then
+        assertEquals(2, requestHandler.requestBatchSize);
+        assertEquals(Message.class, requestHandler.requestMessageGenericType);
+        assertEquals(Arrays.asList(2, 2, 1), result);
+    }
+
+    @Test
+    public void shouldStreamIteratorAsJsonArray() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("rows", null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        Message first = new Message();
+        first.text = "green";
+        LoudMessage second = new LoudMessage();
+        second.text = "eggs";
+        second.volume = 3;
+
+        // When
+        requestHandler.writeResponse(request, response, Arrays.asList(first, null, second).iterator());
+
+        // Then
+        assertEquals(RequestHandler.StreamType.ITERATOR, requestHandler.responseStreamType);
+        assertEquals(Message.class, requestHandler.responseAdapterType);
+        assertEquals("[{\"text\":\"green\"},null,{\"volume\":3,\"text\":\"eggs\"}]",
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+        verify(response).setContentType(MimeTypes.Type.APPLICATION_JSON_UTF_8.asString());
+    }
+
+    @Test
+    public void shouldStreamNewlineDelimitedJsonIfAccepted() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("lines", null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        when(request.getHeader("Accept")).thenReturn("application/x-ndjson");
+        Message first = new Message();
+        first.text = "green";
+        Message second = new Message();
+        second.text = "ham";
+        final boolean[] closed = new boolean[1];
+        Stream<Message> stream = Stream.of(first, second).onClose(() -> closed[0] = true);
+
+        // When
+        requestHandler.writeResponse(request, response, stream);
+
+        // Then
+        assertEquals("{\"text\":\"green\"}\n{\"text\":\"ham\"}\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+        verify(response).setContentType(Serialiser.NDJSON_CONTENT_TYPE);
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void shouldStreamIterable() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("names", null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+
+        // When
+        requestHandler.writeResponse(request, response, Arrays.asList("a", "b"));
+
+        // Then
+        assertEquals("[\"a\",\"b\"]", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldCopyInputStream() throws Throwable {
+
+        // Given
+        RequestHandler requestHandler = handler("download", null);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        byte[] bytes = {0, 1, 2, (byte) 0xFF};
+
+        // When
+        requestHandler.writeResponse(request, response, new ByteArrayInputStream(bytes));
+
+        // Then
+        assertArrayEquals(bytes, output.toByteArray());
+        verify(response).setContentType(RequestHandler.OCTET_STREAM);
+    }
+
+    @Test
+    public void shouldNotStreamCollections() throws Throwable {
+
+        // When
+        RequestHandler requestHandler = handler("list", null);
+
+        // Then
+        assertNull(requestHandler.responseStreamType);
+        assertEquals(List.class, requestHandler.responseAdapterType);
+    }
+
+    @Test
+    public void shouldUseResultTypeForAsyncMethod() throws Throwable {
+
+        // When
+        RequestHandler requestHandler = handler("later", null);
+
+        // Then
+        assertTrue(requestHandler.async);
+        assertEquals(0, requestHandler.timeout);
+        assertEquals(List.class, requestHandler.responseMessageType);
+        assertEquals(new TypeToken<List<Message>>() {
+        }.getType(), requestHandler.responseMessageGenericType);
+        assertFalse(handler("nothing", null).async);
+    }
+
+    private static RequestHandler handler(String name, Class<?> requestMessageType, Class<?>... parameterTypes) throws NoSuchMethodException, IllegalAccessException {
+        return handler(RouteTemplate.endpoint("endpoint"), name, requestMessageType, parameterTypes);
+    }
+
+    private static RequestHandler handler(RouteTemplate template, String name, Class<?> requestMessageType, Class<?>... parameterTypes) throws NoSuchMethodException, IllegalAccessException {
+        RequestHandler requestHandler = new RequestHandler();
+        requestHandler.handlerMethod = Endpoint.class.getMethod(name, parameterTypes);
+        requestHandler.requestMessageType = requestMessageType;
+        requestHandler.responseMessageType = RequestHandler.responseMessageType(requestHandler.handlerMethod);
+        requestHandler.compile(template);
+        return requestHandler;
+    }
+
+    private static RouteMatch match(RouteTemplate template, String path) {
+        Route route = new Route();
+        route.template = template;
+        return new RouteTree(Collections.singletonList(route)).match(path);
+    }
+
+    private static ServletOutputStream output(final ByteArrayOutputStream output) {
+        return new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        };
+    }
+
+    private static ServletInputStream body(String json) {
+        final ByteArrayInputStream input = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                // Not needed
+            }
+
+            @Override
+            public int read() throws IOException {
+                return input.read();
+            }
+        };
+    }
+}
@@ -0,0 +1,319 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.framework.Cached;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ResponseCache}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseCacheTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    public static class Endpoint {
+
+        @GET
+        @Cached(ttl = 1)
+        public String byQuery() {
+            return null;
+        }
+
+        @GET
+        @Cached(ttl = 1, varyByQuery = false, varyByHeaders = "Accept-Language")
+        public String byHeader() {
+            return null;
+        }
+    }
+
+    @After
+    public void reset() {
+        ResponseCache.setMaxBytes(ResponseCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void shouldNormaliseQueryInKey() throws NoSuchMethodException {
+
+        // Given
+        Cached cached = Endpoint.class.getMethod("byQuery").getAnnotation(Cached.class);
+        when(request.getPathInfo()).thenReturn("/products");
+        when(request.getQueryString()).thenReturn("page=2&tag=b&&category=x&tag=a");
+
+        // When
+        String key = ResponseCache.key(request, RouteTemplate.endpoint("products"), cached);
+
+        // Then
+        assertEquals("/products?category=x&page=2&tag=b&tag=a", key);
+    }
+
+    @Test
+    public void shouldVaryByHeaders() throws NoSuchMethodException {
+
+        // Given
+        Cached cached = Endpoint.class.getMethod("byHeader").getAnnotation(Cached.class);
+        when(request.getPathInfo()).thenReturn("/products");
+        when(request.getQueryString()).thenReturn("page=2");
+        when(request.getHeader("Accept-Language")).thenReturn("fr");
+
+        // When
+        String key = ResponseCache.key(request, RouteTemplate.endpoint("products"), cached);
+
+        // Then
+        assertEquals("/products\nAccept-Language:fr", key);
+    }
+
+    @Test
+    public void shouldKeyPathsTheWayTheyAreRouted() throws NoSuchMethodException {
+
+        // Given
+        Cached cached = Endpoint.class.getMethod("byQuery").getAnnotation(Cached.class);
+        RouteTemplate template = RouteTemplate.parse(false, "/products/{id}");
+        ResponseCache cache = new ResponseCache();
+
+        // When
+        String upper = ResponseCache.key(request("/Products/1"), template, cached);
+        String lower = ResponseCache.key(request("/products/1"), template, cached);
+        String slashes = ResponseCache.key(request("//products//1/"), template, cached);
+        String variable = ResponseCache.key(request("/products/AbC"), template, cached);
+        cache.put(upper, entry("/products/{id}", 10, 60));
+        cache.put(variable, entry("/products/{id}", 10, 60));
+        cache.put("/productsearch", entry("productsearch", 10, 60));
+        int removed = cache.invalidate("//Products/");
+
+        // Then
+        assertEquals("/products/1", upper);
+        assertEquals(upper, lower);
+        assertEquals(upper, slashes);
+        assertEquals("/products/AbC", variable);
+        assertEquals(2, removed);
+        assertNotNull(cache.get("/productsearch"));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedWhenFull() {
+
+        // Given
+        ResponseCache.setMaxBytes(4 * (ResponseCache.ENTRY_OVERHEAD + 100));
+        ResponseCache cache = new ResponseCache();
+        cache.put("/a", entry("a", 100, 60));
+        cache.put("/b", entry("b", 100, 60));
+        cache.put("/c", entry("c", 100, 60));
+        cache.put("/d", entry("d", 100, 60));
+        cache.get("/a");
+
+        // When
+        cache.put("/e", entry("e", 100, 60));
+
+        // Then
+        assertEquals(4, cache.count());
+        assertNotNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/e"));
+        assertEquals(4 * (ResponseCache.ENTRY_OVERHEAD + 100), cache.bytes());
+    }
+
+    @Test
+    public void shouldNotCacheOversizedResponse() {
+
+        // Given
+        ResponseCache.setMaxBytes(1000);
+        ResponseCache cache = new ResponseCache();
+
+        // When
+        cache.put("/big", entry("big", 500, 60));
+
+        // Then
+        assertEquals(0, cache.count());
+        assertNull(cache.get("/big"));
+    }
+
+    @Test
+    public void shouldExpireResponses() {
+
+        // Given
+        ResponseCache cache = new ResponseCache();
+        cache.put("/old", entry("old", 10, 0));
+
+        // When
+        ResponseCache.Entry entry = cache.get("/old");
+
+        // Then
+        assertNull(entry);
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void shouldInvalidateByPrefixAndRoute() {
+
+        // Given
+        ResponseCache cache = new ResponseCache();
+        cache.put("/products", entry("products", 10, 60));
+        cache.put("/products?page=2", entry("products", 10, 60));
+        cache.put("/products/1", entry("/products/{id}", 10, 60));
+        cache.put("/users", entry("users", 10, 60));
+
+        // When
+        int byRoute = cache.invalidateRoute("/products/{id}");
+        int byPrefix = cache.invalidate("/products");
+
+        // Then
+        assertEquals(1, byRoute);
+        assertEquals(2, byPrefix);
+        assertEquals(1, cache.count());
+        assertNotNull(cache.get("/users"));
+    }
+
+    @Test
+    public void shouldNotSendGzipIfRefused() {
+
+        // Then
+        assertTrue(ResponseCache.acceptsGzip("gzip;q=0.5"));
+        assertTrue(ResponseCache.acceptsGzip("identity, *"));
+        assertFalse(ResponseCache.acceptsGzip("gzip;q=0"));
+        assertFalse(ResponseCache.acceptsGzip("gzip; Q=0.000"));
+        assertFalse(ResponseCache.acceptsGzip("deflate, br"));
+        assertFalse(ResponseCache.acceptsGzip(null));
+    }
+
+    @Test
+    public void shouldSendGzipVariantIfAccepted() throws IOException {
+
+        // Given
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", json(2000), true, 60_000_000_000L);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+
+        // When
+        ResponseCache.write(entry, false, request, response);
+
+        // Then
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        verify(response).setContentLength(entry.gzip.length);
+        assertArrayEquals(entry.body, gunzip(output.toByteArray()));
+    }
+
+    @Test
+    public void shouldSendIdentityIfGzipNotAccepted() throws IOException {
+
+        // Given
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", json(2000), true, 60_000_000_000L);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(output(output));
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+
+        // When
+        ResponseCache.write(entry, false, request, response);
+
+        // Then
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertArrayEquals(entry.body, output.toByteArray());
+    }
+
+    @Test
+    public void shouldSendNotModifiedForCachedETag() throws IOException {
+
+        // Given
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", json(10), false, 60_000_000_000L);
+        when(request.getHeader("If-None-Match")).thenReturn(entry.etag);
+
+        // When
+        ResponseCache.write(entry, true, request, response);
+
+        // Then
+        verify(response).setHeader("ETag", entry.etag);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void shouldTagGzipVariantSeparately() throws IOException {
+
+        // Given
+        ResponseCache.Entry entry = new ResponseCache.Entry("products", json(2000), true, 60_000_000_000L);
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        when(request.getHeader("If-None-Match")).thenReturn(entry.etag);
+
+        // When
+        ResponseCache.write(entry, true, request, response);
+
+        // Then
+        assertEquals(entry.etag.replace("\"", "") + "-gz", entry.gzipEtag.replace("\"", ""));
+        verify(response).setHeader("ETag", entry.gzipEtag);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getOutputStream();
+    }
+
+    private static HttpServletRequest request(String path) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getPathInfo()).thenReturn(path);
+        return request;
+    }
+
+    private static ResponseCache.Entry entry(String route, int size, long ttlSeconds) {
+        return new ResponseCache.Entry(route, new byte[size], false, ttlSeconds * 1_000_000_000L);
+    }
+
+    private static byte[] json(int size) {
+        StringBuilder json = new StringBuilder("[");
+        while (json.length() < size) {
+            json.append("\"green eggs and ham\",");
+        }
+        json.append("\"spam\"]");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static ServletOutputStream output(final ByteArrayOutputStream output) {
+        return new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.helpers.Path;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RouteTree} with the previous approach of splitting the path
+ * with {@link Path}, lowercasing the first segment and looking it up in a
+ * {@link HashMap}. The tree also holds some path templates, to show that
+ * endpoint name lookups don't slow down as templates are added.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.davidcarboni.restolino.api.RouteLookupBenchmark</code>.
+ * This adds the JMH <code>gc</code> profiler so you can compare allocation
+ * (<code>gc.alloc.rate.norm</code>) as well as time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteLookupBenchmark {
+
+    Map<String, Route> api;
+    RouteTree routeTree;
+    HttpServletRequest request;
+    String path = "/Customers/1234/orders";
+
+    @Setup
+    public void setup() {
+        api = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            api.put("endpoint" + i, new Route());
+        }
+        api.put("customers", new Route());
+        for (Map.Entry<String, Route> entry : api.entrySet()) {
+            entry.getValue().template = RouteTemplate.endpoint(entry.getKey());
+        }
+        for (int i = 0; i < 50; i++) {
+            Route route = new Route();
+            route.template = RouteTemplate.parse("/resource" + i + "/{id: \\d+}/items/{item}");
+            api.put(route.template.toString(), route);
+        }
+        routeTree = new RouteTree(api.values());
+
+        request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return "getPathInfo".equals(method.getName()) ? path : null;
+                    }
+                });
+    }
+
+    @Benchmark
+    public Route pathSplitAndHashMap() {
+        String endpointName = Path.newInstance(request).firstSegment();
+        return api.get(StringUtils.lowerCase(endpointName));
+    }
+
+    @Benchmark
+    public RouteMatch routeTree() {
+        return routeTree.match(request.getPathInfo());
+    }
+
+    @Benchmark
+    public RouteMatch routeTreeTemplate() {
+        return routeTree.match("/resource7/1234/items/abc");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RouteLookupBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.davidcarboni.restolino.api;
+
+import com.github.davidcarboni.restolino.framework.Api;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteTest {
+
+    @Api
+    public static class PerRequest {
+    }
+
+    @Api(threadSafe = true)
+    public static class Shared {
+    }
+
+    @Api
+    public static class NoDefaultConstructor {
+        public NoDefaultConstructor(String value) {
+        }
+    }
+
+    @Test
+    public void shouldCreateInstancePerRequest() throws Throwable {
+
+        // Given
+        Route route = route(PerRequest.class);
+
+        // When
+        Object first = route.endpoint();
+        Object second = route.endpoint();
+
+        // Then
+        assertTrue(first instanceof PerRequest);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void shouldShareThreadSafeInstance() throws Throwable {
+
+        // Given
+        Route route = route(Shared.class);
+
+        // When
+        Object first = route.endpoint();
+        Object second = route.endpoint();
+
+        // Then
+        assertTrue(first instanceof Shared);
+        assertSame(first, second);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void shouldFailWithoutNoArgConstructor() throws Throwable {
+
+        // Given
+        Route route = route(NoDefaultConstructor.class);
+
+        // When
+        route.endpoint();
+
+        // Then
+        // Exception
+    }
+
+    private static Route route(Class<?> endpointClass) {
+        Route route = new Route();
+        route.endpointClass = endpointClass;
+        route.compile();
+        return route;
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteTreeTest {
+
+    Route users;
+    Route user;
+    Route me;
+    Route orders;
+    Route named;
+    Route account;
+    RouteTree routeTree;
+
+    @Before
+    public void setUp() {
+        List<Route> routes = new ArrayList<>();
+        routes.add(users = route(RouteTemplate.endpoint("users")));
+        routes.add(user = route(RouteTemplate.parse("/users/{id: \\d+}")));
+        routes.add(me = route(RouteTemplate.parse("users", "me")));
+        routes.add(orders = route(RouteTemplate.parse("/users/{id: \\d+}", "/orders/{orderId}")));
+        routes.add(named = route(RouteTemplate.parse("/users/{name}")));
+        routes.add(account = route(RouteTemplate.parse(true, "/accounts/{id}")));
+        routeTree = new RouteTree(routes);
+    }
+
+    @Test
+    public void shouldMatchEndpointName() {
+
+        // When
+        RouteMatch match = routeTree.match("/USERS");
+
+        // Then
+        assertSame(users, match.route);
+    }
+
+    @Test
+    public void shouldPreferLiteral() {
+
+        // When
+        RouteMatch match = routeTree.match("/users/me");
+
+        // Then
+        assertSame(me, match.route);
+    }
+
+    @Test
+    public void shouldParseNumericVariables() {
+
+        // When
+        RouteMatch match = routeTree.match("/users/42/orders/abc-1");
+
+        // Then
+        assertSame(orders, match.route);
+        assertEquals(42, match.number(0));
+        assertEquals("42", match.variable(0));
+        assertEquals("abc-1", match.variable(1));
+    }
+
+    @Test
+    public void shouldPreferNumericVariable() {
+
+        // When
+        RouteMatch number = routeTree.match("/users/7");
+        RouteMatch name = routeTree.match("/users/seven");
+
+        // Then
+        assertSame(user, number.route);
+        assertSame(named, name.route);
+        assertEquals("seven", name.variable(0));
+    }
+
+    @Test
+    public void shouldFallBackToEndpointName() {
+
+        // When
+        RouteMatch match = routeTree.match("/users/42/something/else");
+
+        // Then
+        assertSame(users, match.route);
+    }
+
+    @Test
+    public void shouldMatchBelowTemplateWithVariables() {
+
+        // When
+        RouteMatch exact = routeTree.match("/accounts/9");
+        RouteMatch below = routeTree.match("/accounts/10/statements/2019");
+
+        // Then
+        assertSame(account, exact.route);
+        assertEquals("9", exact.variable(0));
+        assertSame(account, below.route);
+        assertEquals("10", below.variable(0));
+    }
+
+    @Test
+    public void shouldNotMatchUnknown() {
+
+        // Then
+        assertNull(routeTree.match(null));
+        assertNull(routeTree.match("/"));
+        assertNull(routeTree.match("/unknown/42"));
+    }
+
+    @Test
+    public void shouldParseNegativeNumber() {
+
+        // Given
+        RouteMatch match = routeTree.match("/users/-12");
+
+        // When
+        long number = match.parseNumber(0);
+
+        // Then
+        assertSame(named, match.route);
+        assertEquals(-12, number);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedRegex() {
+
+        // When
+        RouteTemplate.parse("/users/{id: [a-z]+}");
+
+        // Then
+        // Exception
+    }
+
+    private static Route route(RouteTemplate template) {
+        Route route = new Route();
+        route.template = template;
+        return route;
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.davidcarboni.restolino.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SegmentTableTest {
+
+    Map<String, Route> api;
+    SegmentTable<Route> segmentTable;
+
+    @Before
+    public void setUp() {
+        api = new HashMap<>();
+        for (String name : new String[]{"users", "orders", "user", "a", "reports"}) {
+            api.put(name, new Route());
+        }
+        segmentTable = new SegmentTable<>(api);
+    }
+
+    @Test
+    public void shouldMatchSegment() {
+
+        // Given
+        String path = "/users/123/orders";
+
+        // When
+        Route route = segmentTable.get(path, 1, 6);
+
+        // Then
+        assertSame(api.get("users"), route);
+    }
+
+    @Test
+    public void shouldMatchCaseInsensitively() {
+
+        // When
+        Route route = segmentTable.get("/OrDeRs", 1, 7);
+
+        // Then
+        assertSame(api.get("orders"), route);
+    }
+
+    @Test
+    public void shouldNotMatchPrefix() {
+
+        // When
+        Route user = segmentTable.get("/user/7", 1, 5);
+        Route use = segmentTable.get("/use", 1, 4);
+
+        // Then
+        assertSame(api.get("user"), user);
+        assertNull(use);
+    }
+
+    @Test
+    public void shouldHandleEmptySegment() {
+
+        // Then
+        assertNull(segmentTable.get("/", 1, 1));
+        assertNull(segmentTable.get("/unknown", 1, 8));
+    }
+
+    @Test
+    public void shouldHandleEmptyTable() {
+
+        // Given
+        SegmentTable<Route> empty = new SegmentTable<>(new HashMap<String, Route>());
+
+        // Then
+        assertNull(empty.get("/users", 1, 6));
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link Conditional}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ConditionalTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Test
+    public void shouldMatchETags() {
+
+        // Then
+        assertTrue(Conditional.matches("\"a\"", "\"a\""));
+        assertTrue(Conditional.matches("\"x\", \"a\"", "\"a\""));
+        assertTrue(Conditional.matches("\"x\",W/\"a\" ", "\"a\""));
+        assertTrue(Conditional.matches("\"a\"", "W/\"a\""));
+        assertTrue(Conditional.matches("*", "\"a\""));
+        assertFalse(Conditional.matches("\"ab\"", "\"a\""));
+        assertFalse(Conditional.matches("\"a\"", null));
+        assertFalse(Conditional.matches(null, "\"a\""));
+        assertFalse(Conditional.matches("", "\"a\""));
+    }
+
+    @Test
+    public void shouldComputeDifferentETagsForDifferentContent() {
+
+        // Given
+        byte[] a = "{\"items\":[1,2,3],\"name\":\"green eggs\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] b = "{\"items\":[1,2,3],\"name\":\"green eggz\"}".getBytes(StandardCharsets.UTF_8);
+
+        // When
+        String etagA = Conditional.etag(a, 0, a.length);
+        String etagB = Conditional.etag(b, 0, b.length);
+        String shorter = Conditional.etag(a, 0, a.length - 1);
+
+        // Then
+        assertEquals(18, etagA.length());
+        assertTrue(etagA.startsWith("\"") && etagA.endsWith("\""));
+        assertEquals(etagA, Conditional.etag(a.clone(), 0, a.length));
+        assertNotEquals(etagA, etagB);
+        assertNotEquals(etagA, shorter);
+    }
+
+    @Test
+    public void shouldSetNotModifiedForCurrentVersion() {
+
+        // Given
+        when(request.getHeader(Conditional.IF_NONE_MATCH)).thenReturn("\"42\"");
+        when(response.getHeader(Conditional.ETAG)).thenReturn("\"42\"");
+
+        // When
+        boolean notModified = Conditional.notModified(request, response, "42");
+
+        // Then
+        assertTrue(notModified);
+        verify(response).setHeader(Conditional.ETAG, "\"42\"");
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void shouldNotSetNotModifiedForOldVersion() {
+
+        // Given
+        when(request.getHeader(Conditional.IF_NONE_MATCH)).thenReturn("\"41\"");
+        when(response.getHeader(Conditional.ETAG)).thenReturn("\"42\"");
+
+        // When
+        boolean notModified = Conditional.notModified(request, response, "42");
+
+        // Then
+        assertFalse(notModified);
+        verify(response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void shouldCompareLastModified() {
+
+        // Given
+        long lastModified = 1500000000000L;
+        when(request.getDateHeader(Conditional.IF_MODIFIED_SINCE)).thenReturn(lastModified + 500);
+        when(response.getHeader(Conditional.LAST_MODIFIED)).thenReturn("Fri, 14 Jul 2017 02:40:00 GMT");
+
+        // When
+        boolean notModified = Conditional.notModified(request, response, lastModified);
+
+        // Then
+        assertTrue(notModified);
+        verify(response).setDateHeader(Conditional.LAST_MODIFIED, lastModified);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void shouldPreferIfNoneMatchToIfModifiedSince() {
+
+        // Given
+        when(request.getHeader(Conditional.IF_NONE_MATCH)).thenReturn("\"old\"");
+        when(request.getDateHeader(Conditional.IF_MODIFIED_SINCE)).thenReturn(Long.MAX_VALUE);
+        when(response.getHeader(Conditional.ETAG)).thenReturn("\"new\"");
+        when(response.getHeader(Conditional.LAST_MODIFIED)).thenReturn("Fri, 14 Jul 2017 02:40:00 GMT");
+
+        // When
+        boolean notModified = Conditional.notModified(request, response);
+
+        // Then
+        assertFalse(notModified);
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link Events} and {@link EventStream}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EventsTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Mock
+    AsyncContext asyncContext;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    volatile boolean ready = true;
+
+    @Before
+    public void setUp() throws IOException {
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return ready;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // The container would call onWritePossible() next
+            }
+
+            @Override
+            public void write(int b) {
+                synchronized (output) {
+                    output.write(b);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void shouldEncodeEvents() {
+
+        // When
+        String named = new String(Events.encode("price", Collections.singletonMap("ACME", 42)), StandardCharsets.UTF_8);
+        String text = new String(Events.encode(null, "line one\nline two"), StandardCharsets.UTF_8);
+
+        // Then
+        assertEquals("event: price\ndata: {\"ACME\":42}\n\n", named);
+        assertEquals("data: line one\ndata: line two\n\n", text);
+    }
+
+    @Test
+    public void shouldSendPublishedEventsToSubscribers() throws IOException {
+
+        // Given
+        EventStream stream = Events.subscribe("test/publish");
+        stream.open(request, response);
+        stream.onWritePossible();
+
+        // When
+        int subscribers = Events.publish("test/publish", "greeting", "hello");
+        int nobody = Events.publish("test/nobody", "greeting", "hello");
+
+        // Then
+        assertEquals(1, subscribers);
+        assertEquals(0, nobody);
+        assertEquals(":ok\n\nevent: greeting\ndata: hello\n\n", awaitOutput("hello\n\n"));
+        verify(response).setContentType(EventStream.CONTENT_TYPE);
+        verify(asyncContext).setTimeout(0);
+        stream.close();
+    }
+
+    @Test
+    public void shouldDropOldestEventsForSlowClient() throws IOException {
+
+        // Given
+        ready = false;
+        EventStream stream = Events.subscribe("test/slow").queueSize(2);
+        stream.open(request, response);
+        long dropped = Events.metrics().dropped;
+
+        // When
+        stream.send(null, "1");
+        stream.send(null, "2");
+        stream.send(null, "3");
+        ready = true;
+        stream.onWritePossible();
+
+        // Then
+        assertEquals("data: 2\n\ndata: 3\n\n", output());
+        assertEquals(dropped + 2, Events.metrics().dropped);
+        stream.close();
+    }
+
+    @Test
+    public void shouldDisconnectSlowClientIfAsked() throws IOException {
+
+        // Given
+        ready = false;
+        EventStream stream = Events.subscribe("test/disconnect").queueSize(1).overflow(EventStream.Overflow.DISCONNECT);
+        stream.open(request, response);
+        long disconnected = Events.metrics().disconnected;
+
+        // When
+        stream.send(null, "1");
+        boolean sent = stream.send(null, "2");
+
+        // Then
+        assertFalse(sent);
+        assertTrue(stream.isClosed());
+        verify(asyncContext).complete();
+        assertEquals(disconnected + 1, Events.metrics().disconnected);
+        assertNull(Events.metrics().topics.get("test/disconnect"));
+    }
+
+    @Test
+    public void shouldCountConnectionsByTopic() throws IOException {
+
+        // Given
+        EventStream a = Events.subscribe("test/count", "test/count/a");
+        EventStream b = Events.subscribe("test/count");
+        int connections = Events.metrics().connections;
+
+        // When
+        a.open(request, response);
+        b.open(request, response);
+        Events.Metrics open = Events.metrics();
+        a.close();
+        Events.Metrics closed = Events.metrics();
+        b.close();
+
+        // Then
+        assertEquals(connections + 2, open.connections);
+        assertEquals(Integer.valueOf(2), open.topics.get("test/count"));
+        assertEquals(Integer.valueOf(1), open.topics.get("test/count/a"));
+        assertEquals(connections + 1, closed.connections);
+        assertEquals(Integer.valueOf(1), closed.topics.get("test/count"));
+        assertNull(closed.topics.get("test/count/a"));
+    }
+
+    @Test
+    public void shouldOnlySendHeartbeatWhenIdle() throws IOException {
+
+        // Given
+        ready = false;
+        EventStream stream = Events.subscribe("test/heartbeat");
+        stream.open(request, response);
+
+        // When
+        stream.heartbeat();
+        ready = true;
+        stream.onWritePossible();
+        stream.heartbeat();
+
+        // Then
+        assertEquals(":ok\n\n:\n\n", output());
+        stream.close();
+    }
+
+    private String output() {
+        synchronized (output) {
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String awaitOutput(String suffix) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!output().endsWith(suffix) && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        return output();
+    }
+}
@@ -0,0 +1,356 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link Multipart}.
+ */
+public class MultipartTest {
+
+    static final String BOUNDARY = "----boundary1234";
+
+    Multipart multipart;
+
+    @After
+    public void close() {
+        if (multipart != null) {
+            multipart.close();
+        }
+    }
+
+    @Test
+    public void shouldReadFieldsAndFiles() throws IOException {
+
+        // Given
+        String body = "preamble\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"title\"\r\n" +
+                "\r\n" +
+                "Hello\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "line one\r\nline two\r\n" +
+                "--" + BOUNDARY + "--\r\n";
+        multipart = multipart(body, 1000, 1000);
+
+        // When
+        Multipart.Part title = multipart.next();
+        String titleValue = title.getString();
+        Multipart.Part file = multipart.next();
+        String fileValue = read(file.getInputStream());
+        Multipart.Part end = multipart.next();
+
+        // Then
+        assertEquals("title", title.name);
+        assertNull(title.filename);
+        assertEquals("Hello", titleValue);
+        assertEquals("file", file.name);
+        assertEquals("a.txt", file.filename);
+        assertEquals("text/plain", file.contentType);
+        assertEquals("line one\r\nline two", fileValue);
+        assertNull(end);
+        assertNull(multipart.next());
+    }
+
+    @Test
+    public void shouldReadPartsSplitAcrossReads() throws IOException {
+
+        // Given
+        // A part that contains near-misses for the delimiter, read a few bytes at a time:
+        String content = repeat("\r\n--" + BOUNDARY.substring(0, 10) + "x", 2000);
+        String body = part("big", "big.bin", content) + part("small", null, "s") + "--" + BOUNDARY + "--";
+        multipart = new Multipart(new Trickle(body, 7), BOUNDARY, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        // When
+        List<Multipart.Part> parts = multipart.parts();
+
+        // Then
+        assertEquals(2, parts.size());
+        assertEquals(content, parts.get(0).getString());
+        assertEquals(content.length(), parts.get(0).size());
+        assertEquals("s", parts.get(1).getString());
+    }
+
+    @Test
+    public void shouldSpoolSmallPartsToMemoryAndLargePartsToDisk() throws IOException {
+
+        // Given
+        String large = repeat("0123456789", Multipart.MEMORY_THRESHOLD);
+        String body = part("small", null, "small") + part("large", "large.bin", large) + "--" + BOUNDARY + "--";
+        multipart = multipart(body, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        // When
+        List<Multipart.Part> parts = multipart.parts();
+        java.nio.file.Path file = parts.get(1).getFile();
+
+        // Then
+        assertNull(parts.get(0).getFile());
+        assertEquals("small", parts.get(0).getString());
+        assertNotNull(file);
+        assertTrue(Files.exists(file));
+        assertEquals(large, read(parts.get(1).getInputStream()));
+
+        // When
+        multipart.close();
+
+        // Then
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void shouldMovePartToTarget() throws IOException {
+
+        // Given
+        String large = repeat("x", Multipart.MEMORY_THRESHOLD * 2);
+        String body = part("small", "small.txt", "small") + part("large", "large.bin", large) + "--" + BOUNDARY + "--";
+        multipart = multipart(body, Long.MAX_VALUE, Long.MAX_VALUE);
+        java.nio.file.Path small = Files.createTempFile("small", ".txt");
+        java.nio.file.Path target = Files.createTempFile("large", ".bin");
+
+        try {
+            // When
+            multipart.next().moveTo(small);
+            multipart.next().moveTo(target);
+            multipart.close();
+
+            // Then
+            assertEquals("small", new String(Files.readAllBytes(small), StandardCharsets.UTF_8));
+            assertEquals(large, new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(small);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void shouldSkipUnreadParts() throws IOException {
+
+        // Given
+        String body = part("one", null, repeat("1", 50000)) + part("two", null, "2") + "--" + BOUNDARY + "--";
+        multipart = multipart(body, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        // When
+        Multipart.Part one = multipart.next();
+        Multipart.Part two = multipart.next();
+
+        // Then
+        assertEquals("two", two.name);
+        assertEquals("2", two.getString());
+        try {
+            one.getInputStream();
+            fail("A skipped part can't be read");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldRejectPartOverLimit() throws IOException {
+
+        // Given
+        String body = part("big", "big.bin", repeat("x", 1001)) + "--" + BOUNDARY + "--";
+        multipart = multipart(body, 1000, Long.MAX_VALUE);
+
+        // When
+        MultipartException e = spoolAll(multipart);
+
+        // Then
+        assertEquals(413, e.status);
+    }
+
+    @Test
+    public void shouldRejectUploadOverLimit() throws IOException {
+
+        // Given
+        String body = part("one", null, repeat("x", 600)) + part("two", null, repeat("x", 600)) + "--" + BOUNDARY + "--";
+        multipart = new Multipart(new Trickle(body, 100), BOUNDARY, 1000, 1000);
+
+        // When
+        MultipartException e = spoolAll(multipart);
+
+        // Then
+        assertEquals(413, e.status);
+        assertTrue(multipart.uploaded() <= 1100);
+    }
+
+    @Test
+    public void shouldRejectTruncatedBody() throws IOException {
+
+        // Given
+        String body = part("file", "a.txt", "no closing delimiter");
+        multipart = multipart(body, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        // When
+        MultipartException e = spoolAll(multipart);
+
+        // Then
+        assertEquals(400, e.status);
+    }
+
+    @Test
+    public void shouldRejectOversizedContentLengthBeforeReading() throws IOException {
+
+        // Given
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentType()).thenReturn("multipart/form-data; boundary=" + BOUNDARY);
+        when(request.getContentLengthLong()).thenReturn(Multipart.DEFAULT_MAX_UPLOAD_SIZE + 1);
+
+        // When
+        try {
+            Multipart.of(request);
+            fail("Expected the upload to be rejected");
+        } catch (MultipartException e) {
+
+            // Then
+            assertEquals(413, e.status);
+            verify(request, never()).getInputStream();
+        }
+    }
+
+    @Test
+    public void shouldGetMultipartForRequest() throws IOException {
+
+        // Given
+        String body = part("a", null, "b") + "--" + BOUNDARY + "--";
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentType()).thenReturn("multipart/form-data; boundary=\"" + BOUNDARY + "\"; charset=UTF-8");
+        when(request.getContentLengthLong()).thenReturn((long) body.length());
+        when(request.getInputStream()).thenReturn(servletInputStream(body));
+
+        // When
+        multipart = Multipart.of(request);
+
+        // Then
+        assertNotNull(multipart);
+        verify(request).setAttribute(Multipart.class.getName(), multipart);
+        assertEquals("b", multipart.next().getString());
+    }
+
+    @Test
+    public void shouldNotGetMultipartForOtherRequests() throws IOException {
+
+        // Given
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentType()).thenReturn("application/json");
+
+        // When
+        Multipart result = Multipart.of(request);
+
+        // Then
+        assertNull(result);
+    }
+
+    @Test
+    public void shouldParseHeaderParameters() {
+
+        // When
+        java.util.Map<String, String> parameters = Multipart.parameters("form-data; name=\"a;b\"; filename=c.txt;Size=3");
+
+        // Then
+        assertEquals(Arrays.asList("name", "filename", "size"), Arrays.asList(parameters.keySet().toArray()));
+        assertEquals("a;b", parameters.get("name"));
+        assertEquals("c.txt", parameters.get("filename"));
+        assertEquals("3", parameters.get("size"));
+    }
+
+    private static String part(String name, String filename, String content) {
+        return "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + name + "\"" + (filename == null ? "" : "; filename=\"" + filename + "\"") + "\r\n" +
+                "\r\n" +
+                content + "\r\n";
+    }
+
+    private static Multipart multipart(String body, long partLimit, long uploadLimit) {
+        return new Multipart(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), BOUNDARY, partLimit, uploadLimit);
+    }
+
+    private static MultipartException spoolAll(Multipart multipart) throws IOException {
+        try {
+            multipart.parts();
+        } catch (MultipartException e) {
+            return e;
+        }
+        fail("Expected a MultipartException");
+        return null;
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+    private static ServletInputStream servletInputStream(String body) {
+        final ByteArrayInputStream input = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                // Not needed
+            }
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+        };
+    }
+
+    /**
+     * Returns at most a few bytes from each read, as a network connection might.
+     */
+    static class Trickle extends FilterInputStream {
+
+        final int size;
+
+        Trickle(String body, int size) {
+            super(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+            this.size = size;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, size));
+        }
+    }
+}
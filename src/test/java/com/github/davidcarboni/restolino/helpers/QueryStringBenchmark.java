@@ -0,0 +1,54 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading one parameter from a long query string through the lazy
+ * {@link QueryString} view with filling in the whole map, which is what the
+ * constructor used to do.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.davidcarboni.restolino.helpers.QueryStringBenchmark</code>
+ * or straight from your IDE.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryStringBenchmark {
+
+    URI uri;
+
+    @Setup
+    public void setup() {
+        StringBuilder query = new StringBuilder("q=green+eggs");
+        for (int i = 0; i < 30; i++) {
+            query.append("&filter").append(i).append("=colour%3Agreen%2Csize%3A").append(i);
+        }
+        uri = URI.create("http://localhost/search?" + query);
+    }
+
+    @Benchmark
+    public String lazyGet() {
+        return new QueryString(uri).get("q");
+    }
+
+    @Benchmark
+    public String materialisedGet() {
+        QueryString queryString = new QueryString(uri);
+        queryString.size();
+        return queryString.get("q");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QueryStringBenchmark.class.getSimpleName()).build()).run();
+    }
+}
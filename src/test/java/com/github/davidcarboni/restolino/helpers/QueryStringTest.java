@@ -10,6 +10,7 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -122,4 +123,54 @@ public class QueryStringTest {
         assertNotNull(rendered);
         assertTrue(StringUtils.isEmpty(rendered));
     }
+
+    @Test
+    public void shouldKeepRepeatedValues() {
+
+        // Given
+        URI uri = URI.create("http://newport.com/search?tag=red&tag=green+eggs&other=x&tag=");
+
+        // When
+        QueryString queryString = new QueryString(uri);
+
+        // Then
+        assertEquals(Arrays.asList("red", "green eggs"), queryString.getAll("tag"));
+        assertEquals("green eggs", queryString.get("tag"));
+        assertTrue(queryString.getAll("missing").isEmpty());
+    }
+
+    @Test
+    public void shouldMaterialiseConsistentlyWithLazyGet() {
+
+        // Given
+        URI uri = URI.create("http://newport.com/search?tag=red&tag=green&blank=&%3Dodd=1");
+        QueryString queryString = new QueryString(uri);
+        String lazy = queryString.get("tag");
+
+        // When
+        int size = queryString.size();
+
+        // Then
+        assertEquals(2, size);
+        assertEquals(lazy, queryString.get("tag"));
+        assertEquals("1", queryString.get("=odd"));
+        assertFalse(queryString.containsKey("blank"));
+    }
+
+    @Test
+    public void shouldAllowChangesToParsedQuery() {
+
+        // Given
+        QueryString queryString = new QueryString(URI.create("http://newport.com/?a=1&b=2"));
+
+        // When
+        queryString.put("c", "3");
+        queryString.remove("a");
+
+        // Then
+        assertEquals(2, queryString.size());
+        assertEquals("2", queryString.get("b"));
+        assertEquals("3", queryString.get("c"));
+        assertNull(queryString.get("a"));
+    }
 }
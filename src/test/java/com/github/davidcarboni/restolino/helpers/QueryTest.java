@@ -0,0 +1,95 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class QueryTest {
+
+    @Test
+    public void shouldIndexParameters() {
+
+        // Given
+        String raw = "a=1&&b&c=x=y&a=2";
+
+        // When
+        Query query = new Query(raw);
+
+        // Then
+        assertEquals(4, query.size());
+        assertEquals("a", query.name(0));
+        assertEquals("1", query.value(0));
+        assertEquals("b", query.name(1));
+        assertEquals("", query.value(1));
+        assertEquals("x=y", query.value(2));
+        assertEquals(Arrays.asList("1", "2"), query.getAll("a"));
+    }
+
+    @Test
+    public void shouldDecodeOnlyWhenAccessed() {
+
+        // Given
+        Query query = new Query("q=green+eggs%20%26%20ham&bad=%zz");
+
+        // When
+        String value = query.get("q");
+
+        // Then
+        assertEquals("green eggs & ham", value);
+        assertTrue(query.contains("bad"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailOnBadEscapeWhenAccessed() {
+
+        // Given
+        Query query = new Query("q=ok&bad=%zz");
+
+        // When
+        query.get("bad");
+
+        // Then
+        // Exception
+    }
+
+    @Test
+    public void shouldMatchEncodedNames() {
+
+        // Given
+        Query query = new Query("first%20name=Sam&last+name=I%20Am");
+
+        // When
+        String first = query.get("first name");
+        String last = query.get("last name");
+
+        // Then
+        assertEquals("Sam", first);
+        assertEquals("I Am", last);
+    }
+
+    @Test
+    public void shouldHandleNullAndEmpty() {
+        assertEquals(0, new Query(null).size());
+        assertEquals(0, new Query("").size());
+        assertNull(new Query("&&").get("a"));
+    }
+
+    @Test
+    public void shouldGrowForLongQueries() {
+
+        // Given
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            raw.append("f").append(i).append('=').append(i).append('&');
+        }
+
+        // When
+        Query query = new Query(raw.toString());
+
+        // Then
+        assertEquals(100, query.size());
+        assertEquals("99", query.get("f99"));
+    }
+}
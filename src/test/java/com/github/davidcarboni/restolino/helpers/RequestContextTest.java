@@ -0,0 +1,127 @@
+package com.github.davidcarboni.restolino.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link RequestContext}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class RequestContextTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    Map<String, Object> attributes = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(request).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void shouldShareContextForRequest() {
+
+        // Given
+        when(request.getPathInfo()).thenReturn("/users/42");
+
+        // When
+        RequestContext context = RequestContext.of(request);
+        Path path = Path.newInstance(request);
+
+        // Then
+        assertSame(context, RequestContext.of(request));
+        assertSame(context.pathHelper(), path);
+        assertEquals("42", path.lastSegment());
+        verify(request, times(1)).getPathInfo();
+    }
+
+    @Test
+    public void shouldClassifyRequests() {
+
+        // Given
+        HttpServletRequest root = mock(HttpServletRequest.class);
+        HttpServletRequest api = mock(HttpServletRequest.class);
+        when(api.getPathInfo()).thenReturn("/users/42");
+        HttpServletRequest file = mock(HttpServletRequest.class);
+        when(file.getPathInfo()).thenReturn("/js/app.js");
+
+        // When
+        RequestContext rootContext = RequestContext.of(root);
+        RequestContext apiContext = RequestContext.of(api);
+        RequestContext fileContext = RequestContext.of(file);
+
+        // Then
+        assertTrue(rootContext.isRoot());
+        assertTrue(rootContext.isApi());
+        assertEquals("/", rootContext.path());
+        assertTrue(rootContext.segments().isEmpty());
+        assertNull(rootContext.firstSegment());
+        assertFalse(apiContext.isRoot());
+        assertTrue(apiContext.isApi());
+        assertEquals(Arrays.asList("users", "42"), apiContext.segments());
+        assertEquals("users", apiContext.firstSegment());
+        assertFalse(fileContext.isApi());
+    }
+
+    @Test
+    public void shouldReadQueryStringOnce() {
+
+        // Given
+        when(request.getPathInfo()).thenReturn("/search");
+        when(request.getQueryString()).thenReturn("q=java&page=2&q=jetty");
+        RequestContext context = RequestContext.of(request);
+
+        // When
+        QueryString queryString = context.queryString();
+        Query query = context.query();
+
+        // Then
+        assertSame(queryString, context.queryString());
+        assertEquals("2", queryString.get("page"));
+        assertEquals(Arrays.asList("java", "jetty"), queryString.getAll("q"));
+        assertEquals(3, query.size());
+        verify(request, times(1)).getQueryString();
+    }
+
+    @Test
+    public void shouldComputeValuesOnce() {
+
+        // Given
+        when(request.getPathInfo()).thenReturn("/orders");
+        RequestContext context = RequestContext.of(request);
+        AtomicInteger computed = new AtomicInteger();
+
+        // When
+        String user = context.computeIfAbsent(String.class, c -> "user" + computed.incrementAndGet());
+        String again = context.computeIfAbsent(String.class, c -> "user" + computed.incrementAndGet());
+        Integer missing = context.computeIfAbsent(Integer.class, c -> {
+            computed.incrementAndGet();
+            return null;
+        });
+        Integer stillMissing = context.computeIfAbsent(Integer.class, c -> computed.incrementAndGet());
+
+        // Then
+        assertEquals("user1", user);
+        assertEquals("user1", again);
+        assertNull(missing);
+        assertNull(stillMissing);
+        assertEquals(2, computed.get());
+    }
+}
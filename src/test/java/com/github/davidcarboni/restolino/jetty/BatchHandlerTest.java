@@ -0,0 +1,306 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link BatchHandler}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BatchHandlerTest {
+
+    @Mock
+    ApiHandler apiHandler;
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    List<String> calls = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Arrays.asList("Authorization", "Accept-Encoding", "Content-Type")));
+        when(request.getHeaders("Authorization")).thenReturn(Collections.enumeration(Collections.singletonList("Basic Zm9vOmJhcg==")));
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+
+        // Echoes the method, path and body, taking longer for "slow" paths:
+        doAnswer(invocation -> {
+            HttpServletRequest callRequest = (HttpServletRequest) invocation.getArguments()[2];
+            HttpServletResponse callResponse = (HttpServletResponse) invocation.getArguments()[3];
+            if (callRequest.getPathInfo().startsWith("/slow")) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            calls.add(callRequest.getMethod() + " " + callRequest.getPathInfo());
+            JsonObject echo = new JsonObject();
+            echo.addProperty("method", callRequest.getMethod());
+            echo.addProperty("query", callRequest.getQueryString());
+            echo.addProperty("authorization", callRequest.getHeader("Authorization"));
+            echo.addProperty("acceptEncoding", callRequest.getHeader("Accept-Encoding"));
+            byte[] body = new byte[callRequest.getContentLength()];
+            callRequest.getInputStream().read(body);
+            echo.addProperty("body", new String(body, StandardCharsets.UTF_8));
+            callResponse.setContentType("application/json; charset=utf-8");
+            callResponse.getOutputStream().write(echo.toString().getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(apiHandler).handle(anyString(), any(), any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    @Test
+    public void shouldDispatchEachCall() throws IOException {
+
+        // Given
+        BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> true);
+        body("[{\"path\":\"/users?id=1\"},{\"method\":\"post\",\"path\":\"/orders\",\"body\":{\"item\":42}}]");
+
+        // When
+        batchHandler.handle(request, response);
+
+        // Then
+        JsonArray results = results();
+        assertEquals(2, results.size());
+        JsonObject get = result(results, 0);
+        assertEquals(200, get.get("status").getAsInt());
+        JsonObject getBody = get.getAsJsonObject("body");
+        assertEquals("GET", getBody.get("method").getAsString());
+        assertEquals("id=1", getBody.get("query").getAsString());
+        assertEquals("Basic Zm9vOmJhcg==", getBody.get("authorization").getAsString());
+        assertTrue(getBody.get("acceptEncoding").isJsonNull());
+        JsonObject postBody = result(results, 1).getAsJsonObject("body");
+        assertEquals("POST", postBody.get("method").getAsString());
+        assertEquals("{\"item\":42}", postBody.get("body").getAsString());
+    }
+
+    @Test
+    public void shouldStreamResultsAsTheyFinish() throws IOException {
+
+        // Given
+        BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> true);
+        body("[{\"path\":\"/slow\"},{\"path\":\"/fast\"}]");
+
+        // When
+        batchHandler.handle(request, response);
+
+        // Then
+        JsonArray results = results();
+        assertEquals(1, results.get(0).getAsJsonObject().get("index").getAsInt());
+        assertEquals(0, results.get(1).getAsJsonObject().get("index").getAsInt());
+    }
+
+    @Test
+    public void shouldRunWritesInOrder() throws IOException {
+
+        // Given
+        BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> true);
+        body("[{\"path\":\"/slow/a\"},{\"method\":\"PUT\",\"path\":\"/b\"},{\"path\":\"/c\"}]");
+
+        // When
+        batchHandler.handle(request, response);
+
+        // Then
+        assertEquals(Arrays.asList("GET /slow/a", "PUT /b", "GET /c"), calls);
+    }
+
+    @Test
+    public void shouldFilterEachCall() throws IOException {
+
+        // Given
+        BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> {
+            if (req.getPathInfo().equals("/admin")) {
+                res.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                return false;
+            }
+            return true;
+        });
+        body("[{\"path\":\"/admin\"},{\"path\":\"/users\"}]");
+
+        // When
+        batchHandler.handle(request, response);
+
+        // Then
+        JsonArray results = results();
+        assertEquals(403, result(results, 0).get("status").getAsInt());
+        assertTrue(result(results, 0).get("body").isJsonNull());
+        assertEquals(200, result(results, 1).get("status").getAsInt());
+        assertEquals(Collections.singletonList("GET /users"), calls);
+    }
+
+    @Test
+    public void shouldRejectTooManyCalls() throws IOException {
+
+        // Given
+        BatchHandler.setLimits(BatchHandler.DEFAULT_THREADS, 1);
+        try {
+            BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> true);
+            body("[{\"path\":\"/a\"},{\"path\":\"/b\"}]");
+
+            // When
+            batchHandler.handle(request, response);
+        } finally {
+            BatchHandler.setLimits(BatchHandler.DEFAULT_THREADS, BatchHandler.DEFAULT_MAX_CALLS);
+        }
+
+        // Then
+        verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void shouldTimeOutCallsThatHaveNotFinished() throws IOException {
+
+        // Given
+        BatchHandler batchHandler = new BatchHandler(apiHandler, (req, res) -> true);
+        body("[{\"path\":\"/warm-up\"}]");
+        batchHandler.handle(request, response);
+        output.reset();
+        calls.clear();
+        BatchHandler.setTimeout(50);
+        try {
+            body("[{\"path\":\"/fast\"},{\"path\":\"/slow\"},{\"method\":\"PUT\",\"path\":\"/after\"}]");
+
+            // When
+            batchHandler.handle(request, response);
+            reset(request);
+        } finally {
+            BatchHandler.setTimeout(BatchHandler.DEFAULT_TIMEOUT);
+        }
+
+        // Then
+        JsonArray results = results();
+        assertEquals(3, results.size());
+        assertEquals(200, result(results, 0).get("status").getAsInt());
+        assertEquals(504, result(results, 1).get("status").getAsInt());
+        assertEquals(504, result(results, 2).get("status").getAsInt());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(calls.contains("GET /slow"));
+        assertFalse(calls.contains("PUT /after"));
+        // The container may have recycled the batch request by now:
+        verifyZeroInteractions(request);
+    }
+
+    @Test
+    public void shouldOnlyUseSnapshotOfBatchRequest() {
+
+        // Given
+        when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+        BatchSnapshot batch = BatchSnapshot.of(request);
+        reset(request);
+
+        // When
+        BatchRequest callRequest = new BatchRequest(batch, "GET", "/users?id=1", Collections.singletonMap("X-Call", "1"), null);
+
+        // Then
+        assertEquals("10.0.0.1", callRequest.getRemoteAddr());
+        assertEquals("Basic Zm9vOmJhcg==", callRequest.getHeader("Authorization"));
+        assertEquals("1", callRequest.getHeader("X-Call"));
+        assertNull(callRequest.getHeader("Content-Type"));
+        assertNull(callRequest.getSession(false));
+        try {
+            callRequest.getRequestDispatcher("/other");
+            fail("Expected the batch request to be out of reach");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        verifyZeroInteractions(request);
+    }
+
+    @Test
+    public void shouldOnlyIncludeCompleteJsonAsIs() {
+
+        // Then
+        assertTrue(BatchHandler.isJson("application/json; charset=utf-8"));
+        assertTrue(BatchHandler.isJson("application/problem+json"));
+        assertFalse(BatchHandler.isJson("text/plain"));
+        assertTrue(BatchHandler.isJson("{\"a\":[1,2]}".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(BatchHandler.isJson("\"text\"".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(BatchHandler.isJson("{\"a\":[1,2".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(BatchHandler.isJson("[1] [2]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void body(String json) throws IOException {
+        final ByteArrayInputStream input = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                // Not needed
+            }
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+        });
+    }
+
+    private JsonArray results() {
+        return JsonParser.parseString(new String(output.toByteArray(), StandardCharsets.UTF_8)).getAsJsonArray();
+    }
+
+    private static JsonObject result(JsonArray results, int index) {
+        for (JsonElement result : results) {
+            if (result.getAsJsonObject().get("index").getAsInt() == index) {
+                return result.getAsJsonObject();
+            }
+        }
+        throw new AssertionError("No result for call " + index);
+    }
+}
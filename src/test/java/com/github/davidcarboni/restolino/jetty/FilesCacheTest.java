@@ -0,0 +1,247 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.github.davidcarboni.restolino.helpers.Conditional;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.util.resource.Resource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link FilesCache}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FilesCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    FilesCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        write("index.html", "<h1>Hello</h1>");
+        write("app.3f9a1c0e.js", "console.log('hello');");
+        write("big.bin", new String(new char[2048]));
+        write("styles.css", new String(new char[800]).replace("\0", "a"));
+        write("vendor.js", "var vendor = 1;");
+        Files.write(new File(folder.getRoot(), "vendor.js.gz").toPath(), gzip("var vendor = 2;"));
+        FilesCache.setLimits(1024, FilesCache.DEFAULT_MAX_SIZE);
+        try {
+            cache = FilesCache.load(Resource.newResource(folder.getRoot()), Arrays.asList("/index.html", "/app.3f9a1c0e.js", "/big.bin",
+                    "/styles.css", "/vendor.js", "/vendor.js.gz"));
+        } finally {
+            FilesCache.setLimits(FilesCache.DEFAULT_MAX_FILE_SIZE, FilesCache.DEFAULT_MAX_SIZE);
+        }
+        when(request.getMethod()).thenReturn("GET");
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void shouldServeFromMemoryWithETag() throws IOException {
+
+        // When
+        boolean served = cache.serve(request, response, "/index.html");
+
+        // Then
+        assertTrue(served);
+        assertEquals(4, cache.count());
+        assertEquals("<h1>Hello</h1>", new String(output.toByteArray(), StandardCharsets.UTF_8));
+        verify(response).setContentType("text/html");
+        verify(response).setContentLength(14);
+        verify(response).setHeader(eq(Conditional.ETAG), startsWith("\""));
+        verify(response, never()).setHeader(eq("Cache-Control"), anyString());
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+    }
+
+    @Test
+    public void shouldServeGzippedCopyIfAccepted() throws IOException {
+
+        // Given
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+        // When
+        cache.serve(request, response, "/styles.css");
+
+        // Then
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        verify(response).setHeader("Content-Encoding", "gzip");
+        assertTrue(output.size() < 100);
+        assertEquals(new String(new char[800]).replace("\0", "a"), gunzip(output.toByteArray()));
+    }
+
+    @Test
+    public void shouldServeOriginalIfGzipNotAccepted() throws IOException {
+
+        // Given
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+
+        // When
+        cache.serve(request, response, "/styles.css");
+
+        // Then
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertEquals(800, output.size());
+    }
+
+    @Test
+    public void shouldUseGzFileFromBuild() throws IOException {
+
+        // Given
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+
+        // When
+        cache.serve(request, response, "/vendor.js");
+
+        // Then
+        verify(response).setHeader("Content-Encoding", "gzip");
+        assertEquals("var vendor = 2;", gunzip(output.toByteArray()));
+    }
+
+    @Test
+    public void shouldSendNotModifiedForCurrentETag() throws IOException {
+
+        // Given
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        cache.serve(request, response, "/index.html");
+        verify(response).setHeader(eq(Conditional.ETAG), etag.capture());
+        when(response.getHeader(Conditional.ETAG)).thenReturn(etag.getValue());
+        when(request.getHeader(Conditional.IF_NONE_MATCH)).thenReturn(etag.getValue());
+        output.reset();
+
+        // When
+        boolean served = cache.serve(request, response, "/index.html");
+
+        // Then
+        assertTrue(served);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void shouldTagGzippedCopySeparately() throws IOException {
+
+        // Given
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        cache.serve(request, response, "/styles.css");
+        verify(response).setHeader(eq(Conditional.ETAG), etag.capture());
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+        when(request.getHeader(Conditional.IF_NONE_MATCH)).thenReturn(etag.getValue());
+        output.reset();
+
+        // When
+        boolean served = cache.serve(request, response, "/styles.css");
+
+        // Then
+        assertTrue(served);
+        verify(response).setHeader(Conditional.ETAG, Conditional.gzipEtag(etag.getValue()));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void shouldMarkFingerprintedFilesImmutable() throws IOException {
+
+        // When
+        cache.serve(request, response, "/app.3f9a1c0e.js");
+
+        // Then
+        verify(response).setHeader("Cache-Control", FilesCache.IMMUTABLE);
+        assertTrue(FilesCache.FINGERPRINT.matcher("/js/main-0c4e2f7d91ab.css").matches());
+    }
+
+    @Test
+    public void shouldNotMistakeOrdinaryNamesForFingerprints() {
+
+        // Then
+        assertFalse(FilesCache.FINGERPRINT.matcher("/js/jquery-3.6.0.min.js").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/js/datepicker.js").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/img/banner-homepage2.png").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/img/logo-retina2x.png").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/docs/changelog-20240101.html").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/js/main-Bx81kQ2d.css").matches());
+        assertFalse(FilesCache.FINGERPRINT.matcher("/img/facade.png").matches());
+    }
+
+    @Test
+    public void shouldLeaveLargeFilesAndRangesToResourceHandler() throws IOException {
+
+        // Given
+        HttpServletRequest range = mock(HttpServletRequest.class);
+        when(range.getMethod()).thenReturn("GET");
+        when(range.getHeader("Range")).thenReturn("bytes=0-10");
+
+        // When
+        boolean big = cache.serve(request, response, "/big.bin");
+        boolean ranged = cache.serve(range, response, "/index.html");
+
+        // Then
+        assertFalse(big);
+        assertFalse(ranged);
+        assertEquals(0, output.size());
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return output.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(IOUtils.toByteArray(gzip), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(new File(folder.getRoot(), name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import org.eclipse.jetty.util.resource.Resource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link FilesIndex}.
+ */
+public class FilesIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        folder.newFile("index.html");
+        folder.newFolder("js", "lib");
+        folder.newFile("js/app.js");
+        folder.newFile("js/lib/jquery.min.js");
+    }
+
+    @Test
+    public void shouldIndexFilesAndDirectories() throws IOException {
+
+        // Given
+        FilesIndex index = new FilesIndex(Resource.newResource(folder.getRoot()));
+
+        // When
+        boolean file = index.mightExist("/js/app.js");
+        boolean nested = index.mightExist("/js/lib/jquery.min.js");
+        boolean directory = index.mightExist("/js/lib");
+        boolean missing = index.mightExist("/wp-login.php");
+        boolean partial = index.mightExist("/js/app");
+
+        // Then
+        assertEquals(5, index.size());
+        assertTrue(file);
+        assertTrue(nested);
+        assertTrue(directory);
+        assertFalse(missing);
+        assertFalse(partial);
+    }
+
+    @Test
+    public void shouldNeverMissWithBloomFilter() {
+
+        // Given
+        String[] paths = new String[10000];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "/assets/" + i + "/image.png";
+        }
+        FilesIndex.Bloom bloom = new FilesIndex.Bloom(paths);
+
+        // When
+        int falsePositives = 0;
+        for (int i = 0; i < paths.length; i++) {
+            assertTrue(bloom.mightContain(paths[i]));
+            if (bloom.mightContain("/assets/" + i + "/missing.png")) {
+                falsePositives++;
+            }
+        }
+
+        // Then
+        assertTrue("False positives: " + falsePositives, falsePositives < paths.length / 20);
+    }
+
+    @Test
+    public void shouldRebuildWhenFilesChange() throws IOException {
+
+        // Given
+        FilesIndex index = new FilesIndex(Resource.newResource(folder.getRoot()));
+        assertTrue(index.watch());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+
+        // When
+        Files.write(new File(folder.getRoot(), "js/added.js").toPath(), "// new".getBytes());
+
+        // Then
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!index.mightExist("/js/added.js") && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertTrue(index.mightExist("/js/added.js"));
+    }
+
+    @Test
+    public void shouldKeepWatchingAfterFailedRebuild() throws IOException {
+
+        // Given
+        Resource base = spy(Resource.newResource(folder.getRoot()));
+        FilesIndex index = new FilesIndex(base);
+        doThrow(new IllegalStateException("Listing failed")).doCallRealMethod().when(base).list();
+        assertTrue(index.watch());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+
+        // When
+        Files.write(new File(folder.getRoot(), "js/failed.js").toPath(), "// new".getBytes());
+        verify(base, timeout(10000).times(2)).list();
+        boolean kept = index.mightExist("/js/app.js");
+        Files.write(new File(folder.getRoot(), "js/added.js").toPath(), "// new".getBytes());
+
+        // Then
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!index.mightExist("/js/added.js") && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertTrue(kept);
+        assertTrue(index.mightExist("/js/added.js"));
+        assertTrue(index.mightExist("/js/failed.js"));
+    }
+}
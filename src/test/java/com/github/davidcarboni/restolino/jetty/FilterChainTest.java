@@ -0,0 +1,176 @@
+package com.github.davidcarboni.restolino.jetty;
+
+import com.github.davidcarboni.restolino.framework.Filter;
+import com.github.davidcarboni.restolino.framework.FilterScope;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link FilterChain}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FilterChainTest {
+
+    static List<String> called = new ArrayList<>();
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    public static class Logging implements Filter {
+        @Override
+        public boolean filter(HttpServletRequest req, HttpServletResponse res) {
+            called.add("logging");
+            return true;
+        }
+    }
+
+    @FilterScope(priority = -10)
+    public static class Cors implements Filter {
+        @Override
+        public boolean filter(HttpServletRequest req, HttpServletResponse res) {
+            called.add("cors");
+            return true;
+        }
+    }
+
+    @FilterScope(priority = 10, requests = FilterScope.Requests.API, paths = "/admin", methods = {"POST", "DELETE"})
+    public static class AdminAuth implements Filter {
+        @Override
+        public boolean filter(HttpServletRequest req, HttpServletResponse res) {
+            called.add("auth");
+            return false;
+        }
+    }
+
+    @FilterScope(priority = 20)
+    public static class Last implements Filter {
+        @Override
+        public boolean filter(HttpServletRequest req, HttpServletResponse res) {
+            called.add("last");
+            return true;
+        }
+    }
+
+    @FilterScope(requests = FilterScope.Requests.FILES)
+    public static class CacheHeaders implements Filter {
+        @Override
+        public boolean filter(HttpServletRequest req, HttpServletResponse res) {
+            called.add("cacheHeaders");
+            return true;
+        }
+    }
+
+    HashSet<Filter> filters = new HashSet<>(Arrays.asList(new Last(), new AdminAuth(), new Logging(), new CacheHeaders(), new Cors()));
+
+    @Before
+    public void setUp() {
+        called.clear();
+    }
+
+    @Test
+    public void shouldRunFiltersInOrderOfPriority() {
+
+        // Given
+        FilterChain chain = FilterChain.of(filters, FilterScope.Requests.API);
+        when(request.getPathInfo()).thenReturn("/products");
+        when(request.getMethod()).thenReturn("POST");
+
+        // When
+        boolean result = chain.filter(request, response);
+
+        // Then
+        assertTrue(result);
+        assertEquals(Arrays.asList("cors", "logging", "last"), called);
+    }
+
+    @Test
+    public void shouldStopAtFirstRejection() {
+
+        // Given
+        FilterChain chain = FilterChain.of(filters, FilterScope.Requests.API);
+        when(request.getPathInfo()).thenReturn("/admin/users");
+        when(request.getMethod()).thenReturn("DELETE");
+
+        // When
+        boolean result = chain.filter(request, response);
+
+        // Then
+        assertFalse(result);
+        assertEquals(Arrays.asList("cors", "logging", "auth"), called);
+    }
+
+    @Test
+    public void shouldOnlyRunFiltersForMatchingPathsAndMethods() {
+
+        // Given
+        FilterChain chain = FilterChain.of(filters, FilterScope.Requests.API);
+
+        // When
+        when(request.getPathInfo()).thenReturn("/administrator");
+        when(request.getMethod()).thenReturn("POST");
+        boolean otherPath = chain.filter(request, response);
+        when(request.getPathInfo()).thenReturn("/admin");
+        when(request.getMethod()).thenReturn("GET");
+        boolean otherMethod = chain.filter(request, response);
+
+        // Then
+        assertTrue(otherPath);
+        assertTrue(otherMethod);
+        assertFalse(called.contains("auth"));
+    }
+
+    @Test
+    public void shouldMatchPathsTheWayRequestsAreRouted() {
+
+        // Given
+        FilterChain chain = FilterChain.of(filters, FilterScope.Requests.API);
+        when(request.getMethod()).thenReturn("POST");
+
+        // When
+        when(request.getPathInfo()).thenReturn("/ADMIN/users");
+        boolean mixedCase = chain.filter(request, response);
+        when(request.getPathInfo()).thenReturn("//admin//users");
+        boolean repeatedSlashes = chain.filter(request, response);
+        when(request.getPathInfo()).thenReturn("/Admin");
+        boolean exact = chain.filter(request, response);
+
+        // Then
+        assertFalse(mixedCase);
+        assertFalse(repeatedSlashes);
+        assertFalse(exact);
+        assertEquals(3, called.stream().filter("auth"::equals).count());
+    }
+
+    @Test
+    public void shouldBuildSeparateChainForFiles() {
+
+        // Given
+        FilterChain chain = FilterChain.of(filters, FilterScope.Requests.FILES);
+        when(request.getPathInfo()).thenReturn("/admin/app.js");
+        when(request.getMethod()).thenReturn("POST");
+
+        // When
+        boolean result = chain.filter(request, response);
+
+        // Then
+        assertTrue(result);
+        assertEquals(4, chain.size());
+        assertEquals(Arrays.asList("cors", "cacheHeaders", "logging", "last"), called);
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageIterator}.
+ */
+public class MessageIteratorTest {
+
+    static class Row {
+        int id;
+    }
+
+    static final TypeAdapter<Row> adapter = new Gson().getAdapter(Row.class);
+
+    @Test
+    public void shouldReadJsonArray() {
+
+        // When
+        List<Integer> ids = ids(iterator("[{\"id\":1}, {\"id\":2},\n{\"id\":3}]", false));
+
+        // Then
+        assertEquals(Arrays.asList(1, 2, 3), ids);
+    }
+
+    @Test
+    public void shouldReadNewlineDelimitedJson() {
+
+        // When
+        List<Integer> ids = ids(iterator("{\"id\":1}\n{\"id\":2}\r\n\n{\"id\":3}\n", false));
+
+        // Then
+        assertEquals(Arrays.asList(1, 2, 3), ids);
+    }
+
+    @Test
+    public void shouldReadArraysAsMessagesIfNewlineDelimited() {
+
+        // Given
+        TypeAdapter<int[]> arrays = new Gson().getAdapter(int[].class);
+        MessageIterator<int[]> iterator = new MessageIterator<>(new JsonReader(new StringReader("[1,2]\n[3]\n")), arrays, true);
+
+        // When
+        int[] first = iterator.next();
+        int[] second = iterator.next();
+
+        // Then
+        assertArrayEquals(new int[]{1, 2}, first);
+        assertArrayEquals(new int[]{3}, second);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void shouldReadEmptyBody() {
+        assertEquals(Collections.emptyList(), ids(iterator("", false)));
+        assertEquals(Collections.emptyList(), ids(iterator(" \n", false)));
+        assertEquals(Collections.emptyList(), ids(iterator("[]", false)));
+    }
+
+    @Test
+    public void shouldReadLazily() {
+
+        // Given
+        Iterator<Row> iterator = iterator("[{\"id\":1}, {\"id\":2}, this isn't Json", false);
+
+        // When
+        Row first = iterator.next();
+        Row second = iterator.next();
+
+        // Then
+        assertEquals(1, first.id);
+        assertEquals(2, second.id);
+        try {
+            iterator.next();
+            fail("Expected a syntax error");
+        } catch (JsonSyntaxException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = JsonIOException.class)
+    public void shouldRejectTrailingContentAfterArray() {
+        ids(iterator("[{\"id\":1}] {\"id\":2}", false));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void shouldRejectWrongType() {
+        ids(iterator("[{\"id\":\"one\"}]", false));
+    }
+
+    private static Iterator<Row> iterator(String json, boolean newlineDelimited) {
+        return new MessageIterator<>(new JsonReader(new StringReader(json)), adapter, newlineDelimited);
+    }
+
+    private static List<Integer> ids(Iterator<Row> iterator) {
+        List<Integer> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next().id);
+        }
+        return result;
+    }
+}
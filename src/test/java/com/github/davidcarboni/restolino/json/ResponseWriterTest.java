@@ -0,0 +1,232 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.github.davidcarboni.restolino.helpers.Conditional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ResponseWriter}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseWriterTest {
+
+    @Mock
+    HttpServletResponse response;
+
+    ByteArrayOutputStream body;
+
+    @Before
+    public void setUp() throws IOException {
+        body = new ByteArrayOutputStream();
+        final ByteArrayOutputStream output = body;
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Not needed
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void shouldSetContentLengthForSmallResponse() throws IOException {
+
+        // Given
+        String text = "{\"name\":\"Zoë € 😀\"}";
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+
+        // When
+        write(text, 1024);
+
+        // Then
+        verify(response).setContentLength(expected.length);
+        assertArrayEquals(expected, body.toByteArray());
+    }
+
+    @Test
+    public void shouldStreamLargeResponse() throws IOException {
+
+        // Given
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3 * ResponseWriter.INITIAL_SIZE) {
+            text.append("café 😀 ");
+        }
+
+        // When
+        write(text.toString(), ResponseWriter.INITIAL_SIZE);
+
+        // Then
+        verify(response, never()).setContentLength(anyInt());
+        assertEquals(text.toString(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldGrowBufferUpToLimit() throws IOException {
+
+        // Given
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3 * ResponseWriter.INITIAL_SIZE) {
+            text.append("green eggs and ham ");
+        }
+
+        // When
+        write(text.toString(), 4 * ResponseWriter.INITIAL_SIZE);
+
+        // Then
+        verify(response).setContentLength(text.length());
+        assertEquals(text.toString(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldReplaceUnpairedSurrogates() throws IOException {
+
+        // When
+        write("a\uD83Db\uDE00", 1024);
+
+        // Then
+        assertEquals("a?b?", new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldTagBufferedResponse() throws IOException {
+
+        // Given
+        String text = "{\"name\":\"Sam\"}";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        String etag = Conditional.etag(bytes, 0, bytes.length);
+
+        // When
+        boolean notModified = writeConditional(text, 1024, "\"other\"");
+
+        // Then
+        assertFalse(notModified);
+        verify(response).setHeader("ETag", etag);
+        verify(response).setContentLength(bytes.length);
+        assertEquals(text, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldSendNotModifiedIfETagMatches() throws IOException {
+
+        // Given
+        String text = "{\"name\":\"Sam\"}";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        String etag = Conditional.etag(bytes, 0, bytes.length);
+
+        // When
+        boolean notModified = writeConditional(text, 1024, "\"other\", " + etag);
+
+        // Then
+        assertTrue(notModified);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void shouldNotTagStreamedResponse() throws IOException {
+
+        // Given
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3 * ResponseWriter.INITIAL_SIZE) {
+            text.append("green eggs and ham ");
+        }
+
+        // When
+        boolean notModified = writeConditional(text.toString(), ResponseWriter.INITIAL_SIZE, "*");
+
+        // Then
+        assertFalse(notModified);
+        verify(response, never()).setHeader(eq("ETag"), anyString());
+        assertEquals(text.toString(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldReuseWriterOnceReleased() throws IOException {
+
+        // Given
+        ResponseWriter first = ResponseWriter.acquire(response, 1024);
+        ResponseWriter nested = ResponseWriter.acquire(response, 1024);
+        nested.release();
+        first.release();
+
+        // When
+        ResponseWriter again = ResponseWriter.acquire(response, 1024);
+        again.release();
+
+        // Then
+        assertNotSame(first, nested);
+        assertSame(first, again);
+    }
+
+    @Test
+    public void shouldSendBufferedBytesWhenAsked() throws IOException {
+
+        // Given
+        ResponseWriter writer = ResponseWriter.acquire(response, 0);
+
+        // When
+        String sent;
+        try {
+            writer.write("[1,");
+            writer.send();
+            sent = new String(body.toByteArray(), StandardCharsets.UTF_8);
+            writer.write("2]");
+            writer.finish();
+        } finally {
+            writer.release();
+        }
+
+        // Then
+        assertEquals("[1,", sent);
+        assertEquals("[1,2]", new String(body.toByteArray(), StandardCharsets.UTF_8));
+        verify(response, never()).setContentLength(anyInt());
+    }
+
+    private boolean writeConditional(String text, int limit, String ifNoneMatch) throws IOException {
+        ResponseWriter writer = ResponseWriter.acquire(response, limit);
+        try {
+            writer.write(text);
+            return writer.finish(ifNoneMatch);
+        } finally {
+            writer.release();
+        }
+    }
+
+    private void write(String text, int limit) throws IOException {
+        ResponseWriter writer = ResponseWriter.acquire(response, limit);
+        try {
+            // Write in uneven pieces to split surrogate pairs across calls:
+            for (int i = 0; i < text.length(); i += 7) {
+                writer.write(text, i, Math.min(7, text.length() - i));
+            }
+            writer.finish();
+        } finally {
+            writer.release();
+        }
+    }
+}
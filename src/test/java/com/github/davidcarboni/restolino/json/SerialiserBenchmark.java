@@ -0,0 +1,91 @@
+package com.github.davidcarboni.restolino.json;
+
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the shared {@link com.google.gson.Gson} instance in {@link Serialiser}
+ * with building a new one for every message, which is what used to happen.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.davidcarboni.restolino.json.SerialiserBenchmark</code>
+ * or straight from your IDE.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerialiserBenchmark {
+
+    public static class Item {
+        String name;
+        int quantity;
+        double price;
+    }
+
+    public static class Order {
+        long id;
+        String customer;
+        Date created;
+        List<Item> items;
+    }
+
+    GsonBuilder builder;
+    Order order;
+    String json;
+
+    @Setup
+    public void setup() {
+
+        // Equivalent to the previous per-call Serialiser.getBuilder().create():
+        builder = new GsonBuilder().setDateFormat(Serialiser.toUTCStringDateFormat);
+
+        order = new Order();
+        order.id = 42;
+        order.customer = "Sam I Am";
+        order.created = new Date();
+        order.items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Item item = new Item();
+            item.name = "Green eggs " + i;
+            item.quantity = i;
+            item.price = i * 1.5;
+            order.items.add(item);
+        }
+        json = Serialiser.serialise(order);
+    }
+
+    @Benchmark
+    public String serialiseNewGson() {
+        return builder.create().toJson(order);
+    }
+
+    @Benchmark
+    public String serialiseSharedGson() {
+        return Serialiser.serialise(order);
+    }
+
+    @Benchmark
+    public Order deserialiseNewGson() {
+        return builder.create().fromJson(json, Order.class);
+    }
+
+    @Benchmark
+    public Order deserialiseSharedGson() {
+        return Serialiser.deserialise(json, Order.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SerialiserBenchmark.class.getSimpleName()).build()).run();
+    }
+}